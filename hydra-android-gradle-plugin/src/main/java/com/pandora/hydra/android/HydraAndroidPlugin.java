@@ -53,6 +53,11 @@ public class HydraAndroidPlugin implements Plugin<Project> {
                 hydraExtension.setBalanceThreads(false);
             }
 
+            if(hydraExtension.isWorkQueue()) {
+                project.getLogger().info("Hydra Android doesn't support work queues. Ignoring setting");
+                hydraExtension.setWorkQueue(false);
+            }
+
             BalancedTestFactory<AndroidUnitTest, AndroidUnitTest> factory = new BalancedTestFactory<>(AndroidUnitTest.class,
                     AndroidUnitTest.class,
                     (balancedTest, originalTest) -> {
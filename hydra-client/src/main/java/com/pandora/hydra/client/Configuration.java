@@ -39,6 +39,7 @@ public class Configuration {
     public static final String ENV_HYDRA_HTTPS = "HYDRA_HTTPS";
     public static final String ENV_HYDRA_CLIENT_TIMEOUT = "HYDRA_CLIENT_TIMEOUT";
     public static final String ENV_HYDRA_CLIENT_ATTEMPTS = "HYDRA_CLIENT_ATTEMPTS";
+    public static final String ENV_HYDRA_CALIBRATE = "HYDRA_CALIBRATE";
 
     //from jenkins
     public static final String ENV_JOB_NAME = "JOB_NAME";
@@ -53,9 +54,11 @@ public class Configuration {
     private final long clientTimeout;
     private final boolean https;
     private final int clientAttempts;
+    private final boolean calibrate;
 
     private Configuration(String remoteHost, Integer remotePort, String slaveName, String jobName,
-                          List<String> hostList, String buildTag, long clientTimeout, boolean https, int clientAttempts) {
+                          List<String> hostList, String buildTag, long clientTimeout, boolean https, int clientAttempts,
+                          boolean calibrate) {
         this.remoteHost = remoteHost;
         this.remotePort = remotePort;
         this.slaveName = slaveName;
@@ -65,6 +68,7 @@ public class Configuration {
         this.clientTimeout = clientTimeout;
         this.https = https;
         this.clientAttempts = clientAttempts;
+        this.calibrate = calibrate;
     }
 
     public static Configuration newConfigurationFromEnv(Map<String, String> envOverrides) {
@@ -80,6 +84,7 @@ public class Configuration {
         String envTimeout = env.get(ENV_HYDRA_CLIENT_TIMEOUT);
         String envHttps = env.get(ENV_HYDRA_HTTPS);
         String envRetries = env.get(ENV_HYDRA_CLIENT_ATTEMPTS);
+        String envCalibrate = env.get(ENV_HYDRA_CALIBRATE);
 
         if(envJobName != null && envJobName.contains("/")) {
             envJobName = envJobName.substring(0, envJobName.indexOf("/"));
@@ -103,8 +108,11 @@ public class Configuration {
         String httpsString = chooseValue(envHttps, envOverrides.get(ENV_HYDRA_HTTPS));
         boolean https = Boolean.parseBoolean(httpsString);
 
+        String calibrateString = chooseValue(envCalibrate, envOverrides.get(ENV_HYDRA_CALIBRATE));
+        boolean calibrate = calibrateString == null || Boolean.parseBoolean(calibrateString);
+
         return new Configuration(parsedHostname, parsedPortNum, slaveName, jobName, parseHostList(hostList), buildTag,
-                clientTimeout, https, clientRetries);
+                clientTimeout, https, clientRetries, calibrate);
     }
 
     private static String parseRemoteHost(String hostname) {
@@ -183,4 +191,11 @@ public class Configuration {
     public boolean isHttps() {
         return https;
     }
+
+    /**
+     * @return whether the client measures the speed of this host and reports it to the server, see {@link HostCalibration}
+     */
+    public boolean isCalibrate() {
+        return calibrate;
+    }
 }
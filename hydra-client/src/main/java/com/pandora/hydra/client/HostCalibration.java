@@ -0,0 +1,90 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A short CPU and memory benchmark, run once per JVM. The server compares the scores of the hosts of a build to predict how
+ * long a test will take on each of them, so hosts of different hardware classes are given work in proportion to their speed
+ *
+ * @since 10/16/26
+ */
+final class HostCalibration {
+
+    /**
+     * 2M ints, 8MB, larger than the L2 cache of most CPUs
+     */
+    private static final int WORKING_SET = 1 << 21;
+    private static final int STEPS = 1 << 19;
+    private static final int RUNS = 5;
+
+    private static volatile Double calibrationMs;
+    private static volatile int sink;
+
+    private HostCalibration() {
+    }
+
+    /**
+     * @return how many milliseconds the benchmark takes on this host, the fastest of a few runs so that a briefly busy
+     * host isn't measured as a slow one
+     */
+    static double calibrationMs() {
+        Double calibration = calibrationMs;
+        if (calibration == null) {
+            synchronized (HostCalibration.class) {
+                calibration = calibrationMs;
+                if (calibration == null) {
+                    calibration = measure();
+                    calibrationMs = calibration;
+                    System.out.println(String.format("Host calibration took %.1fms", calibration));
+                }
+            }
+        }
+        return calibration;
+    }
+
+    private static double measure() {
+        int[] memory = new int[WORKING_SET];
+        for (int i = 0; i < memory.length; i++) {
+            memory[i] = i * 0x9E3779B9;
+        }
+
+        long fastest = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            sink = work(memory, run);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+        return (double) fastest / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Pseudo random reads and writes, each depending on the one before so they can't be reordered or skipped
+     */
+    private static int work(int[] memory, int seed) {
+        int mask = memory.length - 1;
+        int hash = seed;
+        for (int i = 0; i < STEPS; i++) {
+            int index = (hash ^ (hash >>> 16)) & mask;
+            hash = hash * 31 + memory[index];
+            memory[index] = hash;
+        }
+        return hash;
+    }
+}
@@ -17,6 +17,8 @@
 
 package com.pandora.hydra.client;
 
+import com.pandora.hydra.common.TestIncludes;
+import com.pandora.hydra.common.TestLease;
 import com.pandora.hydra.common.TestSuite;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
@@ -28,6 +30,7 @@ import retrofit2.http.Query;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -38,19 +41,62 @@ public interface HydraApi {
 
     @GET("/tests/{jobName}/{hostName}/excludes")
     Call<Set<String>> getExcludes(@Path("jobName") String jobName, @Path("hostName") String hostName,
-                                  @Query("host_list") String hostList, @Query("build_tag") String buildTag);
+                                  @Query("host_list") String hostList, @Query("build_tag") String buildTag,
+                                  @Query("calibration_ms") Double calibrationMs);
 
     @GET("/tests/{jobName}/{hostName}/{projectName}/excludes")
     Call<Set<String>> getExcludes(@Path("jobName") String jobName, @Path("hostName") String hostName, @Path("projectName") String projectName,
-                                  @Query("host_list") String hostList, @Query("build_tag") String buildTag);
+                                  @Query("host_list") String hostList, @Query("build_tag") String buildTag,
+                                  @Query("calibration_ms") Double calibrationMs);
+
+    @GET("/tests/{jobName}/{hostName}/includes")
+    Call<TestIncludes> getIncludes(@Path("jobName") String jobName, @Path("hostName") String hostName,
+                                   @Query("host_list") String hostList, @Query("build_tag") String buildTag,
+                                   @Query("calibration_ms") Double calibrationMs);
+
+    @GET("/tests/{jobName}/{hostName}/{projectName}/includes")
+    Call<TestIncludes> getIncludes(@Path("jobName") String jobName, @Path("hostName") String hostName, @Path("projectName") String projectName,
+                                   @Query("host_list") String hostList, @Query("build_tag") String buildTag,
+                                   @Query("calibration_ms") Double calibrationMs);
 
     @GET("/tests/{jobName}/{hostName}/threads")
     Call<Set<List<String>>> getThreadPartitions(@Path("jobName") String jobName, @Path("hostName") String hostName,
                                                 @Query("host_list") String hostList, @Query("build_tag") String buildTag,
                                                 @Query("num_threads") Integer numThreads);
 
+    @POST("/tests/{jobName}/{hostName}/{projectName}/lease")
+    Call<TestLease> leaseTests(@Path("jobName") String jobName, @Path("hostName") String hostName, @Path("projectName") String projectName,
+                               @Query("host_list") String hostList, @Query("build_tag") String buildTag,
+                               @Query("batch_size") Integer batchSize, @Query("completed") Collection<String> completed,
+                               @Body Collection<String> candidates);
+
+    @POST("/tests/{jobName}/{hostName}/dead")
+    Call<Map<String, Set<String>>> reportDeadHost(@Path("jobName") String jobName, @Path("hostName") String deadHostName,
+                                                  @Query("host_list") String hostList, @Query("build_tag") String buildTag,
+                                                  @Body Collection<String> completedTests);
+
+    @GET("/tests/{jobName}/{hostName}/recovered")
+    Call<Set<String>> getRecoveredTests(@Path("jobName") String jobName, @Path("hostName") String hostName,
+                                        @Query("host_list") String hostList, @Query("build_tag") String buildTag);
+
+    @GET("/tests/{jobName}/{hostName}/{projectName}/recovered")
+    Call<Set<String>> getRecoveredTests(@Path("jobName") String jobName, @Path("hostName") String hostName, @Path("projectName") String projectName,
+                                        @Query("host_list") String hostList, @Query("build_tag") String buildTag);
+
     @POST("/tests/{jobName}/{hostName}/{project}/runtimes")
     Call<ResponseBody> postTestTimes(@Path("jobName") String jobName, @Path("hostName") String hostName,
-                                     @Path("project") String projectName, @Body Collection<TestSuite> tests);
+                                     @Path("project") String projectName, @Query("host_list") String hostList,
+                                     @Query("build_tag") String buildTag, @Query("calibration_ms") Double calibrationMs,
+                                     @Body Collection<TestSuite> tests);
+
+    @POST("/tests/{jobName}/{hostName}/{projectName}/progress")
+    Call<Set<String>> reportProgress(@Path("jobName") String jobName, @Path("hostName") String hostName, @Path("projectName") String projectName,
+                                     @Query("host_list") String hostList, @Query("build_tag") String buildTag,
+                                     @Body Collection<String> completedTests);
+
+    @POST("/tests/{jobName}/{hostName}/{projectName}/speculate")
+    Call<List<String>> speculate(@Path("jobName") String jobName, @Path("hostName") String hostName, @Path("projectName") String projectName,
+                                 @Query("host_list") String hostList, @Query("build_tag") String buildTag,
+                                 @Query("max_tests") Integer maxTests);
 
 }
@@ -20,12 +20,18 @@ package com.pandora.hydra.client;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.gson.Gson;
+import com.pandora.hydra.common.TestIncludes;
+import com.pandora.hydra.common.TestLease;
 import com.pandora.hydra.common.TestSuite;
 import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.ResponseBody;
+import okio.GzipSource;
+import okio.InflaterSource;
+import okio.Okio;
+import okio.Source;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
@@ -34,10 +40,12 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
 
 /**
  * @author Justin Guerra
@@ -45,12 +53,20 @@ import java.util.concurrent.TimeUnit;
  */
 public class HydraClient {
 
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
     private final HydraApi api;
     private final Configuration config;
 
+    /**
+     * How long the calibration benchmark took on this host, null if calibration is turned off
+     */
+    private final Double calibrationMs;
+
     public HydraClient(Configuration configuration) {
         this.config = configuration;
         this.api = createHydraApi(config);
+        this.calibrationMs = config.isCalibrate() ? HostCalibration.calibrationMs() : null;
     }
 
     private HydraApi createHydraApi(Configuration config) {
@@ -68,6 +84,7 @@ public class HydraClient {
             clientBuilder.proxy(proxy);
         }
         clientBuilder.addInterceptor(createRetryInterceptor(config.getClientAttempts()));
+        clientBuilder.addInterceptor(createCompressionInterceptor());
 
         OkHttpClient client = clientBuilder.build();
         Retrofit retrofit = new Retrofit.Builder()
@@ -85,9 +102,16 @@ public class HydraClient {
             @Override
             public okhttp3.Response intercept(Chain chain) throws IOException {
                 okhttp3.Response response = null;
+                IOException lastException = null;
                 for (int i = 1; i <= numAttempts; i++) {
                     Request request = chain.request();
                     System.out.println("Attempt " + i + "/" + numAttempts + " for " + request.url());
+                    if (response != null) {
+                        // the unsuccessful response of the previous attempt, only the last one is handed back
+                        response.close();
+                        response = null;
+                    }
+
                     try {
                         response = chain.proceed(request);
                         if (response.isSuccessful()) {
@@ -97,10 +121,80 @@ public class HydraClient {
                         }
                     } catch (Exception e) {
                         System.out.println(e);
+                        lastException = e instanceof IOException ? (IOException) e : new IOException(e);
+                    }
+
+                    long backoff = response != null ? retryAfterMillis(response) : 0;
+                    if (backoff > 0 && i < numAttempts) {
+                        System.out.println("Server is busy, waiting " + backoff + "ms before the next attempt");
+                        response.close();
+                        response = null;
+                        try {
+                            Thread.sleep(backoff);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while waiting to retry " + request.url(), e);
+                        }
                     }
                 }
+
+                if (response == null) {
+                    throw lastException != null ? lastException : new IOException("No attempts were made for " + chain.request().url());
+                }
+                return response;
+            }
+        };
+    }
+
+    /**
+     * The server answers with a 429 and a Retry-After header when it has too many test times waiting to be written.
+     * Returns how long to wait before trying again, or 0 if the response doesn't ask us to wait
+     */
+    static long retryAfterMillis(okhttp3.Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (response.code() != 429 || retryAfter == null) {
+            return 0;
+        }
+
+        try {
+            long seconds = Long.parseLong(retryAfter.trim());
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Math.min(seconds, MAX_RETRY_AFTER_SECONDS)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Asks for compressed responses and decompresses them. OkHttp only does this on its own for gzip, and stops doing it as
+     * soon as a request sets Accept-Encoding itself
+     */
+    static Interceptor createCompressionInterceptor() {
+        return chain -> {
+            Request request = chain.request().newBuilder()
+                    .header("Accept-Encoding", "gzip, deflate")
+                    .build();
+            okhttp3.Response response = chain.proceed(request);
+
+            ResponseBody body = response.body();
+            String encoding = response.header("Content-Encoding");
+            if (body == null || encoding == null) {
+                return response;
+            }
+
+            Source decoded;
+            if (encoding.equalsIgnoreCase("gzip")) {
+                decoded = new GzipSource(body.source());
+            } else if (encoding.equalsIgnoreCase("deflate")) {
+                decoded = new InflaterSource(body.source(), new Inflater());
+            } else {
                 return response;
             }
+
+            return response.newBuilder()
+                    .removeHeader("Content-Encoding")
+                    .removeHeader("Content-Length")
+                    .body(ResponseBody.create(body.contentType(), -1L, Okio.buffer(decoded)))
+                    .build();
         };
     }
 
@@ -145,10 +239,13 @@ public class HydraClient {
             map.put(suite.getProject(), suite);
         }
 
+        // the server only drops results of tests another host finished first when it can tell which test run they're from
+        String hostList = config.getBuildTag() == null ? null : String.join(",", config.getHostList());
+
         for (Map.Entry<String, Collection<TestSuite>> entry : map.asMap().entrySet()) {
             String projectName = entry.getKey();
             Response<ResponseBody> response = api.postTestTimes(config.getJobName(), config.getSlaveName(),
-                    projectName, entry.getValue()).execute();
+                    projectName, hostList, config.getBuildTag(), calibrationMs, entry.getValue()).execute();
 
             if(response.isSuccessful()) {
                 System.out.println("Successfully POSTed test results to hydra server for project " + projectName);
@@ -160,7 +257,8 @@ public class HydraClient {
 
     public Set<String> getExcludes() throws IOException {
         String hostList = String.join(",", config.getHostList());
-        Response<Set<String>> response = api.getExcludes(config.getJobName(), config.getSlaveName(), hostList, config.getBuildTag()).execute();
+        Response<Set<String>> response = api.getExcludes(config.getJobName(), config.getSlaveName(), hostList, config.getBuildTag(),
+                calibrationMs).execute();
 
         if(response.isSuccessful()) {
             return response.body();
@@ -172,7 +270,37 @@ public class HydraClient {
     public Set<String> getExcludes(String projectName) throws IOException {
         String hostList = String.join(",", config.getHostList());
         Response<Set<String>> response = api.getExcludes(config.getJobName(), config.getSlaveName(),
-                projectName, hostList, config.getBuildTag()).execute();
+                projectName, hostList, config.getBuildTag(), calibrationMs).execute();
+
+        if(response.isSuccessful()) {
+            return response.body();
+        } else {
+            throw new IllegalStateException("Failed to retrieve tests partitions: " + response.message());
+        }
+    }
+
+    /**
+     * Fetches the tests this host should run, which is much smaller than the excludes when there are many hosts
+     *
+     * @return the tests to run, across all projects
+     * @throws IOException in case of exceptions
+     */
+    public TestIncludes getIncludes() throws IOException {
+        String hostList = String.join(",", config.getHostList());
+        Response<TestIncludes> response = api.getIncludes(config.getJobName(), config.getSlaveName(), hostList, config.getBuildTag(),
+                calibrationMs).execute();
+
+        if(response.isSuccessful()) {
+            return response.body();
+        } else {
+            throw new IllegalStateException("Failed to retrieve tests partitions: " + response.message());
+        }
+    }
+
+    public TestIncludes getIncludes(String projectName) throws IOException {
+        String hostList = String.join(",", config.getHostList());
+        Response<TestIncludes> response = api.getIncludes(config.getJobName(), config.getSlaveName(),
+                projectName, hostList, config.getBuildTag(), calibrationMs).execute();
 
         if(response.isSuccessful()) {
             return response.body();
@@ -181,6 +309,127 @@ public class HydraClient {
         }
     }
 
+    /**
+     * Leases the next batch of tests to run from the hydra server's work queue
+     *
+     * @param projectName the project to lease tests for
+     * @param batchSize the maximum number of tests to lease
+     * @param candidates test classes available locally. Only needs to be sent with the first lease, so the server can
+     *                   hand out tests it has never seen before
+     * @return the leased tests. An empty lease with no outstanding tests means there is no more work for the project
+     * @throws IOException in case of exceptions
+     */
+    public TestLease leaseTests(String projectName, int batchSize, Collection<String> candidates) throws IOException {
+        return leaseTests(projectName, batchSize, candidates, Collections.emptyList());
+    }
+
+    /**
+     * Same as {@link #leaseTests(String, int, Collection)}, also reporting the tests this host finished since its last lease.
+     * Tests that aren't reported finished in time are leased to another host
+     */
+    public TestLease leaseTests(String projectName, int batchSize, Collection<String> candidates, Collection<String> completed) throws IOException {
+        String hostList = String.join(",", config.getHostList());
+        Response<TestLease> response = api.leaseTests(config.getJobName(), config.getSlaveName(), projectName,
+                hostList, config.getBuildTag(), batchSize, completed, candidates).execute();
+
+        if(response.isSuccessful()) {
+            return response.body();
+        } else {
+            throw new IllegalStateException("Failed to lease tests: " + response.message());
+        }
+    }
+
+    /**
+     * Reports that another host of this test run died, so its tests are split between the hosts that are still running
+     *
+     * @param deadHostName the host that died, must be in the host list
+     * @param completedTests tests the dead host is known to have finished, they aren't run again
+     * @return the dead host's tests by the host that will now run them
+     * @throws IOException in case of exceptions
+     */
+    public Map<String, Set<String>> reportDeadHost(String deadHostName, Collection<String> completedTests) throws IOException {
+        String hostList = String.join(",", config.getHostList());
+        Response<Map<String, Set<String>>> response = api.reportDeadHost(config.getJobName(), deadHostName, hostList,
+                config.getBuildTag(), completedTests).execute();
+
+        if(response.isSuccessful()) {
+            return response.body();
+        } else {
+            throw new IllegalStateException("Failed to report dead host " + deadHostName + ": " + response.message());
+        }
+    }
+
+    /**
+     * Fetches the tests of dead hosts that this host should run on top of its own tests
+     *
+     * @return the recovered tests, across all projects. Empty if no host died
+     * @throws IOException in case of exceptions
+     */
+    public Set<String> getRecoveredTests() throws IOException {
+        String hostList = String.join(",", config.getHostList());
+        Response<Set<String>> response = api.getRecoveredTests(config.getJobName(), config.getSlaveName(), hostList,
+                config.getBuildTag()).execute();
+
+        if(response.isSuccessful()) {
+            return response.body();
+        } else {
+            throw new IllegalStateException("Failed to retrieve recovered tests: " + response.message());
+        }
+    }
+
+    public Set<String> getRecoveredTests(String projectName) throws IOException {
+        String hostList = String.join(",", config.getHostList());
+        Response<Set<String>> response = api.getRecoveredTests(config.getJobName(), config.getSlaveName(), projectName,
+                hostList, config.getBuildTag()).execute();
+
+        if(response.isSuccessful()) {
+            return response.body();
+        } else {
+            throw new IllegalStateException("Failed to retrieve recovered tests: " + response.message());
+        }
+    }
+
+    /**
+     * Reports the tests this host finished so far, so the server knows which tests are left when a host runs out of tests
+     *
+     * @param projectName
+     * @param completedTests tests this host finished
+     * @return the tests this host finished before any other host. Empty if the server doesn't know the test run
+     * @throws IOException in case of exceptions
+     */
+    public Set<String> reportProgress(String projectName, Collection<String> completedTests) throws IOException {
+        String hostList = String.join(",", config.getHostList());
+        Response<Set<String>> response = api.reportProgress(config.getJobName(), config.getSlaveName(), projectName,
+                hostList, config.getBuildTag(), completedTests).execute();
+
+        if(response.isSuccessful()) {
+            return response.body();
+        } else {
+            throw new IllegalStateException("Failed to report progress: " + response.message());
+        }
+    }
+
+    /**
+     * Asks for copies of tests a slower host hasn't finished yet, once this host has run all of its own. The slower host
+     * keeps running them too, and the result of whichever host finishes first is kept
+     *
+     * @param projectName
+     * @param maxTests the most tests to run
+     * @return the tests to run. Empty once no host is far enough behind
+     * @throws IOException in case of exceptions
+     */
+    public List<String> speculate(String projectName, int maxTests) throws IOException {
+        String hostList = String.join(",", config.getHostList());
+        Response<List<String>> response = api.speculate(config.getJobName(), config.getSlaveName(), projectName,
+                hostList, config.getBuildTag(), maxTests).execute();
+
+        if(response.isSuccessful()) {
+            return response.body();
+        } else {
+            throw new IllegalStateException("Failed to retrieve speculative tests: " + response.message());
+        }
+    }
+
     public Set<List<String>> getThreadPartitions(int numThreads) throws IOException {
         String hostList = String.join(",", config.getHostList());
 
@@ -77,6 +77,7 @@ public class ConfigurationTest {
 
         assertEquals(hosts, configuration.getHostList());
         assertTrue(configuration.isHttps());
+        assertTrue(configuration.isCalibrate());
         assertNull(configuration.getRemotePort());
     }
 
@@ -96,6 +97,7 @@ public class ConfigurationTest {
         overrides.put(Configuration.ENV_HYDRA_CLIENT_TIMEOUT, "1000");
         overrides.put(Configuration.ENV_HYDRA_HTTPS, "false");
         overrides.put(Configuration.ENV_HYDRA_CLIENT_ATTEMPTS, "2");
+        overrides.put(Configuration.ENV_HYDRA_CALIBRATE, "false");
 
         Configuration configuration = Configuration.newConfigurationFromEnv(derp, overrides);
 
@@ -108,6 +110,7 @@ public class ConfigurationTest {
         assertEquals(overriddenHosts, configuration.getHostList());
         assertFalse(configuration.isHttps());
         assertEquals(2, configuration.getClientAttempts());
+        assertFalse(configuration.isCalibrate());
     }
 
     private Map<String, String> createEnvironmentMap(List<String> hosts) {
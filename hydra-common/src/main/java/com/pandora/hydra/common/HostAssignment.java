@@ -0,0 +1,84 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.common;
+
+import java.util.Collection;
+
+/**
+ * Deterministically maps a test to one host out of a host list using rendezvous (highest random weight) hashing. The
+ * hydra server and hydra clients both use this to agree on who runs a test the server has never seen before, without
+ * needing to talk to each other. Adding or removing a host only changes the owner of the tests that hashed to that host.
+ *
+ * @since 10/16/26
+ */
+public class HostAssignment {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private HostAssignment() {
+    }
+
+    /**
+     * @param testName - fully qualified name of a test class
+     * @param hostNames - every host participating in the test run
+     * @return the host that owns testName, or null if hostNames is empty
+     */
+    public static String ownerOf(String testName, Collection<String> hostNames) {
+        String owner = null;
+        long maxWeight = 0;
+        for (String host : hostNames) {
+            long weight = weight(testName, host);
+            if (owner == null || Long.compareUnsigned(weight, maxWeight) > 0
+                    || (weight == maxWeight && host.compareTo(owner) < 0)) {
+                owner = host;
+                maxWeight = weight;
+            }
+        }
+        return owner;
+    }
+
+    public static boolean isOwner(String testName, String hostName, Collection<String> hostNames) {
+        return hostName.equals(ownerOf(testName, hostNames));
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters of testName and hostName, followed by a murmur3 finalizer so that
+     * similar names don't produce similar weights
+     */
+    static long weight(String testName, String hostName) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, testName);
+        hash = (hash ^ 0x1f) * FNV_PRIME;
+        hash = hash(hash, hostName);
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The tests a single host should run. Unlike an exclusion list, which contains every other host's tests, this only contains
+ * the host's own share, plus enough information to decide who runs a test the server has never seen: it belongs to the host
+ * that {@link HostAssignment} picks for it, unless the server knows the test and assigned it somewhere else.
+ *
+ * @since 10/16/26
+ */
+public class TestIncludes {
+
+    /**
+     * Tests the server assigned to the host
+     */
+    private Set<String> includes;
+
+    /**
+     * Tests {@link HostAssignment} maps to the host that the server assigned to a different host
+     */
+    private Set<String> reassigned;
+
+    /**
+     * The host these includes are for
+     */
+    private String hostName;
+
+    /**
+     * Every host in the test run
+     */
+    private List<String> hostNames;
+
+    public TestIncludes() {
+    }
+
+    public TestIncludes(Set<String> includes, Set<String> reassigned, String hostName, List<String> hostNames) {
+        this.includes = includes;
+        this.reassigned = reassigned;
+        this.hostName = hostName;
+        this.hostNames = hostNames;
+    }
+
+    public Set<String> getIncludes() {
+        return includes != null ? includes : Collections.emptySet();
+    }
+
+    public Set<String> getReassigned() {
+        return reassigned != null ? reassigned : Collections.emptySet();
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public List<String> getHostNames() {
+        return hostNames != null ? hostNames : Collections.emptyList();
+    }
+
+    /**
+     * @param testName fully qualified name of a test class
+     * @return true if the host should run testName
+     */
+    public boolean shouldRun(String testName) {
+        if (getIncludes().contains(testName)) {
+            return true;
+        }
+        return !getReassigned().contains(testName) && hostName != null && HostAssignment.isOwner(testName, hostName, getHostNames());
+    }
+
+    @Override
+    public String toString() {
+        return "TestIncludes{" +
+                "hostName='" + hostName + '\'' +
+                ", includes=" + getIncludes().size() +
+                ", reassigned=" + getReassigned().size() +
+                '}';
+    }
+}
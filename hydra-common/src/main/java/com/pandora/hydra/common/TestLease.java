@@ -0,0 +1,84 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.common;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Response to a request for more work from a hydra server running in work queue mode
+ *
+ * @since 10/16/26
+ */
+public class TestLease {
+
+    /**
+     * Tests the host should run next, longest first. An empty list means there is no more work for the project.
+     */
+    private List<String> tests;
+
+    /**
+     * Candidate tests the server has no runtime data for that were assigned to the requesting host. These are only
+     * populated in response to a request that included the host's candidate tests.
+     */
+    private List<String> newTests;
+
+    /**
+     * Tests of the project that are queued or leased to a host that hasn't reported them finished. While there are any,
+     * an empty lease only means there is no work right now, since the leases of a host that died are handed out again
+     */
+    private int outstanding;
+
+    public TestLease() {
+    }
+
+    public TestLease(List<String> tests, List<String> newTests) {
+        this(tests, newTests, 0);
+    }
+
+    public TestLease(List<String> tests, List<String> newTests, int outstanding) {
+        this.tests = tests;
+        this.newTests = newTests;
+        this.outstanding = outstanding;
+    }
+
+    public List<String> getTests() {
+        return tests != null ? tests : Collections.emptyList();
+    }
+
+    public List<String> getNewTests() {
+        return newTests != null ? newTests : Collections.emptyList();
+    }
+
+    public int getOutstanding() {
+        return outstanding;
+    }
+
+    public boolean isEmpty() {
+        return getTests().isEmpty() && getNewTests().isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "TestLease{" +
+                "tests=" + getTests().size() +
+                ", newTests=" + getNewTests().size() +
+                ", outstanding=" + outstanding +
+                '}';
+    }
+}
@@ -22,6 +22,8 @@ import java.util.function.Supplier;
  */
 public class BalancedTestFactory<T extends Test, U extends Test> {
 
+    private static final int DEFAULT_LEASE_BATCH_SIZE = 4;
+
     private final Class<T> balancedTestType;
     private final Class<U> originalTestType;
     private final BiConsumer<T, U> extraConfigurer;
@@ -63,20 +65,36 @@ public class BalancedTestFactory<T extends Test, U extends Test> {
                 Configuration configuration = Configuration.newConfigurationFromEnv(buildOverrideMap(hydraExtension));
                 return new HydraClient(configuration);
             };
-            lazyExcluder = LazyTestExcluder.fromHydraServer(project, clientSupplier);
+            lazyExcluder = hydraExtension.isUseIncludes()
+                    ? LazyTestExcluder.fromHydraServerIncludes(project, clientSupplier)
+                    : LazyTestExcluder.fromHydraServer(project, clientSupplier);
         }
 
         for (U originalTest : testTasks) {
             T balancedTest = project.getTasks()
                     .create(originalTest.getName() + "_balanced", balancedTestType, new BalancedTestConfigurer<>(originalTest, extraConfigurer));
 
-            balancedTest.exclude(lazyExcluder);
+            final BalancedTestListener testListener;
+            if(!localRun && hydraExtension.isWorkQueue()) {
+                int batchSize = hydraExtension.getWorkQueueBatchSize() != null ? hydraExtension.getWorkQueueBatchSize() : DEFAULT_LEASE_BATCH_SIZE;
+                long testTimeout = hydraExtension.getWorkQueueTestTimeout() != null ? hydraExtension.getWorkQueueTestTimeout() : TestLeaser.DEFAULT_TEST_TIMEOUT_MILLIS;
+                TestLeaser testLeaser = new TestLeaser(project, clientSupplier, batchSize, testTimeout);
+                balancedTest.setProperty("testLeaser", testLeaser);
+                testListener = new BalancedTestListener(balancedTest.getProject().getName(), testLeaser);
+            } else if(!localRun && hydraExtension.isSpeculate()) {
+                balancedTest.exclude(lazyExcluder);
+                TestSpeculator testSpeculator = new TestSpeculator(project, clientSupplier);
+                balancedTest.setProperty("testSpeculator", testSpeculator);
+                testListener = new BalancedTestListener(balancedTest.getProject().getName(), testSpeculator);
+            } else {
+                balancedTest.exclude(lazyExcluder);
+                testListener = new BalancedTestListener(balancedTest.getProject().getName());
+            }
 
-            BalancedTestListener testListener = new BalancedTestListener(balancedTest.getProject().getName());
             balancedTest.addTestListener(testListener);
 
             if(!localRun) {
-                if(hydraExtension.isBalanceThreads()) {
+                if(hydraExtension.isBalanceThreads() && !hydraExtension.isWorkQueue() && !hydraExtension.isSpeculate()) {
                     balancedTest.setProperty("balanceThreads", true);
                     balancedTest.setProperty("envOverrides", buildOverrideMap(hydraExtension));
                 }
@@ -114,6 +132,7 @@ public class BalancedTestFactory<T extends Test, U extends Test> {
         addIfPresent(overrideMap, extension::getJobName, Configuration.ENV_JOB_NAME);
         addIfPresent(overrideMap, extension::getNumClientAttempts, Configuration.ENV_HYDRA_CLIENT_ATTEMPTS);
         addIfPresent(overrideMap, extension::getClientTimeout, Configuration.ENV_HYDRA_CLIENT_TIMEOUT);
+        addIfPresent(overrideMap, extension::getCalibrate, Configuration.ENV_HYDRA_CALIBRATE);
 
         return overrideMap;
     }
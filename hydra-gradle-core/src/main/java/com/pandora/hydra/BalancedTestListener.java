@@ -15,18 +15,30 @@ public class BalancedTestListener implements TestListener {
 
     private final String projectName;
     private final ConcurrentMap<String, TestSuite> tests;
+    private final TestClassTracker tracker;
 
     public BalancedTestListener(String projectName) {
+        this(projectName, null);
+    }
+
+    public BalancedTestListener(String projectName, TestClassTracker tracker) {
         this.projectName = projectName;
         this.tests = new ConcurrentHashMap<>();
+        this.tracker = tracker;
     }
 
     @Override
-    public void beforeSuite(TestDescriptor suite) { }
+    public void beforeSuite(TestDescriptor suite) {
+        if(tracker != null && suite.getClassName() != null) {
+            tracker.started(suite.getClassName());
+        }
+    }
 
     @Override
     public void afterSuite(TestDescriptor suite, TestResult result) {
-
+        if(tracker != null && suite.getClassName() != null) {
+            tracker.completed(suite.getClassName());
+        }
     }
 
     @Override
@@ -42,6 +42,33 @@ public class HydraPluginExtension {
      */
     private boolean balanceThreads;
 
+    /**
+     * Pull tests from the hydra server's work queue while the test runs, instead of fetching an exclusion list up front
+     */
+    private boolean workQueue;
+
+    /**
+     * The maximum number of tests to lease from the work queue at once
+     */
+    private Integer workQueueBatchSize;
+
+    /**
+     * How long (in milliseconds) a single test class is expected to run at most when pulling tests from the work queue.
+     * Once a test class runs for longer, the node stops waiting on it before leasing more tests
+     */
+    private Long workQueueTestTimeout;
+
+    /**
+     * Report tests to the hydra server as they finish, and once this node has run its own tests, run copies of the tests a
+     * slower node hasn't finished yet
+     */
+    private boolean speculate;
+
+    /**
+     * Fetch the tests this node should run from hydra server, instead of every test it should skip
+     */
+    private boolean useIncludes;
+
     /**
      * The names of tests that the plugin will create a balanced version of
      */
@@ -63,6 +90,11 @@ public class HydraPluginExtension {
      */
     private Long clientTimeout;
 
+    /**
+     * Should the client measure the speed of this host, so the server can give slower hosts less work? Defaults to true
+     */
+    private Boolean calibrate;
+
     public String getHydraServer() {
         return hydraServer;
     }
@@ -111,6 +143,46 @@ public class HydraPluginExtension {
         this.balanceThreads = balanceThreads;
     }
 
+    public boolean isWorkQueue() {
+        return workQueue;
+    }
+
+    public void setWorkQueue(boolean workQueue) {
+        this.workQueue = workQueue;
+    }
+
+    public Integer getWorkQueueBatchSize() {
+        return workQueueBatchSize;
+    }
+
+    public void setWorkQueueBatchSize(Integer workQueueBatchSize) {
+        this.workQueueBatchSize = workQueueBatchSize;
+    }
+
+    public Long getWorkQueueTestTimeout() {
+        return workQueueTestTimeout;
+    }
+
+    public void setWorkQueueTestTimeout(Long workQueueTestTimeout) {
+        this.workQueueTestTimeout = workQueueTestTimeout;
+    }
+
+    public boolean isSpeculate() {
+        return speculate;
+    }
+
+    public void setSpeculate(boolean speculate) {
+        this.speculate = speculate;
+    }
+
+    public boolean isUseIncludes() {
+        return useIncludes;
+    }
+
+    public void setUseIncludes(boolean useIncludes) {
+        this.useIncludes = useIncludes;
+    }
+
     public Set<String> getBalancedTests() {
         return balancedTests;
     }
@@ -142,4 +214,12 @@ public class HydraPluginExtension {
     public void setClientTimeout(Long clientTimeout) {
         this.clientTimeout = clientTimeout;
     }
+
+    public Boolean getCalibrate() {
+        return calibrate;
+    }
+
+    public void setCalibrate(Boolean calibrate) {
+        this.calibrate = calibrate;
+    }
 }
@@ -1,6 +1,7 @@
 package com.pandora.hydra;
 
 import com.pandora.hydra.client.HydraClient;
+import com.pandora.hydra.common.TestIncludes;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
 import org.gradle.api.file.FileTreeElement;
@@ -21,35 +22,46 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 /**
- * Queries the test load balancer server to retrieve a black list of tests that should be skipped.
- * Defers queries to the hydra-server until execution time
+ * Queries the test load balancer server to retrieve a black list of tests that should be skipped, or a list of the tests that
+ * should be run. Defers queries to the hydra-server until execution time
  */
 public class LazyTestExcluder implements Spec<FileTreeElement> {
 
     private final Supplier<HydraClient> hydraClient;
     private final String projectName;
     private final Project project;
-    private final Supplier<Set<String>> exclusionSupplier;
+    private final Supplier<Predicate<String>> exclusionSupplier;
 
-    private volatile Set<String> blacklist;
+    private volatile Predicate<String> excluded;
 
-    private LazyTestExcluder(Project project, Supplier<HydraClient> hydraClientSupplier, Supplier<Set<String>> exclusionSupplier) {
+    private LazyTestExcluder(Project project, Supplier<HydraClient> hydraClientSupplier, Supplier<Set<String>> exclusionSupplier, boolean useIncludes) {
         this.hydraClient = hydraClientSupplier;
         this.projectName = project.getName();
         this.project = project;
 
-        if(exclusionSupplier == null) {
-            this.exclusionSupplier = this::fetchTestExcludesListFromHydraServer;
+        if(useIncludes) {
+            this.exclusionSupplier = this::fetchTestIncludesFromHydraServer;
+        } else if(exclusionSupplier == null) {
+            this.exclusionSupplier = () -> blacklist(fetchTestExcludesListFromHydraServer());
         } else {
-            this.exclusionSupplier = exclusionSupplier;
+            this.exclusionSupplier = () -> blacklist(exclusionSupplier.get());
         }
     }
 
     public static LazyTestExcluder fromHydraServer(Project project, Supplier<HydraClient> hydraClientSupplier) {
-        return new LazyTestExcluder(project, hydraClientSupplier, null);
+        return new LazyTestExcluder(project, hydraClientSupplier, null, false);
+    }
+
+    /**
+     * Only fetches the tests this host should run instead of every test it shouldn't, which is much smaller with many hosts.
+     * Tests the hydra server has never seen are run by one host, picked by {@link com.pandora.hydra.common.HostAssignment}
+     */
+    public static LazyTestExcluder fromHydraServerIncludes(Project project, Supplier<HydraClient> hydraClientSupplier) {
+        return new LazyTestExcluder(project, hydraClientSupplier, null, true);
     }
 
     public static LazyTestExcluder fromExclusionFile(Project project, String pathToExclusionFile) {
@@ -62,16 +74,15 @@ public class LazyTestExcluder implements Spec<FileTreeElement> {
             }
         };
 
-        return new LazyTestExcluder(project, () -> null, exclusionSupplier);
+        return new LazyTestExcluder(project, () -> null, exclusionSupplier, false);
     }
 
     @Override
     public boolean isSatisfiedBy(FileTreeElement fileTreeElement) {
-        if(blacklist == null) {
+        if(excluded == null) {
             synchronized(this) {
-                if(blacklist == null) {
-                    blacklist = exclusionSupplier.get();
-                    logTestBlackListIfSpecified();
+                if(excluded == null) {
+                    excluded = exclusionSupplier.get();
                 }
             }
         }
@@ -80,11 +91,16 @@ public class LazyTestExcluder implements Spec<FileTreeElement> {
         } else {
             RelativePath relativePath = fileTreeElement.getRelativePath();
             String fullyQualifiedName = buildQualifiedNameWithoutExtension(relativePath);
-            return blacklist.contains(fullyQualifiedName);
+            return excluded.test(fullyQualifiedName);
         }
     }
 
-    private void logTestBlackListIfSpecified() {
+    private Predicate<String> blacklist(Set<String> blacklist) {
+        logTestsIfSpecified(blacklist, "exclusions");
+        return blacklist::contains;
+    }
+
+    private void logTestsIfSpecified(Set<String> tests, String kind) {
         final HydraPluginExtension pluginExtension = project.getExtensions().getByType(HydraPluginExtension.class);
         if (!pluginExtension.isLogTestExclusions()) {
             return;
@@ -94,20 +110,32 @@ public class LazyTestExcluder implements Spec<FileTreeElement> {
         if (hostname == null || hostname.length() < 1) {
             hostname = System.getenv("NODE_NAME");
         }
-        String exclusionsFilename = projectName + '_' + hostname + "_test_exclusions.txt";
-        File exclusionsFile = new File(project.getRootProject().getBuildDir(), "hydra_client/" + exclusionsFilename);
-        exclusionsFile.getParentFile().mkdirs();
-        project.getLogger().log(LogLevel.INFO, "Logging Hydra test exclusions to " + exclusionsFile.getAbsolutePath());
-
-        try (PrintWriter exclusionsWriter = new PrintWriter(new BufferedWriter(new FileWriter(exclusionsFile)))) {
-            for (String testExclusion : blacklist) {
-                exclusionsWriter.println(testExclusion);
+        String testsFilename = projectName + '_' + hostname + "_test_" + kind + ".txt";
+        File testsFile = new File(project.getRootProject().getBuildDir(), "hydra_client/" + testsFilename);
+        testsFile.getParentFile().mkdirs();
+        project.getLogger().log(LogLevel.INFO, "Logging Hydra test " + kind + " to " + testsFile.getAbsolutePath());
+
+        try (PrintWriter testsWriter = new PrintWriter(new BufferedWriter(new FileWriter(testsFile)))) {
+            for (String test : tests) {
+                testsWriter.println(test);
             }
         } catch (IOException e) {
-            project.getLogger().log(LogLevel.WARN, "Unable to write Hydra test exclusions to " + exclusionsFile.getAbsolutePath(), e);
+            project.getLogger().log(LogLevel.WARN, "Unable to write Hydra test " + kind + " to " + testsFile.getAbsolutePath(), e);
         }
     }
 
+    private Predicate<String> fetchTestIncludesFromHydraServer() {
+        TestIncludes includes;
+        try {
+            includes = hydraClient.get().getIncludes(projectName);
+        } catch (IOException e) {
+            throw new GradleException("Unable to fetch tests from hydra server for project " + projectName, e);
+        }
+
+        logTestsIfSpecified(includes.getIncludes(), "inclusions");
+        return testName -> !includes.shouldRun(testName);
+    }
+
     private Set<String> fetchTestExcludesListFromHydraServer() {
         try {
             // We're switching to project-specific blacklists, but if you run into problems with this
@@ -0,0 +1,40 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra;
+
+/**
+ * Told when gradle's test workers start and finish each test class
+ *
+ * @since 10/17/26
+ */
+public interface TestClassTracker {
+
+    /**
+     * Called once a worker starts a test class
+     *
+     * @param className - fully qualified name of the test class
+     */
+    void started(String className);
+
+    /**
+     * Called once a worker is done with a test class
+     *
+     * @param className - fully qualified name of the test class
+     */
+    void completed(String className);
+}
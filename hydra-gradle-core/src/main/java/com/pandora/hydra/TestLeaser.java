@@ -0,0 +1,302 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra;
+
+import com.pandora.hydra.client.HydraClient;
+import com.pandora.hydra.common.TestLease;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.file.EmptyFileVisitor;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.file.FileVisitor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Feeds test classes to gradle's test class scanner as they are leased from the hydra server's work queue. A new batch is only
+ * leased once a worker has finished one of the tests that are already in flight, so a host keeps pulling work for as long
+ * as the queue has tests and never commits to more work than it can start right away.
+ *
+ * Finished tests are reported with the next lease. Until the server has no outstanding tests left, the leaser keeps asking
+ * for work, since the leases of a host that dies are handed out again once they expire.
+ *
+ * Only concrete top level classes are sent to the server as candidates. A leased class that gradle's scanner doesn't start
+ * within a couple of minutes is one it decided isn't a test, and counts as finished. A class that started but runs for
+ * longer than the test timeout stops counting against the host's capacity.
+ *
+ * @since 10/16/26
+ */
+public class TestLeaser implements TestClassTracker {
+
+    static final long DEFAULT_TEST_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * How long a leased class has to start before it's treated as a class the test runner skipped
+     */
+    private static final long START_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * How long to wait before asking again when the queue is empty but other hosts still hold leases
+     */
+    private static final long POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+    private static final int ACC_ANNOTATION = 0x2000;
+    private static final int ACC_ENUM = 0x4000;
+    private static final int NOT_A_TEST = Modifier.ABSTRACT | Modifier.INTERFACE | ACC_ANNOTATION | ACC_ENUM;
+
+    private final Project project;
+    private final String projectName;
+    private final Supplier<HydraClient> hydraClient;
+    private final int maxBatchSize;
+    private final long testTimeoutMillis;
+
+    /**
+     * When each test in flight stops counting against the host's capacity
+     */
+    private final Map<String, Long> inFlight = new HashMap<>();
+    private final Set<String> started = new HashSet<>();
+    private final List<String> finished = new ArrayList<>();
+
+    private HydraClient client;
+
+    public TestLeaser(Project project, Supplier<HydraClient> hydraClient, int maxBatchSize) {
+        this(project, hydraClient, maxBatchSize, DEFAULT_TEST_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param testTimeoutMillis - the longest a single test class is expected to run
+     */
+    public TestLeaser(Project project, Supplier<HydraClient> hydraClient, int maxBatchSize, long testTimeoutMillis) {
+        this.project = project;
+        this.projectName = project.getName();
+        this.hydraClient = hydraClient;
+        this.maxBatchSize = maxBatchSize;
+        this.testTimeoutMillis = testTimeoutMillis;
+    }
+
+    /**
+     * Visits the class files in tree in the order they are leased from the hydra server, blocking while maxParallelForks
+     * tests are already running.
+     *
+     * @param tree - candidate class files
+     * @param visitor - gradle's test class scanner
+     * @param maxParallelForks - number of workers running tests
+     */
+    public void visitLeasedTests(FileTree tree, FileVisitor visitor, int maxParallelForks) {
+        Map<String, FileVisitDetails> files = new HashMap<>();
+        Set<String> candidates = new HashSet<>();
+        tree.visit(new EmptyFileVisitor() {
+            @Override
+            public void visitFile(FileVisitDetails fileDetails) {
+                String className = toClassName(fileDetails.getRelativePath().getPathString());
+                files.put(className, fileDetails);
+                if (isCandidate(fileDetails)) {
+                    candidates.add(className);
+                }
+            }
+        });
+
+        int maxInFlight = Math.max(1, maxParallelForks);
+        TestLease lease = lease(candidates, maxInFlight);
+
+        project.getLogger().info("Running " + lease.getNewTests().size() + " tests with no history for project " + projectName);
+        visitTests(lease.getNewTests(), files, visitor);
+
+        while (true) {
+            if (!lease.getTests().isEmpty()) {
+                visitTests(lease.getTests(), files, visitor);
+            } else if (lease.getOutstanding() == 0) {
+                break;
+            } else {
+                awaitPollInterval();
+            }
+            lease = lease(Collections.emptyList(), awaitCapacity(maxInFlight));
+        }
+    }
+
+    @Override
+    public synchronized void started(String className) {
+        if (inFlight.containsKey(className) && started.add(className)) {
+            inFlight.put(className, System.currentTimeMillis() + testTimeoutMillis);
+        }
+    }
+
+    @Override
+    public synchronized void completed(String className) {
+        started.remove(className);
+        if (inFlight.remove(className) != null) {
+            finished.add(className);
+            notifyAll();
+        }
+    }
+
+    private void visitTests(List<String> tests, Map<String, FileVisitDetails> files, FileVisitor visitor) {
+        for (String test : tests) {
+            FileVisitDetails details = files.get(test);
+            if (details == null) {
+                // most likely a class that was deleted or renamed, reporting it finished keeps it from being leased forever
+                project.getLogger().info("Leased test " + test + " does not exist on this host");
+                synchronized (this) {
+                    finished.add(test);
+                }
+                continue;
+            }
+
+            synchronized (this) {
+                inFlight.put(test, System.currentTimeMillis() + START_TIMEOUT_MILLIS);
+            }
+            visitor.visitFile(details);
+        }
+    }
+
+    /**
+     * Waits for the poll interval, or until one of this host's tests finishes so it's reported right away
+     */
+    private synchronized void awaitPollInterval() {
+        try {
+            wait(POLL_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while waiting for tests to finish", e);
+        }
+    }
+
+    private synchronized int awaitCapacity(int maxInFlight) {
+        while (true) {
+            long now = System.currentTimeMillis();
+            long nextDeadline = Long.MAX_VALUE;
+            Iterator<Map.Entry<String, Long>> tests = inFlight.entrySet().iterator();
+            while (tests.hasNext()) {
+                Map.Entry<String, Long> test = tests.next();
+                if (test.getValue() > now) {
+                    nextDeadline = Math.min(nextDeadline, test.getValue());
+                } else if (started.remove(test.getKey())) {
+                    project.getLogger().lifecycle("Gave up waiting on " + test.getKey() + " to finish. Leasing more tests");
+                    tests.remove();
+                } else {
+                    project.getLogger().info("Leased class " + test.getKey() + " never started, the test runner skipped it");
+                    finished.add(test.getKey());
+                    tests.remove();
+                }
+            }
+
+            if (inFlight.size() < maxInFlight) {
+                return maxInFlight - inFlight.size();
+            }
+
+            try {
+                wait(nextDeadline - now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GradleException("Interrupted while waiting for tests to finish", e);
+            }
+        }
+    }
+
+    private TestLease lease(Collection<String> candidates, int capacity) {
+        try {
+            if (client == null) {
+                client = hydraClient.get();
+            }
+            List<String> completed;
+            synchronized (this) {
+                completed = new ArrayList<>(finished);
+                finished.clear();
+            }
+            return client.leaseTests(projectName, Math.min(maxBatchSize, capacity), candidates, completed);
+        } catch (IOException e) {
+            throw new GradleException("Unable to lease tests from hydra server for project " + projectName, e);
+        }
+    }
+
+    /**
+     * @return whether the file is a top level class that can be instantiated. Nested classes, abstract classes, interfaces,
+     * enums and annotations never run as tests of their own
+     */
+    static boolean isCandidate(FileVisitDetails file) {
+        String path = file.getRelativePath().getPathString();
+        if (!path.endsWith(".class") || path.contains("$")) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.open()))) {
+            return (readAccessFlags(in) & NOT_A_TEST) == 0;
+        } catch (IOException | IllegalArgumentException e) {
+            // let the server decide
+            return true;
+        }
+    }
+
+    /**
+     * Skips the header and constant pool of a class file to read the access flags of the class
+     */
+    private static int readAccessFlags(DataInputStream in) throws IOException {
+        if (in.readInt() != CLASS_FILE_MAGIC) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+        in.skipBytes(4);
+
+        int constants = in.readUnsignedShort();
+        for (int i = 1; i < constants; ++i) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // utf8
+                    in.skipBytes(in.readUnsignedShort());
+                    break;
+                case 7: case 8: case 16: case 19: case 20: // class, string, method type, module, package
+                    in.skipBytes(2);
+                    break;
+                case 15: // method handle
+                    in.skipBytes(3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                    in.skipBytes(4);
+                    break;
+                case 5: case 6: // long and double take two entries
+                    in.skipBytes(8);
+                    ++i;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+            }
+        }
+        return in.readUnsignedShort();
+    }
+
+    static String toClassName(String pathString) {
+        int extension = pathString.lastIndexOf('.');
+        String withoutExtension = extension < 0 ? pathString : pathString.substring(0, extension);
+        return withoutExtension.replace('/', '.');
+    }
+}
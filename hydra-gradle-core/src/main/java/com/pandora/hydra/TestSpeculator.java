@@ -0,0 +1,270 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra;
+
+import com.pandora.hydra.client.HydraClient;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.file.EmptyFileVisitor;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.file.FileVisitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the tests the hydra server assigned to this host, then keeps idle workers busy with copies of the tests a slower host
+ * hasn't finished yet. Test classes are reported to the server as they finish, so it knows which hosts are behind, and the
+ * result of whichever host finishes a copied test first is kept.
+ *
+ * Workers are idle once fewer than maxParallelForks test classes are running and every class handed to gradle's test class
+ * scanner has started. A class that still hasn't started a couple of minutes after a worker became idle is one the scanner
+ * decided isn't a test. Speculation is best effort: if the server can't be reached, the host just runs its own tests.
+ *
+ * @since 10/17/26
+ */
+public class TestSpeculator implements TestClassTracker {
+
+    /**
+     * How long a class has to start once a worker is idle before it's treated as a class the test runner skipped
+     */
+    private static final long START_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * How often finished tests are reported while every worker is busy
+     */
+    private static final long REPORT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Project project;
+    private final String projectName;
+    private final Supplier<HydraClient> hydraClient;
+
+    private final Set<String> queued = new HashSet<>();
+    private final Set<String> running = new HashSet<>();
+    private final List<String> finished = new ArrayList<>();
+    private int maxRunning = 1;
+
+    /**
+     * When a worker last became idle while classes were queued, -1 while every worker is busy
+     */
+    private long idleSince = -1;
+
+    private HydraClient client;
+
+    public TestSpeculator(Project project, Supplier<HydraClient> hydraClient) {
+        this.project = project;
+        this.projectName = project.getName();
+        this.hydraClient = hydraClient;
+    }
+
+    /**
+     * Visits the class files in tree, then the class files of the copies the hydra server hands out for as long as workers
+     * are idle. Blocks until every test has finished or the server has no more copies.
+     *
+     * @param tree - class files of the tests assigned to this host
+     * @param allTests - every test class file, copies are looked up in it
+     * @param visitor - gradle's test class scanner
+     * @param maxParallelForks - number of workers running tests
+     */
+    public void visitTests(FileTree tree, FileTree allTests, FileVisitor visitor, int maxParallelForks) {
+        synchronized (this) {
+            maxRunning = Math.max(1, maxParallelForks);
+        }
+
+        tree.visit(new FileVisitor() {
+            @Override
+            public void visitDir(FileVisitDetails dirDetails) {
+                visitor.visitDir(dirDetails);
+            }
+
+            @Override
+            public void visitFile(FileVisitDetails fileDetails) {
+                if (TestLeaser.isCandidate(fileDetails)) {
+                    queue(TestLeaser.toClassName(fileDetails.getRelativePath().getPathString()));
+                }
+                visitor.visitFile(fileDetails);
+            }
+        });
+
+        Map<String, FileVisitDetails> files = null;
+        while (true) {
+            int idleWorkers = awaitIdleWorkers();
+            if (!reportProgress()) {
+                return;
+            }
+            if (idleWorkers == 0) {
+                continue;
+            }
+
+            List<String> copies;
+            try {
+                copies = client().speculate(projectName, idleWorkers);
+            } catch (IOException | RuntimeException e) {
+                project.getLogger().warn("Unable to fetch tests to speculate on from hydra server for project " + projectName, e);
+                return;
+            }
+
+            if (copies.isEmpty()) {
+                if (awaitCompletion()) {
+                    reportProgress();
+                    return;
+                }
+                continue;
+            }
+
+            if (files == null) {
+                files = index(allTests);
+            }
+            project.getLogger().info("Running copies of " + copies + " for project " + projectName);
+            for (String copy : copies) {
+                FileVisitDetails details = files.get(copy);
+                if (details == null) {
+                    project.getLogger().info("Test " + copy + " does not exist on this host");
+                    continue;
+                }
+                queue(copy);
+                visitor.visitFile(details);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void started(String className) {
+        if (queued.remove(className)) {
+            running.add(className);
+            updateIdle();
+        }
+    }
+
+    @Override
+    public synchronized void completed(String className) {
+        if (running.remove(className) || queued.remove(className)) {
+            finished.add(className);
+            updateIdle();
+            notifyAll();
+        }
+    }
+
+    private synchronized void queue(String className) {
+        queued.add(className);
+        updateIdle();
+    }
+
+    private void updateIdle() {
+        if (running.size() >= maxRunning || queued.isEmpty()) {
+            idleSince = -1;
+        } else if (idleSince < 0) {
+            idleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return the number of idle workers once there are any, or 0 if none became idle within the report interval
+     */
+    private synchronized int awaitIdleWorkers() {
+        long giveUp = System.currentTimeMillis() + REPORT_INTERVAL_MILLIS;
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (idleSince >= 0 && now - idleSince >= START_TIMEOUT_MILLIS) {
+                project.getLogger().info("Classes " + queued + " never started, the test runner skipped them");
+                queued.clear();
+                updateIdle();
+            }
+
+            if (queued.isEmpty() && running.size() < maxRunning) {
+                return maxRunning - running.size();
+            }
+            if (now >= giveUp) {
+                return 0;
+            }
+
+            long wakeUp = idleSince >= 0 ? Math.min(giveUp, idleSince + START_TIMEOUT_MILLIS) : giveUp;
+            await(Math.max(1, wakeUp - now));
+        }
+    }
+
+    /**
+     * Waits for a running test to finish, or for the report interval to pass
+     *
+     * @return whether every test has finished
+     */
+    private synchronized boolean awaitCompletion() {
+        if (queued.isEmpty() && running.isEmpty()) {
+            return true;
+        }
+        await(REPORT_INTERVAL_MILLIS);
+        return false;
+    }
+
+    private void await(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while waiting for tests to finish", e);
+        }
+    }
+
+    /**
+     * @return false if the server couldn't be reached
+     */
+    private boolean reportProgress() {
+        List<String> completed;
+        synchronized (this) {
+            if (finished.isEmpty()) {
+                return true;
+            }
+            completed = new ArrayList<>(finished);
+            finished.clear();
+        }
+
+        try {
+            client().reportProgress(projectName, completed);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            project.getLogger().warn("Unable to report finished tests to hydra server for project " + projectName, e);
+            return false;
+        }
+    }
+
+    private HydraClient client() {
+        if (client == null) {
+            client = hydraClient.get();
+        }
+        return client;
+    }
+
+    private static Map<String, FileVisitDetails> index(FileTree tree) {
+        Map<String, FileVisitDetails> files = new HashMap<>();
+        tree.visit(new EmptyFileVisitor() {
+            @Override
+            public void visitFile(FileVisitDetails fileDetails) {
+                files.put(TestLeaser.toClassName(fileDetails.getRelativePath().getPathString()), fileDetails);
+            }
+        });
+        return files;
+    }
+}
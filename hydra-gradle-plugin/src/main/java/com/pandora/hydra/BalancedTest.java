@@ -33,6 +33,7 @@ import java.lang.reflect.Type;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 /**
  * A special test case than can distribute tests to worker threads in an optimal manner
@@ -44,6 +45,8 @@ public class BalancedTest extends Test {
 
     private Map<String, String> envOverrides;
     private boolean balanceThreads;
+    private TestLeaser testLeaser;
+    private TestSpeculator testSpeculator;
 
     private HydraClient hydraClient;
 
@@ -56,14 +59,26 @@ public class BalancedTest extends Test {
     @InputFiles
     public FileTree getCandidateClassFiles() {
         FileTree candidateClassFiles = super.getCandidateClassFiles();
-        if(balanceThreads) {
-            return createDelegatingTree(candidateClassFiles);
+        if(testLeaser != null) {
+            return createDelegatingTree(candidateClassFiles, (tree, visitor) -> testLeaser.visitLeasedTests(tree, visitor, getMaxParallelForks()));
+        } else if(testSpeculator != null) {
+            return createDelegatingTree(candidateClassFiles, (tree, visitor) ->
+                    testSpeculator.visitTests(tree, getTestClassesDirs().getAsFileTree(), visitor, getMaxParallelForks()));
+        } else if(balanceThreads) {
+            return createDelegatingTree(candidateClassFiles, (tree, visitor) -> {
+                Set<FileVisitDetails> ordering = ThreadBalancer.createBalancedOrdering(tree, getMaxParallelForks(), getHydraClient());
+                ordering.forEach(visitor::visitFile);
+            });
         } else {
             return candidateClassFiles;
         }
     }
 
-    private FileTree createDelegatingTree(final FileTree tree) {
+    /**
+     * Wraps tree so that when gradle's test class scanner visits it, scannerVisit decides which class files the scanner sees
+     * and in what order
+     */
+    private FileTree createDelegatingTree(final FileTree tree, BiConsumer<FileTree, FileVisitor> scannerVisit) {
         TypeToken<? extends FileTree>.TypeSet interfaceSet = TypeToken.of(tree.getClass()).getTypes().interfaces();
         Class<?>[] interfaces = interfaceSet.rawTypes().toArray(new Class<?>[0]);
 
@@ -81,8 +96,7 @@ public class BalancedTest extends Test {
             if(!visitor.getClass().getName().contains(DefaultTestClassScanner.class.getSimpleName())) {
                 return method.invoke(tree, args);
             } else {
-                Set<FileVisitDetails> ordering = ThreadBalancer.createBalancedOrdering(tree, getMaxParallelForks(), getHydraClient());
-                ordering.forEach(visitor::visitFile);
+                scannerVisit.accept(tree, visitor);
                 return tree;
             }
         });
@@ -106,6 +120,22 @@ public class BalancedTest extends Test {
         this.balanceThreads = balanceThreads;
     }
 
+    public TestLeaser getTestLeaser() {
+        return testLeaser;
+    }
+
+    public void setTestLeaser(TestLeaser testLeaser) {
+        this.testLeaser = testLeaser;
+    }
+
+    public TestSpeculator getTestSpeculator() {
+        return testSpeculator;
+    }
+
+    public void setTestSpeculator(TestSpeculator testSpeculator) {
+        this.testSpeculator = testSpeculator;
+    }
+
     public Map<String, String> getEnvOverrides() {
         return envOverrides;
     }
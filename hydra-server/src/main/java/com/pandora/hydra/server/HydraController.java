@@ -19,23 +19,36 @@ package com.pandora.hydra.server;
 
 import com.google.common.base.Splitter;
 import com.google.common.collect.Sets;
+import com.pandora.hydra.common.TestLease;
 import com.pandora.hydra.common.TestSuite;
+import com.pandora.hydra.server.partition.EncodedResponse;
+import com.pandora.hydra.server.partition.HostCalibrations;
 import com.pandora.hydra.server.partition.PartitionRequest;
 import com.pandora.hydra.server.partition.Partitioner;
+import com.pandora.hydra.server.persistence.IngestQueue;
 import com.pandora.hydra.server.persistence.TestStore;
+import com.pandora.hydra.server.persistence.TestTimeBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Justin Guerra
@@ -48,11 +61,15 @@ public class HydraController {
 
     private final TestStore testStore;
     private final Partitioner partitioner;
+    private final IngestQueue ingestQueue;
+    private final HostCalibrations calibrations;
 
     @Autowired
-    public HydraController(Partitioner partitioner, TestStore store) {
+    public HydraController(Partitioner partitioner, TestStore store, IngestQueue ingestQueue, HostCalibrations calibrations) {
         this.partitioner = partitioner;
         this.testStore = store;
+        this.ingestQueue = ingestQueue;
+        this.calibrations = calibrations;
     }
 
     @RequestMapping(value = "/tests/{build}/runtimes", method = RequestMethod.DELETE)
@@ -60,38 +77,196 @@ public class HydraController {
         testStore.clearTestTimes(build);
     }
 
+    /**
+     * Test times are written in the background. If too many are waiting to be written the request is rejected with a 429
+     * and a Retry-After header. When the host list and build tag of the test run are given, the results of tests another
+     * host finished first are dropped, so tests that ran on two hosts are only stored once
+     */
     @RequestMapping(value = "/tests/{build}/{host}/{project}/runtimes", method = RequestMethod.POST)
-    void saveTestResults(@PathVariable String build, @PathVariable String project,
-                         @RequestBody List<TestSuite> testTimes, @PathVariable("host") String host) {
+    ResponseEntity<Void> saveTestResults(@PathVariable String build, @PathVariable String project,
+                                         @RequestBody List<TestSuite> testTimes, @PathVariable("host") String host,
+                                         @RequestParam(name = "host_list", required = false) String hostList,
+                                         @RequestParam(name = "build_tag", required = false) String buildTag,
+                                         @RequestParam(name = "calibration_ms", required = false) Double calibrationMs) {
+        recordCalibration(host, calibrationMs);
         LOG.info(String.format("Received %d test runtimes for build %s on project %s from host %s", testTimes.size(), build, project, host));
-        testStore.addTestTimes(project, testTimes, host, build);
+        List<TestSuite> results = testTimes;
+        if (hostList != null && buildTag != null) {
+            Set<String> hostNames = getAndValidateHostList(host, hostList);
+            results = partitioner.dropDuplicateResults(new PartitionRequest(host, build, hostNames, buildTag), project, testTimes);
+        }
+
+        if (ingestQueue.offer(new TestTimeBatch(build, project, host, results))) {
+            return ResponseEntity.accepted().build();
+        }
+
+        LOG.warn(String.format("Too many test runtimes waiting to be written, rejecting host %s for build %s", host, build));
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ingestQueue.getRetryAfterSeconds()))
+                .build();
     }
 
     @RequestMapping(value = "/tests/{build}/{host}/excludes", method = RequestMethod.GET)
-    ResponseEntity<Set<String>> getTestBlacklistForHost(@PathVariable String build, @PathVariable String host, @RequestParam(name = "host_list") String hostList,
-                                                        @RequestParam(name = "build_tag", required = false) String buildTag) {
+    CompletableFuture<ResponseEntity<byte[]>> getTestBlacklistForHost(@PathVariable String build, @PathVariable String host, @RequestParam(name = "host_list") String hostList,
+                                                   @RequestParam(name = "build_tag", required = false) String buildTag,
+                                                   @RequestParam(name = "calibration_ms", required = false) Double calibrationMs,
+                                                   @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
         Set<String> hostNames = getAndValidateHostList(host, hostList);
+        recordCalibration(host, calibrationMs);
         LOG.info(String.format("Fetching test black list for host %s running build %s with build tag %s", host, build, buildTag));
-        Set<String> exclusionsFor = partitioner.getTestBlacklist(new PartitionRequest(host, build, hostNames, buildTag));
-        return ResponseEntity.ok(exclusionsFor);
+        return partitioner.getEncodedTestBlacklist(new PartitionRequest(host, build, hostNames, buildTag))
+                .thenApply(exclusionsFor -> encodedResponse(exclusionsFor, acceptEncoding));
     }
 
     @RequestMapping(value = "/tests/{build}/{host}/{project}/excludes", method = RequestMethod.GET)
-    ResponseEntity<Set<String>> getTestBlacklistForHostAndProject(@PathVariable String build, @PathVariable String host, @PathVariable String project,
-                                                                  @RequestParam(name = "host_list") String hostList,
-                                                                  @RequestParam(name = "build_tag", required = false) String buildTag) {
+    CompletableFuture<ResponseEntity<byte[]>> getTestBlacklistForHostAndProject(@PathVariable String build, @PathVariable String host, @PathVariable String project,
+                                                             @RequestParam(name = "host_list") String hostList,
+                                                             @RequestParam(name = "build_tag", required = false) String buildTag,
+                                                             @RequestParam(name = "calibration_ms", required = false) Double calibrationMs,
+                                                             @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
         Set<String> hostNames = getAndValidateHostList(host, hostList);
+        recordCalibration(host, calibrationMs);
         LOG.info(String.format("Fetching test black list for host %s and project %s running build %s with build tag %s", host, project, build, buildTag));
-        Set<String> exclusionsFor = partitioner.getTestBlacklist(new PartitionRequest(host, build, hostNames, buildTag), project);
-        return ResponseEntity.ok(exclusionsFor);
+        return partitioner.getEncodedTestBlacklist(new PartitionRequest(host, build, hostNames, buildTag), project)
+                .thenApply(exclusionsFor -> encodedResponse(exclusionsFor, acceptEncoding));
+    }
+
+    @RequestMapping(value = "/tests/{build}/{host}/includes", method = RequestMethod.GET)
+    CompletableFuture<ResponseEntity<byte[]>> getTestIncludesForHost(@PathVariable String build, @PathVariable String host, @RequestParam(name = "host_list") String hostList,
+                                                  @RequestParam(name = "build_tag", required = false) String buildTag,
+                                                  @RequestParam(name = "calibration_ms", required = false) Double calibrationMs,
+                                                  @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        Set<String> hostNames = getAndValidateHostList(host, hostList);
+        recordCalibration(host, calibrationMs);
+        LOG.info(String.format("Fetching test includes for host %s running build %s with build tag %s", host, build, buildTag));
+        return partitioner.getEncodedTestIncludes(new PartitionRequest(host, build, hostNames, buildTag))
+                .thenApply(includes -> encodedResponse(includes, acceptEncoding));
+    }
+
+    @RequestMapping(value = "/tests/{build}/{host}/{project}/includes", method = RequestMethod.GET)
+    CompletableFuture<ResponseEntity<byte[]>> getTestIncludesForHostAndProject(@PathVariable String build, @PathVariable String host, @PathVariable String project,
+                                                            @RequestParam(name = "host_list") String hostList,
+                                                            @RequestParam(name = "build_tag", required = false) String buildTag,
+                                                            @RequestParam(name = "calibration_ms", required = false) Double calibrationMs,
+                                                            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        Set<String> hostNames = getAndValidateHostList(host, hostList);
+        recordCalibration(host, calibrationMs);
+        LOG.info(String.format("Fetching test includes for host %s and project %s running build %s with build tag %s", host, project, build, buildTag));
+        return partitioner.getEncodedTestIncludes(new PartitionRequest(host, build, hostNames, buildTag), project)
+                .thenApply(includes -> encodedResponse(includes, acceptEncoding));
     }
 
     @RequestMapping(value = "/tests/{build}/{host}/threads", method = RequestMethod.GET)
-    ResponseEntity<Set<Set<String>>> getOptimalThreadGrouping(@PathVariable String build, @PathVariable String host, @RequestParam(name = "host_list") String hostList,
-                                                                @RequestParam(name = "build_tag", required = false) String buildTag, @RequestParam(name = "num_threads") int numThreads) {
+    CompletableFuture<ResponseEntity<Set<Set<String>>>> getOptimalThreadGrouping(@PathVariable String build, @PathVariable String host, @RequestParam(name = "host_list") String hostList,
+                                                                                   @RequestParam(name = "build_tag", required = false) String buildTag, @RequestParam(name = "num_threads") int numThreads) {
+        Set<String> hostNames = getAndValidateHostList(host, hostList);
+        return partitioner.getThreadGrouping(new PartitionRequest(host, build, hostNames, buildTag), numThreads)
+                .thenApply(ResponseEntity::ok);
+    }
+
+    @RequestMapping(value = "/tests/{build}/{host}/{project}/lease", method = RequestMethod.POST)
+    ResponseEntity<TestLease> leaseTests(@PathVariable String build, @PathVariable String host, @PathVariable String project,
+                                         @RequestParam(name = "host_list") String hostList,
+                                         @RequestParam(name = "build_tag", required = false) String buildTag,
+                                         @RequestParam(name = "batch_size", defaultValue = "1") int batchSize,
+                                         @RequestParam(name = "completed", required = false) List<String> completed,
+                                         @RequestBody(required = false) List<String> candidates) {
+        Set<String> hostNames = getAndValidateHostList(host, hostList);
+        List<String> candidateTests = candidates != null ? candidates : Collections.emptyList();
+        List<String> completedTests = completed != null ? completed : Collections.emptyList();
+        TestLease lease = partitioner.leaseTests(new PartitionRequest(host, build, hostNames, buildTag), project, batchSize,
+                candidateTests, completedTests);
+        return ResponseEntity.ok(lease);
+    }
+
+    /**
+     * Reports that host died during the test run. Its tests are split between the other hosts, which pick them up from
+     * the recovered endpoints. The body optionally lists the tests the host finished before it died. Responds with a 404 if
+     * no test run with the build tag and host list is cached, and with a 409 if every other host of the run is dead too
+     */
+    @RequestMapping(value = "/tests/{build}/{host}/dead", method = RequestMethod.POST)
+    ResponseEntity<Map<String, Set<String>>> reportDeadHost(@PathVariable String build, @PathVariable String host,
+                                                            @RequestParam(name = "host_list") String hostList,
+                                                            @RequestParam(name = "build_tag", required = false) String buildTag,
+                                                            @RequestBody(required = false) List<String> completedTests) {
+        Set<String> hostNames = getAndValidateHostList(host, hostList);
+        LOG.warn(String.format("Host %s reported dead while running build %s with build tag %s", host, build, buildTag));
+        List<String> completed = completedTests != null ? completedTests : Collections.emptyList();
+
+        Optional<Map<String, Set<String>>> recovered;
+        try {
+            recovered = partitioner.reportDeadHost(new PartitionRequest(host, build, hostNames, buildTag), completed);
+        } catch (IllegalStateException e) {
+            LOG.warn(String.format("Unable to recover the tests of host %s for build %s: %s", host, build, e.getMessage()));
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        if (!recovered.isPresent()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok(recovered.get());
+    }
+
+    @RequestMapping(value = "/tests/{build}/{host}/recovered", method = RequestMethod.GET)
+    ResponseEntity<Set<String>> getRecoveredTests(@PathVariable String build, @PathVariable String host,
+                                                  @RequestParam(name = "host_list") String hostList,
+                                                  @RequestParam(name = "build_tag", required = false) String buildTag) {
+        Set<String> hostNames = getAndValidateHostList(host, hostList);
+        return ResponseEntity.ok(partitioner.getRecoveredTests(new PartitionRequest(host, build, hostNames, buildTag)));
+    }
+
+    @RequestMapping(value = "/tests/{build}/{host}/{project}/recovered", method = RequestMethod.GET)
+    ResponseEntity<Set<String>> getRecoveredTestsForProject(@PathVariable String build, @PathVariable String host, @PathVariable String project,
+                                                            @RequestParam(name = "host_list") String hostList,
+                                                            @RequestParam(name = "build_tag", required = false) String buildTag) {
+        Set<String> hostNames = getAndValidateHostList(host, hostList);
+        return ResponseEntity.ok(partitioner.getRecoveredTests(new PartitionRequest(host, build, hostNames, buildTag), project));
+    }
+
+    /**
+     * Records the tests host finished so far. Returns the tests host finished first
+     */
+    @RequestMapping(value = "/tests/{build}/{host}/{project}/progress", method = RequestMethod.POST)
+    ResponseEntity<Set<String>> reportProgress(@PathVariable String build, @PathVariable String host, @PathVariable String project,
+                                               @RequestParam(name = "host_list") String hostList,
+                                               @RequestParam(name = "build_tag", required = false) String buildTag,
+                                               @RequestBody List<String> completedTests) {
+        Set<String> hostNames = getAndValidateHostList(host, hostList);
+        return ResponseEntity.ok(partitioner.reportCompleted(new PartitionRequest(host, build, hostNames, buildTag), project, completedTests));
+    }
+
+    /**
+     * Called by a host that ran out of tests. Returns copies of tests a slower host hasn't finished yet
+     */
+    @RequestMapping(value = "/tests/{build}/{host}/{project}/speculate", method = RequestMethod.POST)
+    ResponseEntity<List<String>> speculate(@PathVariable String build, @PathVariable String host, @PathVariable String project,
+                                           @RequestParam(name = "host_list") String hostList,
+                                           @RequestParam(name = "build_tag", required = false) String buildTag,
+                                           @RequestParam(name = "max_tests", defaultValue = "1") int maxTests) {
         Set<String> hostNames = getAndValidateHostList(host, hostList);
-        Set<Set<String>> lists = partitioner.getThreadGrouping(new PartitionRequest(host, build, hostNames, buildTag), numThreads);
-        return ResponseEntity.ok(lists);
+        return ResponseEntity.ok(partitioner.speculate(new PartitionRequest(host, build, hostNames, buildTag), project, maxTests));
+    }
+
+    private void recordCalibration(String host, Double calibrationMs) {
+        if (calibrationMs != null) {
+            calibrations.record(host, calibrationMs);
+        }
+    }
+
+    /**
+     * Writes the already serialized body straight to the response, compressed if the client accepts it
+     */
+    private ResponseEntity<byte[]> encodedResponse(EncodedResponse<?> body, String acceptEncoding) {
+        EncodedResponse.Encoding encoding = EncodedResponse.Encoding.negotiate(acceptEncoding);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (encoding != EncodedResponse.Encoding.IDENTITY) {
+            response.header(HttpHeaders.CONTENT_ENCODING, encoding.getContentCoding());
+        }
+
+        return response.body(body.getBytes(encoding));
     }
 
     private Set<String> getAndValidateHostList(@PathVariable String host, @RequestParam(name = "host_list") String hostList) {
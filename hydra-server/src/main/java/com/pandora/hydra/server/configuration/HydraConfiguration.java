@@ -21,6 +21,7 @@ import com.pandora.hydra.server.partition.HostAffinityPartitionStrategy;
 import com.pandora.hydra.server.partition.PartitionRequest;
 import com.pandora.hydra.server.partition.PartitionUtil;
 import com.pandora.hydra.server.partition.PartitioningStrategy;
+import com.pandora.hydra.server.partition.RuntimeEstimator;
 import com.pandora.hydra.server.partition.TestContainer;
 import com.pandora.hydra.server.partition.TestRunCache;
 import com.pandora.hydra.server.persistence.model.TestTime;
@@ -29,7 +30,9 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
 import java.util.Collection;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -43,11 +46,25 @@ public class HydraConfiguration {
     @Value("${hydra.cache.ttl:15}")
     private long cacheTtl;
 
+    @Value("${hydra.partition.search_budget_ms:200}")
+    private long searchBudgetMillis;
+
+    @Value("${hydra.partition.estimator:median}")
+    private String estimator;
+
+    @Value("${hydra.partition.outlier_threshold:3}")
+    private double outlierThreshold;
+
     @Bean
     public TestRunCache getTestRunCache() {
         return new TestRunCache(cacheTtl, TimeUnit.MINUTES);
     }
 
+    @Bean
+    public RuntimeEstimator getRuntimeEstimator() {
+        return new RuntimeEstimator(RuntimeEstimator.Method.valueOf(estimator.toUpperCase(Locale.ROOT)), outlierThreshold);
+    }
+
     @Bean
     @ConditionalOnProperty(name = "hydra.partition.strategy", havingValue = "affinity")
     public PartitioningStrategy getHostAffinityStrategy() {
@@ -65,4 +82,17 @@ public class HydraConfiguration {
     public PartitioningStrategy getGreedyStrategy() {
         return (PartitionRequest r, Collection<TestTime> t, Set<TestContainer> c) -> PartitionUtil.greedyPartition(t, c);
     }
+
+    @Bean
+    @ConditionalOnProperty(name = "hydra.partition.strategy", havingValue = "largest_differencing")
+    public PartitioningStrategy getLargestDifferencingStrategy() {
+        return (PartitionRequest r, Collection<TestTime> t, Set<TestContainer> c) -> PartitionUtil.largestDifferencingPartition(t, c);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "hydra.partition.strategy", havingValue = "branch_and_bound")
+    public PartitioningStrategy getBranchAndBoundStrategy() {
+        Duration searchBudget = Duration.ofMillis(searchBudgetMillis);
+        return (PartitionRequest r, Collection<TestTime> t, Set<TestContainer> c) -> PartitionUtil.branchAndBoundPartition(t, c, searchBudget);
+    }
 }
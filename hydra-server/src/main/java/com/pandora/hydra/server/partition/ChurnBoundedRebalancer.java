@@ -0,0 +1,108 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rebalancer that trades the makespan against the number of tests that change hosts. A test that moves loses whatever its
+ * old host had warmed up for it (build caches, docker layers, database fixtures), so a move is only made when it brings the
+ * longest running container down by more than moveCost. Each move takes the test that brings it down the most from the
+ * longest running container to the shortest running one, so a host that just joined is filled up to a fair share with as
+ * few moves as possible, and hosts that are already balanced are left alone.
+ *
+ * No test is moved twice, and failed tests stay where they are so that tests that fail together keep running together
+ *
+ * @since 10/16/26
+ */
+class ChurnBoundedRebalancer extends Rebalancer {
+
+    private static final Logger LOG = Logger.getLogger(ChurnBoundedRebalancer.class);
+
+    private final int threshold;
+    private final long moveCost;
+
+    ChurnBoundedRebalancer(int threshold, long moveCost) {
+        super(TestContainer::getTime, Comparator.naturalOrder(), TestContainer::removeTestWithMaxRunTimeOf, threshold);
+        this.threshold = threshold;
+        this.moveCost = moveCost;
+    }
+
+    @Override
+    public void balanceTestContainers(Set<TestContainer> testContainers) {
+        if(!isRebalanceNeeded(testContainers)) {
+            LOG.info("Partitions are already appropriately sized");
+            return;
+        }
+
+        TestIndex index = TestIndex.shared(testContainers);
+        List<TestContainer> containers = new ArrayList<>(testContainers);
+        BitSet moved = new BitSet(index.size());
+
+        int moves = 0;
+        while (true) {
+            TestContainer longest = containers.stream().max(Comparator.comparingLong(TestContainer::getTime)).get();
+            TestContainer shortest = containers.stream().min(Comparator.comparingLong(TestContainer::getTime)).get();
+            if (longest.getTime() - shortest.getTime() <= threshold) {
+                break;
+            }
+
+            int test = findBestMove(index, longest, shortest, moved);
+            if (test < 0) {
+                break;
+            }
+
+            longest.remove(test);
+            shortest.add(test);
+            moved.set(test);
+            ++moves;
+        }
+
+        LOG.info(String.format("Moved %d of %d tests, predicted makespan is %d", moves, index.size(), PartitionUtil.makespan(containers)));
+    }
+
+    /**
+     * @return the test whose move from longest to shortest brings the longer of the two down the most, if that's more than
+     * the move cost. Otherwise -1
+     */
+    private int findBestMove(TestIndex index, TestContainer longest, TestContainer shortest, BitSet moved) {
+        long longestTime = longest.getTime();
+        long shortestTime = shortest.getTime();
+
+        int best = -1;
+        long bestGain = moveCost;
+        for (int id : longest.getIds()) {
+            if (moved.get(id) || index.isFailed(id)) {
+                continue;
+            }
+
+            long gain = longestTime - Math.max(longestTime - longest.getPredictedTime(id), shortestTime + shortest.getPredictedTime(id));
+            if (gain > bestGain) {
+                best = id;
+                bestGain = gain;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body along with its JSON encoding, so a response that is handed out to many hosts is only serialized and
+ * compressed once. Only the encodings that have actually been asked for are kept, which is usually just gzip.
+ *
+ * @since 10/16/26
+ */
+public class EncodedResponse<T> {
+
+    private static final Gson GSON = new Gson();
+
+    private final T value;
+    private final Type type;
+    private final Map<Encoding, byte[]> encoded;
+
+    /**
+     * @param value the response body
+     * @param type the generic type of value, used to serialize it
+     */
+    public EncodedResponse(T value, Type type) {
+        this.value = value;
+        this.type = type;
+        this.encoded = new ConcurrentHashMap<>();
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return the value as JSON, compressed with encoding
+     */
+    public byte[] getBytes(Encoding encoding) {
+        return encoded.computeIfAbsent(encoding, this::encode);
+    }
+
+    private byte[] encode(Encoding encoding) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(encoding.wrap(bytes), StandardCharsets.UTF_8)) {
+            GSON.toJson(value, type, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to encode " + type, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * HTTP content codings that responses can be encoded with, in order of preference
+     */
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate"),
+        IDENTITY("identity");
+
+        private final String contentCoding;
+
+        Encoding(String contentCoding) {
+            this.contentCoding = contentCoding;
+        }
+
+        /**
+         * @return the value for the Content-Encoding header
+         */
+        public String getContentCoding() {
+            return contentCoding;
+        }
+
+        OutputStream wrap(OutputStream out) throws IOException {
+            switch (this) {
+                case GZIP:
+                    return new GZIPOutputStream(out);
+                case DEFLATE:
+                    return new DeflaterOutputStream(out);
+                default:
+                    return out;
+            }
+        }
+
+        /**
+         * Picks the encoding with the highest quality value in an Accept-Encoding header. Ties go to the preferred encoding,
+         * and identity is used when nothing else is acceptable
+         *
+         * @param acceptEncoding the Accept-Encoding header, may be null
+         */
+        public static Encoding negotiate(String acceptEncoding) {
+            if (acceptEncoding == null) {
+                return IDENTITY;
+            }
+
+            Encoding best = IDENTITY;
+            double bestQuality = 0;
+            for (String coding : acceptEncoding.split(",")) {
+                String[] parameters = coding.split(";");
+                String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+                double quality = quality(parameters);
+
+                Encoding encoding;
+                if (name.equals("gzip") || name.equals("x-gzip") || name.equals("*")) {
+                    encoding = GZIP;
+                } else if (name.equals("deflate")) {
+                    encoding = DEFLATE;
+                } else {
+                    continue;
+                }
+
+                if (quality > bestQuality || (quality == bestQuality && quality > 0 && encoding.ordinal() < best.ordinal())) {
+                    best = encoding;
+                    bestQuality = quality;
+                }
+            }
+            return best;
+        }
+
+        private static double quality(String[] parameters) {
+            for (int i = 1; i < parameters.length; ++i) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+            return 1;
+        }
+    }
+}
@@ -22,12 +22,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.Collection;
-import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -43,7 +40,10 @@ import java.util.stream.Collectors;
  * (especially when there is a limited number of tests), however, when there is a large number of tests. It can generate sets that very similar in size. Generally within a couple
  * test runs all hosts should be well balanced
  *
- * If a new host is added to an existing run then a full greedy balance is performed instead of trying to re-balance.
+ * If a new host is added to an existing run then a full greedy balance is performed instead of trying to re-balance. With
+ * hydra.rebalance_mode set to churn the existing assignments are kept instead: only the tests of hosts that left are
+ * redistributed, and tests are moved to a new host only while each move shortens the longest running host by more than
+ * hydra.rebalance_move_cost_ms, see {@link Rebalancer#newChurnBoundedRebalancer(int, long)}.
  *
  * When a new test is being run for the first time the partitioner has no way of knowing it exists, and cannot isolate it
  * to a single host. In this case the test is run across all hosts in its first run, on subsequent runs it will only be run on a single host.
@@ -58,37 +58,78 @@ public class HostAffinityPartitionStrategy implements PartitioningStrategy {
     @Value("${hydra.rebalance_threshold}")
     private int rebalanceThreshold;
 
+    @Value("${hydra.rebalance_mode:move}")
+    private String rebalanceMode;
+
+    @Value("${hydra.rebalance_budget_ms:100}")
+    private long rebalanceBudgetMillis;
+
+    @Value("${hydra.rebalance_move_cost_ms:1000}")
+    private long moveCostMillis;
+
+    public HostAffinityPartitionStrategy() {
+    }
+
+    HostAffinityPartitionStrategy(int rebalanceThreshold, String rebalanceMode, long moveCostMillis) {
+        this.rebalanceThreshold = rebalanceThreshold;
+        this.rebalanceMode = rebalanceMode;
+        this.moveCostMillis = moveCostMillis;
+    }
+
     @Override
     public void distributeTestTestTimes(PartitionRequest request, Collection<TestTime> testTimes, Set<TestContainer> testContainers) {
 
-        if(isNewHostDetected(request.getHostList(), testContainers)) {
+        TestIndex index = TestIndex.shared(testContainers);
+        int[] ids = index.addAll(testTimes);
+
+        if(!isChurnBounded() && isNewHostDetected(request.getHostList(), testContainers)) {
             LOG.info("New host detected. Performing a full greedy partition");
-            PartitionUtil.greedyPartitionFailuresOnSameHost(testTimes, testContainers);
+            PartitionUtil.greedyPartitionFailuresOnSameHost(index, ids, ids.length, testContainers);
         } else {
-            List<TestTime> testsWithNoHostAffinity = assignTestsWithHostAffinities(testTimes, testContainers);
-            PartitionUtil.greedyPartitionFailuresOnSameHost(testsWithNoHostAffinity, testContainers);
+            int testsWithNoHostAffinity = assignTestsWithHostAffinities(index, ids, testContainers);
+            PartitionUtil.greedyPartitionFailuresOnSameHost(index, ids, testsWithNoHostAffinity, testContainers);
 
-            Rebalancer rebalancer = Rebalancer.newTimeRebalancer(rebalanceThreshold);
+            Rebalancer rebalancer = newRebalancer();
             if (rebalancer.isRebalanceNeeded(testContainers)) {
                 rebalancer.balanceTestContainers(testContainers);
             }
         }
     }
 
-    private List<TestTime> assignTestsWithHostAffinities(Collection<TestTime> testTimes, Set<TestContainer> testContainers) {
-        List<TestTime> noAffinity = new ArrayList<>();
-        Map<String, TestContainer> hostToTestContainer = testContainers.stream().collect(Collectors.toMap(TestContainer::getHostName, Function.identity()));
-        for(TestTime test : testTimes) {
-            if (test.getHostName() != null && hostToTestContainer.containsKey(test.getHostName())) {
-                TestContainer container = hostToTestContainer.get(test.getHostName());
-                container.addTestTime(test);
+    private Rebalancer newRebalancer() {
+        if (isChurnBounded()) {
+            return Rebalancer.newChurnBoundedRebalancer(rebalanceThreshold, moveCostMillis);
+        }
+        if ("swap".equals(rebalanceMode)) {
+            return Rebalancer.newSwapRebalancer(rebalanceThreshold, Duration.ofMillis(rebalanceBudgetMillis));
+        }
+        return Rebalancer.newTimeRebalancer(rebalanceThreshold);
+    }
+
+    /**
+     * Adds every test that last ran on one of the hosts to that host's container. The tests without an affinity are moved to
+     * the front of ids
+     *
+     * @return the number of tests without an affinity
+     */
+    private int assignTestsWithHostAffinities(TestIndex index, int[] ids, Set<TestContainer> testContainers) {
+        TestContainer[] hostToTestContainer = PartitionUtil.containersByHost(index, testContainers);
+        int noAffinity = 0;
+        for(int id : ids) {
+            int host = index.getHost(id);
+            if (host >= 0 && hostToTestContainer[host] != null) {
+                hostToTestContainer[host].add(id);
             } else {
-                noAffinity.add(test);
+                ids[noAffinity++] = id;
             }
         }
         return noAffinity;
     }
 
+    private boolean isChurnBounded() {
+        return "churn".equals(rebalanceMode);
+    }
+
     private boolean isNewHostDetected(Set<String> hostList, Set<TestContainer> containers) {
         Set<String> savedHosts = containers.stream().map(TestContainer::getHostName).collect(Collectors.toSet());
         return !hostList.equals(savedHosts);
@@ -0,0 +1,90 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calibration scores reported by clients: how many milliseconds the client's built in benchmark took on each host. A host's
+ * speed factor is its score over the median score of a run's calibrated hosts. {@link HostSpeedModel#withSpeedFactors(Map)}
+ * rescales them to the reference host of the learned model.
+ *
+ * Scores are smoothed per host, since a benchmark run on a busy host is slower than the host really is. Hosts that stop
+ * reporting are forgotten after a week
+ *
+ * @since 10/16/26
+ */
+@Component
+public class HostCalibrations {
+
+    private static final Logger LOG = Logger.getLogger(HostCalibrations.class);
+
+    private static final double SMOOTHING = 0.3;
+    private static final int MAX_HOSTS = 10_000;
+
+    private final Cache<String, Double> scores = CacheBuilder.newBuilder()
+            .maximumSize(MAX_HOSTS)
+            .expireAfterWrite(7, TimeUnit.DAYS)
+            .build();
+
+    /**
+     * @param calibrationMs how long the client's benchmark took. Scores that aren't positive and finite are ignored
+     */
+    public void record(String host, double calibrationMs) {
+        if (!(calibrationMs > 0) || Double.isInfinite(calibrationMs)) {
+            LOG.warn("Ignoring calibration " + calibrationMs + " from host " + host);
+            return;
+        }
+
+        scores.asMap().merge(host, calibrationMs, (previous, latest) -> previous + SMOOTHING * (latest - previous));
+    }
+
+    /**
+     * @param hosts the hosts of a test run
+     * @return the speed factor of every calibrated host of the run, relative to the run's median calibrated host
+     */
+    public Map<String, Double> getSpeedFactors(Collection<String> hosts) {
+        Map<String, Double> snapshot = new HashMap<>();
+        for (String host : hosts) {
+            Double score = scores.getIfPresent(host);
+            if (score != null) {
+                snapshot.put(host, score);
+            }
+        }
+        if (snapshot.isEmpty()) {
+            return snapshot;
+        }
+
+        double[] sorted = snapshot.values().stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        double median = sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+
+        snapshot.replaceAll((host, score) -> score / median);
+        return snapshot;
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Relative speed of each host, learned from tests that ran on more than one host. A test's runtime is modelled as the work
+ * it takes on an average host times a speed factor of the host it runs on. In logs that's an additive two way table of
+ * tests by hosts, which is fit with Tukey's median polish, so a few noisy runs don't skew a host's factor.
+ *
+ * Only runs in the tests' histories are used, see {@link TestTime#getHistoryHosts()}. Hosts that share fewer than
+ * {@link #MIN_SHARED_TESTS} tests with other hosts, and hosts within a few percent of the average, get a factor of 1
+ *
+ * @since 10/16/26
+ */
+public class HostSpeedModel {
+
+    private static final Logger LOG = Logger.getLogger(HostSpeedModel.class);
+
+    static final int MIN_SHARED_TESTS = 5;
+
+    private static final int ITERATIONS = 10;
+
+    /**
+     * Hosts within 5% of the average are treated as average, so noise doesn't change the partitions of a uniform fleet
+     */
+    private static final double DEAD_BAND = Math.log(1.05);
+    private static final double MAX_LOG_FACTOR = Math.log(4);
+
+    private static final HostSpeedModel UNIFORM = new HostSpeedModel(ImmutableMap.of());
+
+    private final Map<String, Double> speedFactors;
+
+    /**
+     * Hosts the model has a factor for, including the ones whose factor is 1
+     */
+    private final Set<String> hosts;
+
+    HostSpeedModel(Map<String, Double> speedFactors) {
+        this(speedFactors, speedFactors.keySet());
+    }
+
+    HostSpeedModel(Map<String, Double> speedFactors, Set<String> hosts) {
+        this.speedFactors = ImmutableMap.copyOf(speedFactors);
+        this.hosts = ImmutableSet.copyOf(hosts);
+    }
+
+    /**
+     * @return a model in which every host is as fast as every other
+     */
+    public static HostSpeedModel uniform() {
+        return UNIFORM;
+    }
+
+    /**
+     * @param testTimes the test times of a build, by project
+     */
+    public static HostSpeedModel learn(Map<String, Collection<TestTime>> testTimes) {
+        Observations observations = new Observations();
+        for (Collection<TestTime> project : testTimes.values()) {
+            project.forEach(observations::addTest);
+        }
+
+        if (observations.hostCount() < 2) {
+            return UNIFORM;
+        }
+
+        double[] hostEffects = observations.medianPolish();
+        Map<String, Double> speedFactors = new HashMap<>();
+        Set<String> hosts = new HashSet<>();
+        for (int host = 0; host < hostEffects.length; ++host) {
+            if (observations.sharedTestsOf(host) < MIN_SHARED_TESTS) {
+                continue;
+            }
+
+            hosts.add(observations.hosts.get(host));
+            double effect = Math.max(-MAX_LOG_FACTOR, Math.min(MAX_LOG_FACTOR, hostEffects[host]));
+            if (Math.abs(effect) > DEAD_BAND) {
+                speedFactors.put(observations.hosts.get(host), Math.exp(effect));
+            }
+        }
+
+        HostSpeedModel model = new HostSpeedModel(speedFactors, hosts);
+        if (!speedFactors.isEmpty()) {
+            LOG.info("Learned host speeds " + model);
+        }
+        return model;
+    }
+
+    /**
+     * @return how much longer than an average host the host takes to run a test. 1 for hosts the model knows nothing about
+     */
+    public double getSpeedFactor(String hostName) {
+        return hostName == null ? 1.0 : speedFactors.getOrDefault(hostName, 1.0);
+    }
+
+    /**
+     * @return a model with the given speed factors in place of the ones this model has for the same hosts. Like learned
+     * factors, they're limited to a factor of 4 and treated as 1 when they're within a few percent of it.
+     *
+     * The overrides may be relative to a different reference host than this model's, so they're first rescaled by the
+     * median ratio of this model's factor to the override for the hosts that have both
+     */
+    public HostSpeedModel withSpeedFactors(Map<String, Double> overrides) {
+        if (overrides.isEmpty()) {
+            return this;
+        }
+
+        double[] logRatios = overrides.entrySet().stream()
+                .filter(override -> hosts.contains(override.getKey()))
+                .mapToDouble(override -> Math.log(getSpeedFactor(override.getKey()) / override.getValue()))
+                .toArray();
+        double rescale = logRatios.length == 0 ? 0 : Observations.median(logRatios, logRatios.length);
+
+        Map<String, Double> merged = new HashMap<>(speedFactors);
+        Set<String> mergedHosts = new HashSet<>(hosts);
+        overrides.forEach((host, factor) -> {
+            double effect = Math.max(-MAX_LOG_FACTOR, Math.min(MAX_LOG_FACTOR, Math.log(factor) + rescale));
+            if (Math.abs(effect) > DEAD_BAND) {
+                merged.put(host, Math.exp(effect));
+            } else {
+                merged.remove(host);
+            }
+            mergedHosts.add(host);
+        });
+        return new HostSpeedModel(merged, mergedHosts);
+    }
+
+    public boolean isUniform() {
+        return speedFactors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "HostSpeedModel" + speedFactors;
+    }
+
+    /**
+     * Log runtimes of the tests that ran on at least two hosts. The observations of a test are next to each other
+     */
+    private static class Observations {
+        private final List<String> hosts = new ArrayList<>();
+        private final Map<String, Integer> hostIds = new HashMap<>();
+
+        private double[] logTimes = new double[64];
+        private int[] hostOf = new int[64];
+        private int[] testOf = new int[64];
+        private int[] hostCounts = new int[8];
+        private int[] sharedTests = new int[8];
+        private int size;
+
+        /**
+         * Observations of test i are at testStarts[i] until testStarts[i + 1]
+         */
+        private int[] testStarts = new int[]{0, 0};
+        private int tests;
+
+        void addTest(TestTime testTime) {
+            long[] history = testTime.getHistory();
+            String[] historyHosts = testTime.getHistoryHosts();
+
+            Set<String> distinctHosts = new HashSet<>();
+            for (int i = 0; i < history.length; ++i) {
+                if (historyHosts[i] != null && history[i] > 0) {
+                    distinctHosts.add(historyHosts[i]);
+                }
+            }
+            if (distinctHosts.size() < 2) {
+                return;
+            }
+
+            for (int i = 0; i < history.length; ++i) {
+                if (historyHosts[i] != null && history[i] > 0) {
+                    add(Math.log(history[i]), hostId(historyHosts[i]));
+                }
+            }
+            for (String host : distinctHosts) {
+                sharedTests[hostId(host)]++;
+            }
+
+            ++tests;
+            if (tests + 1 >= testStarts.length) {
+                testStarts = Arrays.copyOf(testStarts, testStarts.length * 2);
+            }
+            testStarts[tests] = size;
+        }
+
+        int hostCount() {
+            return hosts.size();
+        }
+
+        int sharedTestsOf(int host) {
+            return sharedTests[host];
+        }
+
+        /**
+         * Alternately sets each test's effect to the median of its runs without their host effects, and each host's effect
+         * to the median of its runs without their test effects. Host effects are centered on the median host
+         *
+         * @return the log speed factor of each host
+         */
+        double[] medianPolish() {
+            int[][] byHost = observationsByHost();
+            double[] testEffects = new double[tests];
+            double[] hostEffects = new double[hosts.size()];
+            double[] residuals = new double[size];
+
+            for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+                for (int test = 0; test < tests; ++test) {
+                    int count = 0;
+                    for (int i = testStarts[test]; i < testStarts[test + 1]; ++i) {
+                        residuals[count++] = logTimes[i] - hostEffects[hostOf[i]];
+                    }
+                    testEffects[test] = median(residuals, count);
+                }
+
+                for (int host = 0; host < hostEffects.length; ++host) {
+                    int count = 0;
+                    for (int i : byHost[host]) {
+                        residuals[count++] = logTimes[i] - testEffects[testOf[i]];
+                    }
+                    hostEffects[host] = median(residuals, count);
+                }
+
+                double center = median(hostEffects.clone(), hostEffects.length);
+                for (int host = 0; host < hostEffects.length; ++host) {
+                    hostEffects[host] -= center;
+                }
+            }
+            return hostEffects;
+        }
+
+        private void add(double logTime, int host) {
+            if (size == logTimes.length) {
+                logTimes = Arrays.copyOf(logTimes, size * 2);
+                hostOf = Arrays.copyOf(hostOf, size * 2);
+                testOf = Arrays.copyOf(testOf, size * 2);
+            }
+            logTimes[size] = logTime;
+            hostOf[size] = host;
+            testOf[size] = tests;
+            hostCounts[host]++;
+            ++size;
+        }
+
+        private int hostId(String host) {
+            return hostIds.computeIfAbsent(host, h -> {
+                hosts.add(h);
+                if (hosts.size() > hostCounts.length) {
+                    hostCounts = Arrays.copyOf(hostCounts, hostCounts.length * 2);
+                    sharedTests = Arrays.copyOf(sharedTests, sharedTests.length * 2);
+                }
+                return hosts.size() - 1;
+            });
+        }
+
+        private int[][] observationsByHost() {
+            int[] counts = Arrays.copyOf(hostCounts, hosts.size());
+            int[][] byHost = new int[hosts.size()][];
+            for (int host = 0; host < byHost.length; ++host) {
+                byHost[host] = new int[counts[host]];
+                counts[host] = 0;
+            }
+            for (int i = 0; i < size; ++i) {
+                byHost[hostOf[i]][counts[hostOf[i]]++] = i;
+            }
+            return byHost;
+        }
+
+        /**
+         * Sorts the first count values
+         */
+        private static double median(double[] values, int count) {
+            Arrays.sort(values, 0, count);
+            int middle = count / 2;
+            return count % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+        }
+    }
+}
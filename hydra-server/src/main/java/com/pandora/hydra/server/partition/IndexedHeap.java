@@ -0,0 +1,127 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap over the ids 0..size-1 ordered by a long key. Unlike a {@link java.util.PriorityQueue} the position of every
+ * id is tracked, so the key of an id can be changed in place in O(log n) without removing and re-adding it.
+ *
+ * @since 10/16/26
+ */
+class IndexedHeap {
+
+    private final int[] heap;
+    private final int[] positions;
+    private final long[] keys;
+    private final boolean max;
+
+    private IndexedHeap(long[] keys, boolean max) {
+        this.keys = keys.clone();
+        this.max = max;
+        this.heap = new int[keys.length];
+        this.positions = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            heap[i] = i;
+            positions[i] = i;
+        }
+        for (int i = keys.length / 2 - 1; i >= 0; --i) {
+            siftDown(i);
+        }
+    }
+
+    static IndexedHeap minHeap(long[] keys) {
+        return new IndexedHeap(keys, false);
+    }
+
+    static IndexedHeap maxHeap(long[] keys) {
+        return new IndexedHeap(keys, true);
+    }
+
+    int peek() {
+        return heap[0];
+    }
+
+    long peekKey() {
+        return keys[heap[0]];
+    }
+
+    long key(int id) {
+        return keys[id];
+    }
+
+    int size() {
+        return heap.length;
+    }
+
+    void update(int id, long key) {
+        long old = keys[id];
+        keys[id] = key;
+        if (before(key, old)) {
+            siftUp(positions[id]);
+        } else {
+            siftDown(positions[id]);
+        }
+    }
+
+    private boolean before(long a, long b) {
+        return max ? a > b : a < b;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!before(keys[heap[position]], keys[heap[parent]])) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= heap.length) {
+                return;
+            }
+            if (child + 1 < heap.length && before(keys[heap[child + 1]], keys[heap[child]])) {
+                ++child;
+            }
+            if (!before(keys[heap[child]], keys[heap[position]])) {
+                return;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = heap[a];
+        heap[a] = heap[b];
+        heap[b] = id;
+        positions[heap[a]] = a;
+        positions[heap[b]] = b;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedHeap{max=" + max + ", keys=" + Arrays.toString(keys) + '}';
+    }
+}
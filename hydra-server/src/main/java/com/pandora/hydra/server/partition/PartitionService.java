@@ -17,19 +17,42 @@
 
 package com.pandora.hydra.server.partition;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.pandora.hydra.common.TestIncludes;
+import com.pandora.hydra.common.TestLease;
+import com.pandora.hydra.common.TestSuite;
 import com.pandora.hydra.server.persistence.TestStore;
 import com.pandora.hydra.server.persistence.model.TestTime;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
@@ -44,33 +67,118 @@ public class PartitionService implements Partitioner {
     private final TestStore testStore;
     private final TestRunCache cache;
     private final PartitioningStrategy strategy;
+    private final RuntimeEstimator estimator;
+
+    /**
+     * Whether the relative speed of each host is learned from the test histories and used to size its partitions
+     */
+    private final boolean hostSpeed;
+    private final HostCalibrations calibrations;
+    private final Duration leaseTimeout;
 
     private final Striped<Lock> striped;
 
+    /**
+     * Test runs that are being computed, by cache key and host list. Every request for a run that is being computed waits on
+     * the same future instead of holding a request thread
+     */
+    private final ConcurrentMap<String, CompletableFuture<TestRun>> inFlight;
+    private final ExecutorService executor;
+
+    /**
+     * Partitions the projects of a test run in parallel
+     */
+    private final ForkJoinPool partitionPool;
+
+    PartitionService(TestStore testStore, TestRunCache cache, PartitioningStrategy strategy) {
+        this(testStore, cache, strategy, 0);
+    }
+
+    PartitionService(TestStore testStore, TestRunCache cache, PartitioningStrategy strategy, int parallelism) {
+        this(testStore, cache, strategy, RuntimeEstimator.lastRuntime(), parallelism, false, new HostCalibrations(),
+                WorkQueue.DEFAULT_LEASE_TIMEOUT.toMillis());
+    }
+
+    /**
+     * @param estimator predicts the runtime of each test from its history before the tests are partitioned
+     * @param parallelism how many projects are partitioned at once. 0 uses one thread per core
+     * @param hostSpeed whether slower hosts are given proportionally less work, see {@link HostSpeedModel}. Off by default
+     * @param calibrations speed factors measured by clients, used instead of learned ones for the hosts that report them
+     * @param leaseTimeoutMs how long a host has to finish a test leased from a work queue, on top of the test's predicted
+     *                       runtime, before the test is leased to another host
+     */
     @Autowired
-    protected PartitionService(TestStore testStore, TestRunCache cache, PartitioningStrategy strategy) {
+    protected PartitionService(TestStore testStore, TestRunCache cache, PartitioningStrategy strategy, RuntimeEstimator estimator,
+                               @Value("${hydra.partition.parallelism:0}") int parallelism,
+                               @Value("${hydra.partition.host_speed:false}") boolean hostSpeed, HostCalibrations calibrations,
+                               @Value("${hydra.work_queue.lease_timeout_ms:600000}") long leaseTimeoutMs) {
         this.testStore = testStore;
         this.cache = cache;
         this.strategy = strategy;
+        this.estimator = estimator;
+        this.hostSpeed = hostSpeed;
+        this.calibrations = calibrations;
+        this.leaseTimeout = Duration.ofMillis(leaseTimeoutMs);
         this.striped = Striped.lazyWeakLock(Runtime.getRuntime().availableProcessors() * 4);
+        this.inFlight = new ConcurrentHashMap<>();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("test-run-%d")
+                .setDaemon(true)
+                .build());
+        this.partitionPool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        partitionPool.shutdownNow();
     }
 
     @Override
     public Set<String> getTestBlacklist(PartitionRequest partitionRequest, String projectName) {
         LOG.info("getTestBlacklist " + partitionRequest.getBuildTag() + ", " + partitionRequest.getHostName());
         TestRun testRun = getOrComputeTestRun(partitionRequest);
-        return buildTestBlacklist(testRun, partitionRequest.getHostName(), projectName);
+        return testRun.getExcludes(partitionRequest.getHostName(), projectName);
     }
 
     @Override
     public Set<String> getTestBlacklist(PartitionRequest partitionRequest) {
         TestRun testRun = getOrComputeTestRun(partitionRequest);
-        return buildTestBlacklist(testRun, partitionRequest.getHostName());
+        return testRun.getExcludes(partitionRequest.getHostName());
     }
 
     @Override
-    public Set<Set<String>> getThreadGrouping(PartitionRequest request, int numThreads) {
-        TestRun testRun = getOrComputeTestRun(request);
+    public CompletableFuture<EncodedResponse<Set<String>>> getEncodedTestBlacklist(PartitionRequest partitionRequest) {
+        return getTestRun(partitionRequest)
+                .thenApply(testRun -> testRun.getEncodedExcludes(partitionRequest.getHostName()));
+    }
+
+    @Override
+    public CompletableFuture<EncodedResponse<Set<String>>> getEncodedTestBlacklist(PartitionRequest partitionRequest, String projectName) {
+        return getTestRun(partitionRequest)
+                .thenApply(testRun -> testRun.getEncodedExcludes(partitionRequest.getHostName(), projectName));
+    }
+
+    @Override
+    public CompletableFuture<EncodedResponse<TestIncludes>> getEncodedTestIncludes(PartitionRequest partitionRequest) {
+        return getTestRun(partitionRequest)
+                .thenApply(testRun -> testRun.getEncodedIncludes(partitionRequest.getHostName()));
+    }
+
+    @Override
+    public CompletableFuture<EncodedResponse<TestIncludes>> getEncodedTestIncludes(PartitionRequest partitionRequest, String projectName) {
+        return getTestRun(partitionRequest)
+                .thenApply(testRun -> testRun.getEncodedIncludes(partitionRequest.getHostName(), projectName));
+    }
+
+    @Override
+    public CompletableFuture<Set<Set<String>>> getThreadGrouping(PartitionRequest request, int numThreads) {
+        return getTestRun(request)
+                .thenApply(testRun -> testRun.getThreadGrouping(request.getHostName(), numThreads,
+                        () -> computeThreadGrouping(request, testRun, numThreads)));
+    }
+
+    private Set<Set<String>> computeThreadGrouping(PartitionRequest request, TestRun testRun, int numThreads) {
         Partition partition = testRun.getPartitionByName(request.getHostName());
 
         if(partition.getAllProjectNames().size() > 1) {
@@ -78,64 +186,227 @@ public class PartitionService implements Partitioner {
         }
 
         TestContainer testContainerForProject = collapsePartition(partition);
+        TestIndex index = testContainerForProject.getIndex();
 
         Set<TestContainer> fakeTestContainers = new HashSet<>();
         for (int i = 0; i < numThreads; ++i) {
-            fakeTestContainers.add(new TestContainer("thread" + i, request.getBuildName()));
+            fakeTestContainers.add(new TestContainer("thread" + i, request.getBuildName(), index));
         }
 
-        PartitionUtil.greedyPartition(testContainerForProject.getTestTimes(), fakeTestContainers);
+        int[] ids = testContainerForProject.getIds();
+        PartitionUtil.greedyPartition(index, ids, ids.length, fakeTestContainers);
 
         Rebalancer rebalancer = Rebalancer.newSizeRebalancer();
         if (rebalancer.isRebalanceNeeded(fakeTestContainers) && canRebalance(fakeTestContainers)) {
             rebalancer.balanceTestContainers(fakeTestContainers);
         }
 
-        Set<Set<String>> threadSplits = new LinkedHashSet<>();
+        ImmutableSet.Builder<Set<String>> threadSplits = ImmutableSet.builder();
         for (TestContainer fakeTestContainer : fakeTestContainers) {
-            threadSplits.add(new LinkedHashSet<>(fakeTestContainer.getClasses()));
+            threadSplits.add(ImmutableSet.copyOf(fakeTestContainer.getClasses()));
         }
 
-        return threadSplits;
+        return threadSplits.build();
+    }
 
+    @Override
+    public TestLease leaseTests(PartitionRequest request, String projectName, int batchSize, Collection<String> candidates,
+                                Collection<String> completed) {
+        WorkQueue workQueue = getOrCreateWorkQueue(request);
+        TestLease lease = workQueue.lease(projectName, request.getHostName(), batchSize, candidates, completed);
+        LOG.debug("Leased " + lease + " to " + request.getHostName() + " for project " + projectName);
+        return lease;
     }
 
-    private TestRun getOrComputeTestRun(PartitionRequest request) {
+    @Override
+    public Optional<Map<String, Set<String>>> reportDeadHost(PartitionRequest request, Collection<String> completedTests) {
+        Optional<TestRun> testRun = cache.getCachedTestRun(request);
+        if (!testRun.isPresent()) {
+            LOG.warn("No test run is cached for " + cache.getCacheKey(request) + " with hosts " + request.getHostList());
+            return Optional.empty();
+        }
+
+        Map<String, Set<String>> recovered = testRun.get().recoverDeadHost(request.getHostName(), completedTests);
+        LOG.info(String.format("Host %s died during %s, its tests were given to %s", request.getHostName(),
+                cache.getCacheKey(request), recovered.keySet()));
+        return Optional.of(recovered);
+    }
+
+    @Override
+    public Set<String> getRecoveredTests(PartitionRequest request) {
         return cache.getCachedTestRun(request)
-                .orElseGet(() -> computeTestRun(request));
+                .map(testRun -> testRun.getRecoveredTests(request.getHostName()))
+                .orElse(Collections.emptySet());
     }
 
-    private TestRun computeTestRun(PartitionRequest partitionRequest) {
-        Lock lock = striped.get(cache.getCacheKey(partitionRequest));
+    @Override
+    public Set<String> getRecoveredTests(PartitionRequest request, String projectName) {
+        return cache.getCachedTestRun(request)
+                .map(testRun -> testRun.getRecoveredTests(request.getHostName(), projectName))
+                .orElse(Collections.emptySet());
+    }
+
+    @Override
+    public Set<String> reportCompleted(PartitionRequest request, String projectName, Collection<String> completedTests) {
+        return cache.getCachedTestRun(request)
+                .map(testRun -> testRun.reportCompleted(request.getHostName(), projectName, completedTests))
+                .orElse(Collections.emptySet());
+    }
+
+    @Override
+    public List<String> speculate(PartitionRequest request, String projectName, int maxTests) {
+        Optional<TestRun> testRun = cache.getCachedTestRun(request);
+        if (!testRun.isPresent()) {
+            return Collections.emptyList();
+        }
+
+        List<String> copies = testRun.get().speculate(request.getHostName(), projectName, maxTests);
+        if (!copies.isEmpty()) {
+            LOG.info(String.format("Gave idle host %s copies of %s for project %s of %s", request.getHostName(), copies,
+                    projectName, cache.getCacheKey(request)));
+        }
+        return copies;
+    }
+
+    @Override
+    public List<TestSuite> dropDuplicateResults(PartitionRequest request, String projectName, List<TestSuite> results) {
+        Optional<TestRun> testRun = cache.getCachedTestRun(request);
+        if (!testRun.isPresent()) {
+            return results;
+        }
+
+        Set<String> won = testRun.get().reportCompleted(request.getHostName(), projectName,
+                results.stream().map(TestSuite::getClassName).collect(Collectors.toList()));
+        if (won.size() == results.size()) {
+            return results;
+        }
+
+        LOG.info(String.format("Dropping %d results from %s for project %s of %s, another host finished them first",
+                results.size() - won.size(), request.getHostName(), projectName, cache.getCacheKey(request)));
+        return results.stream()
+                .filter(result -> won.contains(result.getClassName()))
+                .collect(Collectors.toList());
+    }
+
+    private WorkQueue getOrCreateWorkQueue(PartitionRequest request) {
+        return cache.getCachedWorkQueue(request)
+                .orElseGet(() -> createWorkQueue(request));
+    }
+
+    private WorkQueue createWorkQueue(PartitionRequest request) {
+        Lock lock = striped.get(cache.getCacheKey(request));
         lock.lock();
         try {
-            Optional<TestRun> cachedTestRun = cache.getCachedTestRun(partitionRequest);
-            if(cachedTestRun.isPresent()) {
-                return cachedTestRun.get();
-            }
-
-            Map<String, Collection<TestTime>> projectToTestTime = testStore.getTestTimes(partitionRequest.getBuildName());
-            Set<Partition> partitions = createPartitionsFromHostList(partitionRequest.getHostList());
-            for (Map.Entry<String, Collection<TestTime>> projects : projectToTestTime.entrySet()) {
-                String currentProject = projects.getKey();
-                Set<TestContainer> testContainers = partitions.stream()
-                        .map(p -> p.getTestContainerForProject(currentProject))
-                        .collect(Collectors.toSet());
-                LOG.info("Calculating partitions for project " + currentProject);
-                strategy.distributeTestTestTimes(partitionRequest, projects.getValue(), testContainers);
-
-                LOG.info("Expected runtimes for " + currentProject + ":");
-                testContainers.forEach(test -> LOG.info(test.toString()));
+            Optional<WorkQueue> cachedWorkQueue = cache.getCachedWorkQueue(request);
+            if(cachedWorkQueue.isPresent()) {
+                return cachedWorkQueue.get();
             }
 
-            TestRun testRun = new TestRun(partitions);
-            cache.cacheTestRun(partitionRequest, testRun);
-            return testRun;
+            LOG.info("Creating work queue for " + cache.getCacheKey(request));
+            WorkQueue workQueue = new WorkQueue(request.getHostList(), estimator.estimate(testStore.getTestTimes(request.getBuildName())),
+                    leaseTimeout, Clock.systemUTC());
+            cache.cacheWorkQueue(request, workQueue);
+            return workQueue;
         } finally {
             lock.unlock();
         }
     }
 
+    private TestRun getOrComputeTestRun(PartitionRequest request) {
+        try {
+            return getTestRun(request).join();
+        } catch (CompletionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the cached test run for request, or joins the computation of it. Only the first request for a run that isn't
+     * cached starts computing it, on a separate thread, and every request that comes in while it's being computed gets the
+     * same future.
+     */
+    CompletableFuture<TestRun> getTestRun(PartitionRequest request) {
+        Optional<TestRun> cachedTestRun = cache.getCachedTestRun(request);
+        if(cachedTestRun.isPresent()) {
+            return CompletableFuture.completedFuture(cachedTestRun.get());
+        }
+
+        // runs for different host lists don't share a computation, the host list is part of what gets partitioned
+        String key = cache.getCacheKey(request) + '|' + new TreeSet<>(request.getHostList());
+        CompletableFuture<TestRun> future = new CompletableFuture<>();
+        CompletableFuture<TestRun> existing = inFlight.putIfAbsent(key, future);
+        if(existing != null) {
+            LOG.debug("Waiting on test run that is already being computed for " + key);
+            return existing;
+        }
+
+        try {
+            executor.execute(() -> computeTestRun(request, key, future));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void computeTestRun(PartitionRequest request, String key, CompletableFuture<TestRun> future) {
+        try {
+            TestRun testRun = cache.getCachedTestRun(request)
+                    .orElseGet(() -> computeTestRun(request));
+            inFlight.remove(key, future);
+            future.complete(testRun);
+        } catch (Throwable t) {
+            LOG.error("Failed to compute test run for " + key, t);
+            inFlight.remove(key, future);
+            future.completeExceptionally(t);
+        }
+    }
+
+    private TestRun computeTestRun(PartitionRequest partitionRequest) {
+        Map<String, Collection<TestTime>> storedTestTimes = testStore.getTestTimes(partitionRequest.getBuildName());
+        HostSpeedModel speeds = hostSpeed
+                ? HostSpeedModel.learn(storedTestTimes).withSpeedFactors(calibrations.getSpeedFactors(partitionRequest.getHostList()))
+                : HostSpeedModel.uniform();
+        Map<String, Collection<TestTime>> projectToTestTime = estimator.estimate(storedTestTimes, speeds);
+        Set<Partition> partitions = createPartitionsFromHostList(partitionRequest.getHostList());
+
+        // containers are created up front, so each project's task only touches its own containers
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(projectToTestTime.size());
+        Map<String, Set<TestContainer>> projectToContainers = new HashMap<>();
+        for (String project : projectToTestTime.keySet()) {
+            Set<TestContainer> containers = new HashSet<>();
+            for (Partition partition : partitions) {
+                TestContainer container = partition.getTestContainerForProject(project);
+                container.setSpeedFactor(speeds.getSpeedFactor(partition.getHostName()));
+                containers.add(container);
+            }
+            projectToContainers.put(project, containers);
+        }
+
+        for (Map.Entry<String, Collection<TestTime>> projects : projectToTestTime.entrySet()) {
+            String currentProject = projects.getKey();
+            Set<TestContainer> testContainers = projectToContainers.get(currentProject);
+            tasks.add(partitionPool.submit(() -> partitionProject(partitionRequest, currentProject, projects.getValue(), testContainers)));
+        }
+        tasks.forEach(ForkJoinTask::join);
+
+        TestRun testRun = new TestRun(partitions);
+        cache.cacheTestRun(partitionRequest, testRun);
+        return testRun;
+    }
+
+    private void partitionProject(PartitionRequest partitionRequest, String project, Collection<TestTime> testTimes,
+                                  Set<TestContainer> testContainers) {
+        LOG.info("Calculating partitions for project " + project);
+        strategy.distributeTestTestTimes(partitionRequest, testTimes, testContainers);
+
+        LOG.info("Expected runtimes for " + project + ":");
+        testContainers.forEach(test -> LOG.info(test.toString()));
+        LOG.info(String.format("Predicted makespan for %s is %d, lower bound is %d", project,
+                PartitionUtil.makespan(testContainers), PartitionUtil.makespanLowerBound(testContainers)));
+    }
+
     /**
      * @param partition - partition to collapse
      * @return a TestContainer that contains all tests, regardless of project
@@ -158,32 +429,8 @@ public class PartitionService implements Partitioner {
     }
 
 
-    /**
-     * Generates a set of test names that forHost should not run, i.e. every test that is not in forHost's Partition
-     *
-     * @param testRun - the test run source
-     * @param forHost - the host to generate the excludes set
-     * @return - set of test names that shouldn't be run by forHost
-     */
-    private Set<String> buildTestBlacklist(TestRun testRun, String forHost) {
-        return testRun.getPartitions().stream()
-                .filter(entry -> !entry.getHostName().equals(forHost))
-                .map(Partition::getAllTestNames)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toSet());
-    }
-
-    private Set<String> buildTestBlacklist(TestRun testRun, String forHost, String forProject) {
-        return testRun.getPartitions().stream()
-                .filter(entry -> !entry.getHostName().equals(forHost))
-                .map(partition -> partition.getAllTestNames(forProject))
-                .flatMap(Collection::stream)
-                .collect(Collectors.toSet());
-    }
-
-
     private boolean canRebalance(Set<TestContainer> testContainers) {
-        int totalNumberTests = testContainers.stream().mapToInt(p -> p.getClasses().size()).sum();
+        long totalNumberTests = testContainers.stream().mapToLong(TestContainer::size).sum();
         if(totalNumberTests < testContainers.size()) {
             LOG.info("No need to rebalance by size because there are are fewer tests than partitions");
             return true;
@@ -20,15 +20,14 @@ package com.pandora.hydra.server.partition;
 import com.pandora.hydra.server.persistence.model.TestTime;
 import org.apache.log4j.Logger;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * @author Justin Guerra
@@ -43,23 +42,44 @@ public class PartitionUtil {
      * test failures are always run on the host they previously failed on
      */
     public static void greedyPartitionFailuresOnSameHost(Collection<TestTime> testTimes, Set<TestContainer> testContainers) {
-        Map<String, TestContainer> hostToContainerMap = testContainers.stream()
-                .collect(Collectors.toMap(TestContainer::getHostName, Function.identity()));
-
-        List<TestTime> unassignedTests = new ArrayList<>();
-        for (TestTime test : testTimes) {
-            if (test.isFailed()) {
-                if (hostToContainerMap.containsKey(test.getHostName())) {
-                    hostToContainerMap.get(test.getHostName()).addTestTime(test);
-                } else {
-                    unassignedTests.add(test);
-                }
+        TestIndex index = TestIndex.shared(testContainers);
+        int[] ids = index.addAll(testTimes);
+        greedyPartitionFailuresOnSameHost(index, ids, ids.length, testContainers);
+    }
+
+    /**
+     * Same as {@link #greedyPartitionFailuresOnSameHost(Collection, Set)} for the first length tests in ids, which are already
+     * in index. The order of ids is not preserved
+     */
+    static void greedyPartitionFailuresOnSameHost(TestIndex index, int[] ids, int length, Set<TestContainer> testContainers) {
+        TestContainer[] hostToContainer = containersByHost(index, testContainers);
+
+        int unassigned = 0;
+        for (int i = 0; i < length; ++i) {
+            int id = ids[i];
+            int host = index.getHost(id);
+            if (index.isFailed(id) && host >= 0 && hostToContainer[host] != null) {
+                hostToContainer[host].add(id);
             } else {
-                unassignedTests.add(test);
+                ids[unassigned++] = id;
             }
         }
 
-        greedyPartition(unassignedTests, testContainers);
+        greedyPartition(index, ids, unassigned, testContainers);
+    }
+
+    /**
+     * @return containers indexed by the interned id of their host name in index. Hosts that no test ran on aren't included
+     */
+    static TestContainer[] containersByHost(TestIndex index, Set<TestContainer> testContainers) {
+        TestContainer[] hostToContainer = new TestContainer[index.hostCount()];
+        for (TestContainer container : testContainers) {
+            int host = index.hostId(container.getHostName());
+            if (host >= 0) {
+                hostToContainer[host] = container;
+            }
+        }
+        return hostToContainer;
     }
 
     /**
@@ -70,26 +90,444 @@ public class PartitionUtil {
             throw new IllegalArgumentException("Queue must be populated with a partition for each host");
         }
 
-        List<TestTime> sortedList = testTimes.stream()
-                .sorted(Comparator.comparingLong(TestTime::getTime).reversed())
-                .collect(Collectors.toList());
+        TestIndex index = TestIndex.shared(testContainers);
+        int[] ids = index.addAll(testTimes);
+        greedyPartition(index, ids, ids.length, testContainers);
+    }
+
+    /**
+     * Same as {@link #greedyPartition(Collection, Set)} for the first length tests in ids, which are already in index.
+     * The order of ids is not preserved
+     */
+    static void greedyPartition(TestIndex index, int[] ids, int length, Set<TestContainer> testContainers) {
+        if(testContainers.isEmpty()) {
+            throw new IllegalArgumentException("Queue must be populated with a partition for each host");
+        }
+
+        index.sortByTimeDescending(ids, length);
+
+        List<TestContainer> containers = new ArrayList<>(testContainers);
+        if (hasUniformSpeed(containers)) {
+            long[] loads = containers.stream().mapToLong(TestContainer::getTime).toArray();
+            IndexedHeap queue = IndexedHeap.minHeap(loads);
 
-        PriorityQueue<TestContainer> queues = new PriorityQueue<>(testContainers);
+            for (int i = 0; i < length; ++i) {
+                int container = queue.peek();
+                containers.get(container).add(ids[i]);
+                queue.update(container, containers.get(container).getTime());
+            }
+        } else {
+            // on hosts of different speeds the least loaded host isn't necessarily the one that would finish the test first
+            for (int i = 0; i < length; ++i) {
+                TestContainer earliest = null;
+                long earliestFinish = Long.MAX_VALUE;
+                for (TestContainer container : containers) {
+                    long finish = container.getTime() + container.getPredictedTime(ids[i]);
+                    if (finish < earliestFinish) {
+                        earliest = container;
+                        earliestFinish = finish;
+                    }
+                }
+                earliest.add(ids[i]);
+            }
+        }
 
-        greedyPartition(sortedList, queues);
+        if(LOG.isDebugEnabled()) {
+            containers.forEach(p -> LOG.debug(String.format("Host %s has %d test cases for a total runtime of %d ",
+                    p.getHostName(), p.size(), p.getTime())));
+        }
     }
 
-    private static void greedyPartition(List<TestTime> sortedTestTimes, PriorityQueue<TestContainer> testContainers) {
+    /**
+     * Multi-way largest differencing (Karmarkar-Karp) set partition approximation. Every test starts out as its own partial
+     * partition of testContainers.size() subsets. The two partial partitions with the largest difference between their
+     * biggest and smallest subset are repeatedly merged by pairing the biggest subset of one with the smallest subset of the
+     * other, until only one partial partition remains. This generally gets closer to an even split than
+     * {@link #greedyPartition(Collection, Set)} when a few tests dominate the total runtime.
+     *
+     * Runs in O(n log n + n * k log k) for n tests and k containers. Tests already in a container stay where they are.
+     * Differencing assumes every container runs a test in the same time, so when hosts differ in speed the tests are
+     * partitioned with {@link #greedyPartition(Collection, Set)} instead
+     */
+    public static void largestDifferencingPartition(Collection<TestTime> testTimes, Set<TestContainer> testContainers) {
+        if(testContainers.isEmpty()) {
+            throw new IllegalArgumentException("Queue must be populated with a partition for each host");
+        }
 
-        for (TestTime testTime: sortedTestTimes) {
-            final TestContainer testContainer = testContainers.poll();
-            testContainer.addTestTime(testTime);
-            testContainers.offer(testContainer);
+        TestIndex index = TestIndex.shared(testContainers);
+        List<TestContainer> containers = new ArrayList<>(testContainers);
+        int[] sortedTests = index.addAll(testTimes);
+        if (!hasUniformSpeed(containers)) {
+            LOG.info("Hosts differ in speed, partitioning greedily instead of by largest differencing");
+            greedyPartition(index, sortedTests, sortedTests.length, testContainers);
+            return;
         }
+        index.sortByTimeDescending(sortedTests, sortedTests.length);
 
-        if(LOG.isDebugEnabled()) {
-            testContainers.forEach(p -> LOG.debug(String.format("Host %s has %d test cases for a total runtime of %d ",
-                    p.getHostName(), p.getTestTimes().size(), p.getTime())));
+        LargestDifferencing differencing = new LargestDifferencing(sortedTests, containers);
+        differencing.partition();
+    }
+
+    /**
+     * Exact multi-way partitioning (complete greedy algorithm with branch and bound) that searches for the assignment with the
+     * smallest makespan until searchBudget runs out. The search starts from the same solution {@link #greedyPartition(Collection, Set)}
+     * would produce, and returns the best solution it has found when the deadline passes, so it is never worse than greedy.
+     * It finishes early if it reaches the lower bound max(total / containers, longest test).
+     *
+     * Tests are assigned longest first, each to every container in order of increasing load. A branch is pruned when it can't
+     * produce a smaller makespan than the best solution so far, and containers with the same load are only tried once.
+     * This is practical for a few hundred tests and a handful of containers; larger inputs will usually just return the greedy solution.
+     * Tests already in a container stay where they are. Like {@link #largestDifferencingPartition(Collection, Set)}, it falls
+     * back to {@link #greedyPartition(Collection, Set)} when hosts differ in speed
+     */
+    public static void branchAndBoundPartition(Collection<TestTime> testTimes, Set<TestContainer> testContainers, Duration searchBudget) {
+        if(testContainers.isEmpty()) {
+            throw new IllegalArgumentException("Queue must be populated with a partition for each host");
+        }
+
+        TestIndex index = TestIndex.shared(testContainers);
+        List<TestContainer> containers = new ArrayList<>(testContainers);
+        int[] sortedTests = index.addAll(testTimes);
+        if (!hasUniformSpeed(containers)) {
+            LOG.info("Hosts differ in speed, partitioning greedily instead of by branch and bound");
+            greedyPartition(index, sortedTests, sortedTests.length, testContainers);
+            return;
+        }
+        index.sortByTimeDescending(sortedTests, sortedTests.length);
+
+        BranchAndBound search = new BranchAndBound(sortedTests, containers);
+        search.search(System.nanoTime() + searchBudget.toNanos());
+
+        for (int i = 0; i < sortedTests.length; ++i) {
+            containers.get(search.bestAssignment[i]).add(sortedTests[i]);
+        }
+
+        LOG.info(String.format("Branch and bound explored %d nodes", search.nodes));
+    }
+
+    private static boolean hasUniformSpeed(List<TestContainer> containers) {
+        double speedFactor = containers.get(0).getSpeedFactor();
+        return containers.stream().allMatch(c -> c.getSpeedFactor() == speedFactor);
+    }
+
+    /**
+     * @return the expected runtime of the longest running container
+     */
+    public static long makespan(Collection<TestContainer> testContainers) {
+        return testContainers.stream().mapToLong(TestContainer::getTime).max().orElse(0);
+    }
+
+    /**
+     * @return the best makespan any partition of the tests in testContainers could achieve, max(total / containers, longest test)
+     */
+    public static long makespanLowerBound(Collection<TestContainer> testContainers) {
+        if(testContainers.isEmpty()) {
+            return 0;
+        }
+
+        long total = testContainers.stream().mapToLong(TestContainer::getTime).sum();
+        long longestTest = testContainers.stream()
+                .mapToLong(TestContainer::getLongestTestTime)
+                .max()
+                .orElse(0);
+
+        long average = (total + testContainers.size() - 1) / testContainers.size();
+        return Math.max(average, longestTest);
+    }
+
+    /**
+     * @return the predicted runtime of each test on the hosts of containers, which all have the same speed. Container loads
+     * are in the same unit
+     */
+    private static long[] predictedTimes(int[] sortedTests, List<TestContainer> containers) {
+        TestContainer container = containers.get(0);
+        return Arrays.stream(sortedTests).mapToLong(container::getPredictedTime).toArray();
+    }
+
+    /**
+     * State for a single run of the largest differencing method. Tests are referenced by their position in sortedTests, and the
+     * tests in a subset are kept as a linked list threaded through next, so merging two subsets is O(1).
+     *
+     * The tests that are already in the containers form one extra partial partition whose subsets are anchored to a container.
+     * Merging never pairs two subsets of the same partial partition, so each subset of the final partition contains exactly one
+     * anchor, which decides the container its tests are added to.
+     */
+    private static class LargestDifferencing {
+
+        private final int[] sortedTests;
+        private final long[] times;
+        private final List<TestContainer> containers;
+        private final int width;
+        private final int[] next;
+
+        LargestDifferencing(int[] sortedTests, List<TestContainer> containers) {
+            this.sortedTests = sortedTests;
+            this.times = predictedTimes(sortedTests, containers);
+            this.containers = containers;
+            this.width = containers.size();
+            this.next = new int[sortedTests.length];
+            Arrays.fill(next, -1);
+        }
+
+        void partition() {
+            PriorityQueue<PartialPartition> merged = new PriorityQueue<>(Comparator.comparingLong(PartialPartition::difference).reversed());
+            merged.add(anchors());
+
+            // singletons are already sorted by difference, so they're consumed in order instead of being pushed onto the heap
+            int nextSingleton = 0;
+            while (merged.size() + (sortedTests.length - nextSingleton) > 1) {
+                PartialPartition first;
+                if (nextSingleton < sortedTests.length && (merged.isEmpty() || times[nextSingleton] >= merged.peek().difference())) {
+                    first = singleton(nextSingleton++);
+                } else {
+                    first = merged.poll();
+                }
+
+                PartialPartition second;
+                if (nextSingleton < sortedTests.length && (merged.isEmpty() || times[nextSingleton] >= merged.peek().difference())) {
+                    second = singleton(nextSingleton++);
+                } else {
+                    second = merged.poll();
+                }
+
+                merged.add(merge(first, second));
+            }
+
+            assign(merged.poll());
+        }
+
+        private PartialPartition anchors() {
+            PartialPartition anchors = new PartialPartition(width);
+            for (int i = 0; i < width; ++i) {
+                anchors.sums[i] = containers.get(i).getTime();
+                anchors.anchors[i] = i;
+            }
+            anchors.sort();
+            return anchors;
+        }
+
+        private PartialPartition singleton(int test) {
+            PartialPartition singleton = new PartialPartition(width);
+            singleton.sums[0] = times[test];
+            singleton.heads[0] = test;
+            singleton.tails[0] = test;
+            return singleton;
+        }
+
+        private PartialPartition merge(PartialPartition first, PartialPartition second) {
+            PartialPartition result = new PartialPartition(width);
+            for (int i = 0; i < width; ++i) {
+                int j = width - 1 - i;
+                result.sums[i] = first.sums[i] + second.sums[j];
+                result.anchors[i] = first.anchors[i] >= 0 ? first.anchors[i] : second.anchors[j];
+
+                if (first.heads[i] < 0) {
+                    result.heads[i] = second.heads[j];
+                    result.tails[i] = second.tails[j];
+                } else {
+                    result.heads[i] = first.heads[i];
+                    if (second.heads[j] >= 0) {
+                        next[first.tails[i]] = second.heads[j];
+                        result.tails[i] = second.tails[j];
+                    } else {
+                        result.tails[i] = first.tails[i];
+                    }
+                }
+            }
+            result.sort();
+            return result;
+        }
+
+        private void assign(PartialPartition partition) {
+            for (int i = 0; i < width; ++i) {
+                TestContainer container = containers.get(partition.anchors[i]);
+                for (int test = partition.heads[i]; test >= 0; test = next[test]) {
+                    container.add(sortedTests[test]);
+                }
+            }
+        }
+    }
+
+    /**
+     * State for a single run of the complete greedy algorithm. The search is iterative so that the depth of the search tree
+     * (the number of tests) isn't limited by the stack size.
+     */
+    private static class BranchAndBound {
+
+        private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+        private final long[] times;
+        private final long[] loads;
+        private final int width;
+
+        private final int[] bestAssignment;
+        private final long lowerBound;
+        private final long greedyMakespan;
+        private long bestMakespan;
+        private long nodes;
+
+        BranchAndBound(int[] sortedTests, List<TestContainer> containers) {
+            this.times = predictedTimes(sortedTests, containers);
+            this.loads = containers.stream().mapToLong(TestContainer::getTime).toArray();
+            this.width = loads.length;
+            this.bestAssignment = new int[times.length];
+
+            long total = Arrays.stream(times).sum() + Arrays.stream(loads).sum();
+            long longest = Math.max(times.length > 0 ? times[0] : 0, Arrays.stream(loads).max().orElse(0));
+            this.lowerBound = Math.max((total + width - 1) / width, longest);
+            this.greedyMakespan = greedy();
+            this.bestMakespan = greedyMakespan;
+        }
+
+        private long greedy() {
+            long[] greedyLoads = loads.clone();
+            for (int i = 0; i < times.length; ++i) {
+                int min = 0;
+                for (int c = 1; c < width; ++c) {
+                    if (greedyLoads[c] < greedyLoads[min]) {
+                        min = c;
+                    }
+                }
+                greedyLoads[min] += times[i];
+                bestAssignment[i] = min;
+            }
+            return Arrays.stream(greedyLoads).max().orElse(0);
+        }
+
+        void search(long deadline) {
+            int depth = times.length;
+            if (depth == 0 || bestMakespan <= lowerBound) {
+                return;
+            }
+
+            int[] assignment = new int[depth];
+            Arrays.fill(assignment, -1);
+            int[][] choices = new int[depth][];
+            int[] numChoices = new int[depth];
+            int[] nextChoice = new int[depth];
+
+            int d = 0;
+            numChoices[0] = orderChoices(choices, 0);
+            while (d >= 0) {
+                if (++nodes % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                    LOG.info("Branch and bound search ran out of time");
+                    return;
+                }
+
+                if (assignment[d] >= 0) {
+                    loads[assignment[d]] -= times[d];
+                    assignment[d] = -1;
+                }
+
+                if (nextChoice[d] >= numChoices[d]) {
+                    nextChoice[d] = 0;
+                    --d;
+                    continue;
+                }
+
+                int container = choices[d][nextChoice[d]++];
+                if (loads[container] + times[d] >= bestMakespan) {
+                    // choices are ordered by load, so no other container can do better
+                    nextChoice[d] = numChoices[d];
+                    continue;
+                }
+
+                loads[container] += times[d];
+                assignment[d] = container;
+
+                if (d == depth - 1) {
+                    bestMakespan = Arrays.stream(loads).max().orElse(0);
+                    System.arraycopy(assignment, 0, bestAssignment, 0, depth);
+                    if (bestMakespan <= lowerBound) {
+                        return;
+                    }
+                } else {
+                    ++d;
+                    numChoices[d] = orderChoices(choices, d);
+                }
+            }
+        }
+
+        /**
+         * Orders the containers by increasing load, skipping containers whose load is the same as one that's already included
+         */
+        private int orderChoices(int[][] choices, int depth) {
+            if (choices[depth] == null) {
+                choices[depth] = new int[width];
+            }
+
+            int[] order = choices[depth];
+            int count = 0;
+            for (int c = 0; c < width; ++c) {
+                int insertAt = count;
+                boolean duplicate = false;
+                for (int i = 0; i < count; ++i) {
+                    if (loads[order[i]] == loads[c]) {
+                        duplicate = true;
+                        break;
+                    }
+                    if (loads[order[i]] > loads[c]) {
+                        insertAt = Math.min(insertAt, i);
+                    }
+                }
+
+                if (duplicate) {
+                    continue;
+                }
+
+                System.arraycopy(order, insertAt, order, insertAt + 1, count - insertAt);
+                order[insertAt] = c;
+                ++count;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * A partition of some of the tests into width subsets, sorted by descending subset runtime
+     */
+    private static class PartialPartition {
+        private final long[] sums;
+        private final int[] heads;
+        private final int[] tails;
+        private final int[] anchors;
+
+        PartialPartition(int width) {
+            this.sums = new long[width];
+            this.heads = new int[width];
+            this.tails = new int[width];
+            this.anchors = new int[width];
+            Arrays.fill(heads, -1);
+            Arrays.fill(tails, -1);
+            Arrays.fill(anchors, -1);
+        }
+
+        long difference() {
+            return sums[0] - sums[sums.length - 1];
+        }
+
+        void sort() {
+            Integer[] order = new Integer[sums.length];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(sums[b], sums[a]));
+
+            long[] sortedSums = new long[sums.length];
+            int[] sortedHeads = new int[sums.length];
+            int[] sortedTails = new int[sums.length];
+            int[] sortedAnchors = new int[sums.length];
+            for (int i = 0; i < order.length; ++i) {
+                sortedSums[i] = sums[order[i]];
+                sortedHeads[i] = heads[order[i]];
+                sortedTails[i] = tails[order[i]];
+                sortedAnchors[i] = anchors[order[i]];
+            }
+
+            System.arraycopy(sortedSums, 0, sums, 0, sums.length);
+            System.arraycopy(sortedHeads, 0, heads, 0, sums.length);
+            System.arraycopy(sortedTails, 0, tails, 0, sums.length);
+            System.arraycopy(sortedAnchors, 0, anchors, 0, sums.length);
         }
     }
 }
@@ -17,7 +17,16 @@
 
 package com.pandora.hydra.server.partition;
 
+import com.pandora.hydra.common.TestIncludes;
+import com.pandora.hydra.common.TestLease;
+import com.pandora.hydra.common.TestSuite;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Justin Guerra
@@ -36,6 +45,26 @@ public interface Partitioner {
 
     Set<String> getTestBlacklist(PartitionRequest partitionRequest, String projectName);
 
+    /**
+     * Same as {@link #getTestBlacklist(PartitionRequest)}, but the blacklist is kept along with its serialized form so that it's
+     * only encoded once per test run. Completes once the test run has been partitioned, without blocking the caller
+     */
+    CompletableFuture<EncodedResponse<Set<String>>> getEncodedTestBlacklist(PartitionRequest partitionRequest);
+
+    CompletableFuture<EncodedResponse<Set<String>>> getEncodedTestBlacklist(PartitionRequest partitionRequest, String projectName);
+
+    /**
+     * Returns the tests a host should run, which is about 1 / hosts the size of its blacklist. Tests the server has never seen
+     * are run by the host {@link com.pandora.hydra.common.HostAssignment} maps them to, so the response also contains the
+     * tests that map to the host but were assigned to another host
+     *
+     * @param partitionRequest
+     * @return the tests the host should run, across all projects
+     */
+    CompletableFuture<EncodedResponse<TestIncludes>> getEncodedTestIncludes(PartitionRequest partitionRequest);
+
+    CompletableFuture<EncodedResponse<TestIncludes>> getEncodedTestIncludes(PartitionRequest partitionRequest, String projectName);
+
     /**
      * Calculates an optimal test balancing at the thread level. Long running tests are spread across each thread
      * so that we can ensure that threads will finish at roughly the same time. Note: this only works when using the gradle
@@ -43,7 +72,76 @@ public interface Partitioner {
      *
      * @param request
      * @param numThreads number of threads that the host will run the test across
-     * @return a set containing numThreads members, each of which is a collection of tests that should be run on a specific thread
+     * @return completes with a set containing numThreads members, each of which is a collection of tests that should be run on a specific thread
+     */
+    CompletableFuture<Set<Set<String>>> getThreadGrouping(PartitionRequest request, int numThreads);
+
+    /**
+     * Leases the next batch of tests for a project from the test run's work queue. Unlike a blacklist, which is fixed when the
+     * run starts, a host keeps leasing tests until the queue is drained, so hosts that finish early pick up more work.
+     *
+     * @param request
+     * @param projectName the project to lease tests for
+     * @param batchSize the maximum number of tests to lease
+     * @param candidates test classes available on the requesting host. Used to hand out tests that have never been run before
+     * @param completed tests the host finished since its last lease. Leases that aren't reported finished in time are handed
+     *                  out again
+     * @return the tests the host should run next
+     */
+    TestLease leaseTests(PartitionRequest request, String projectName, int batchSize, Collection<String> candidates,
+                         Collection<String> completed);
+
+    /**
+     * Splits the tests of a host that died during a test run between the other hosts of the run. The hosts that are still
+     * running fetch the tests they were given with {@link #getRecoveredTests(PartitionRequest)}, so losing a host doesn't
+     * mean running the whole build again
+     *
+     * @param request the test run, with the dead host as its host
+     * @param completedTests tests the dead host finished before it died, they aren't run again
+     * @return the recovered tests by the host that will now run them, empty if no test run with the request's build tag and
+     * host list is cached
+     * @throws IllegalStateException if every other host of the run is dead already
+     */
+    Optional<Map<String, Set<String>>> reportDeadHost(PartitionRequest request, Collection<String> completedTests);
+
+    /**
+     * @param request
+     * @return the tests of dead hosts the host should run on top of its own, across all projects. Empty if no host died
+     */
+    Set<String> getRecoveredTests(PartitionRequest request);
+
+    Set<String> getRecoveredTests(PartitionRequest request, String projectName);
+
+    /**
+     * Records the tests a host finished, as it finishes them. When a test ran on two hosts, see
+     * {@link #speculate(PartitionRequest, String, int)}, only the first host to report it counts
+     *
+     * @param request
+     * @param projectName
+     * @param completedTests tests the host finished
+     * @return the tests the host finished first. Empty if the test run isn't known, in which case nothing is recorded
+     */
+    Set<String> reportCompleted(PartitionRequest request, String projectName, Collection<String> completedTests);
+
+    /**
+     * Gives a host that ran out of tests copies of the longest unfinished tests of the host with the most left to do, so a
+     * slow host doesn't hold up the end of the build. Both hosts run the tests, and the first to report them wins
+     *
+     * @param request the test run, with the idle host as its host
+     * @param projectName
+     * @param maxTests the most tests to hand out
+     * @return the tests the idle host should run. Empty if no host is far enough behind, or the test run isn't known
+     */
+    List<String> speculate(PartitionRequest request, String projectName, int maxTests);
+
+    /**
+     * Drops the results of tests another host of the test run finished first, so the runtime of a test that ran on two
+     * hosts is only stored once. Results are returned as is if the test run isn't known
+     *
+     * @param request
+     * @param projectName
+     * @param results results the host reported
+     * @return the results that should be stored
      */
-    Set<Set<String>> getThreadGrouping(PartitionRequest request, int numThreads);
+    List<TestSuite> dropDuplicateResults(PartitionRequest request, String projectName, List<TestSuite> results);
 }
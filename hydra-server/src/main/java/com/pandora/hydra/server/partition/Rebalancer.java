@@ -17,15 +17,14 @@
 
 package com.pandora.hydra.server.partition;
 
-import com.pandora.hydra.server.persistence.model.TestTime;
 import org.apache.log4j.Logger;
 
+import java.time.Duration;
 import java.util.Comparator;
 import java.util.LongSummaryStatistics;
 import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.function.BiFunction;
-import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * @author Justin Guerra
@@ -43,8 +42,7 @@ public class Rebalancer {
      * @return a new rebalancer that balances test containers based off their runtime
      */
     public static Rebalancer newTimeRebalancer(int rebalanceThreshold) {
-        BiFunction<Long, TestContainer, TestTime> pollingFunc = (l, t) -> t.getAndRemoveTestWithMaxRunTimeOf(l);
-        return new Rebalancer(TestContainer::getTime, Comparator.naturalOrder(), pollingFunc, rebalanceThreshold);
+        return new Rebalancer(TestContainer::getTime, Comparator.naturalOrder(), TestContainer::removeTestWithMaxRunTimeOf, rebalanceThreshold);
     }
 
     /**
@@ -54,18 +52,41 @@ public class Rebalancer {
      */
     public static Rebalancer newSizeRebalancer() {
         Comparator<TestContainer> minComparator = Comparator.comparingLong(TestContainer::size).thenComparing(TestContainer::getTime);
-        BiFunction<Long, TestContainer, TestTime> pollingFunc = (l,t) -> t.removeFromEnd();
-        return new Rebalancer(TestContainer::size, minComparator, pollingFunc, 1);
+        return new Rebalancer(TestContainer::size, minComparator, (t, l) -> t.removeFromEnd(), 1);
     }
 
-    private final Function<TestContainer, Long> extractor;
+    /**
+     * Creates a new rebalancer that balances test containers by runtime using moves as well as one for one and two for one swaps
+     * of tests between containers. Unlike {@link #newTimeRebalancer(int)} it is bounded by time instead of a number of steps
+     *
+     * @param rebalanceThreshold the amount of time in seconds to try and rebalance to
+     * @param budget how long to keep looking for improvements
+     * @return a new rebalancer that balances test containers based off their runtime
+     */
+    public static Rebalancer newSwapRebalancer(int rebalanceThreshold, Duration budget) {
+        return new SwapRebalancer(rebalanceThreshold, budget);
+    }
+
+    /**
+     * Creates a new rebalancer that only moves a test when the move brings the longest running container down by more than
+     * moveCost, so tests stay on the hosts that have their caches warm unless moving them is worth it
+     *
+     * @param rebalanceThreshold the amount of time in seconds to try and rebalance to
+     * @param moveCost how much a move has to shorten the longest running container by
+     * @return a new rebalancer that balances test containers based off their runtime and the number of moved tests
+     */
+    public static Rebalancer newChurnBoundedRebalancer(int rebalanceThreshold, long moveCost) {
+        return new ChurnBoundedRebalancer(rebalanceThreshold, moveCost);
+    }
+
+    private final ToLongFunction<TestContainer> extractor;
     private final Comparator<TestContainer> descendingComparator;
     private final Comparator<TestContainer> ascendingComparator;
-    private final BiFunction<Long, TestContainer, TestTime> pollTestTime;
+    private final TestPoller pollTestTime;
     private final int balanceThreshold;
 
-    Rebalancer(Function<TestContainer, Long> extractor, Comparator<TestContainer> ascendingComparator,
-               BiFunction<Long, TestContainer, TestTime> pollTestTime, int balanceThreshold) {
+    Rebalancer(ToLongFunction<TestContainer> extractor, Comparator<TestContainer> ascendingComparator,
+               TestPoller pollTestTime, int balanceThreshold) {
         this.extractor = extractor;
         this.ascendingComparator = ascendingComparator;
         this.descendingComparator = ascendingComparator.reversed();
@@ -79,6 +100,9 @@ public class Rebalancer {
             return;
         }
 
+        // tests are moved between containers by id, so they need to share an index
+        TestIndex.shared(testContainers);
+
         PriorityQueue<TestContainer> minQueue = new PriorityQueue<>(ascendingComparator);
         PriorityQueue<TestContainer> maxQueue = new PriorityQueue<>(descendingComparator);
 
@@ -98,15 +122,15 @@ public class Rebalancer {
             TestContainer minTestContainer = minQueue.poll();
             TestContainer maxTestContainer = maxQueue.poll();
 
-            long diff = extractor.apply(maxTestContainer) - extractor.apply(minTestContainer);
-            TestTime testTime = pollTestTime.apply(diff, maxTestContainer);
+            long diff = extractor.applyAsLong(maxTestContainer) - extractor.applyAsLong(minTestContainer);
+            int test = pollTestTime.poll(maxTestContainer, diff);
 
-            if(testTime == null) {
+            if(test < 0) {
                 LOG.info("No more suitable test classes found for balancing. Stopping balance");
                 break;
             }
 
-            minTestContainer.addTestTime(testTime);
+            minTestContainer.add(test);
 
             minQueue.add(minTestContainer);
             maxQueue.add(maxTestContainer);
@@ -118,8 +142,19 @@ public class Rebalancer {
 
     public boolean isRebalanceNeeded(Set<TestContainer> testContainers) {
         LongSummaryStatistics stats = testContainers.stream()
-                .mapToLong(extractor::apply)
+                .mapToLong(extractor)
                 .summaryStatistics();
         return (stats.getMax() - stats.getMin()) > balanceThreshold;
     }
+
+    /**
+     * Removes a test from a container that is ahead of another container by diff
+     */
+    interface TestPoller {
+
+        /**
+         * @return the id of the removed test, or -1 if no test should be moved
+         */
+        int poll(TestContainer container, long diff);
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Which tests of a test run have finished, and on which host, as reported by the hosts while the run is going on. A test
+ * can run on two hosts when an idle host is given a copy of it, see {@link TestRun#speculate(String, String, int)}. The
+ * first host to finish it wins, and the other host's result is dropped
+ *
+ * @since 10/16/26
+ */
+class RunProgress {
+
+    private static final ConcurrentMap<String, String> EMPTY = new ConcurrentHashMap<>();
+
+    /**
+     * The host that finished each test first, by project and test
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> completedBy = new ConcurrentHashMap<>();
+
+    /**
+     * Tests that were copied to an idle host, by project. A test is only copied once
+     */
+    private final ConcurrentMap<String, Set<String>> speculated = new ConcurrentHashMap<>();
+
+    /**
+     * @return true if host is the first to finish the test, or already was
+     */
+    boolean complete(String project, String test, String host) {
+        String winner = completedBy.computeIfAbsent(project, p -> new ConcurrentHashMap<>()).putIfAbsent(test, host);
+        return winner == null || winner.equals(host);
+    }
+
+    boolean isCompleted(String project, String test) {
+        return completedBy.getOrDefault(project, EMPTY).containsKey(test);
+    }
+
+    int completedCount(String project) {
+        return completedBy.getOrDefault(project, EMPTY).size();
+    }
+
+    /**
+     * @return true if the test wasn't copied to an idle host before
+     */
+    boolean markSpeculated(String project, String test) {
+        return speculated.computeIfAbsent(project, p -> ConcurrentHashMap.newKeySet()).add(test);
+    }
+
+    boolean isSpeculated(String project, String test) {
+        return speculated.getOrDefault(project, Collections.emptySet()).contains(test);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.pandora.hydra.server.persistence.model.TestTime;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Predicts how long a test will take from the runtimes of its recent passing runs ({@link TestTime#getHistory()}), rather
+ * than only its last run. Before estimating, runs that are further than outlierThreshold scaled median absolute deviations
+ * from the median are dropped, so a single run on a noisy host doesn't move the estimate. Tests without a history keep
+ * their last runtime.
+ *
+ * Given a {@link HostSpeedModel}, each run is first divided by the speed factor of the host it ran on, so the estimate is
+ * the time the test takes on an average host
+ *
+ * @since 10/16/26
+ */
+public class RuntimeEstimator {
+
+    public enum Method {
+        /**
+         * The runtime of the last run, passing or not
+         */
+        LAST,
+        /**
+         * Exponentially weighted moving average, recent runs count the most
+         */
+        EWMA,
+        MEDIAN,
+        /**
+         * 90th percentile, a conservative estimate for tests with noisy runtimes
+         */
+        P90
+    }
+
+    private static final double EWMA_ALPHA = 0.3;
+
+    /**
+     * Scales the median absolute deviation to the standard deviation of normally distributed runtimes
+     */
+    private static final double MAD_SCALE = 1.4826;
+
+    private final Method method;
+    private final double outlierThreshold;
+
+    /**
+     * @param outlierThreshold runs further than this many scaled median absolute deviations from the median are ignored.
+     *                         0 keeps every run
+     */
+    public RuntimeEstimator(Method method, double outlierThreshold) {
+        this.method = method;
+        this.outlierThreshold = outlierThreshold;
+    }
+
+    /**
+     * Estimates the same way as before histories were kept
+     */
+    public static RuntimeEstimator lastRuntime() {
+        return new RuntimeEstimator(Method.LAST, 0);
+    }
+
+    /**
+     * @return the test times by project with their time replaced by the estimate. The test times aren't modified, copies
+     * are made of the ones whose estimate differs
+     */
+    public Map<String, Collection<TestTime>> estimate(Map<String, Collection<TestTime>> testTimes) {
+        return estimate(testTimes, HostSpeedModel.uniform());
+    }
+
+    /**
+     * @return the test times by project with their time replaced by the estimate of how long they take on an average host
+     */
+    public Map<String, Collection<TestTime>> estimate(Map<String, Collection<TestTime>> testTimes, HostSpeedModel speeds) {
+        if (method == Method.LAST && speeds.isUniform()) {
+            return testTimes;
+        }
+
+        ImmutableMap.Builder<String, Collection<TestTime>> estimated = ImmutableMap.builder();
+        for (Map.Entry<String, Collection<TestTime>> project : testTimes.entrySet()) {
+            ImmutableList.Builder<TestTime> tests = ImmutableList.builder();
+            for (TestTime testTime : project.getValue()) {
+                long estimate = estimate(testTime, speeds);
+                if (estimate == testTime.getTime()) {
+                    tests.add(testTime);
+                    continue;
+                }
+
+                TestTime copy = new TestTime(testTime.getTestName(), estimate, testTime.isFailed(), testTime.getHostName(),
+                        testTime.getLastUpdated());
+                copy.setHistory(testTime.getHistory());
+                copy.setHistoryHosts(testTime.getHistoryHosts());
+                tests.add(copy);
+            }
+            estimated.put(project.getKey(), tests.build());
+        }
+        return estimated.build();
+    }
+
+    long estimate(TestTime testTime) {
+        return estimate(testTime, HostSpeedModel.uniform());
+    }
+
+    long estimate(TestTime testTime, HostSpeedModel speeds) {
+        long[] history = testTime.getHistory();
+        if (method == Method.LAST || history.length == 0) {
+            return normalize(testTime.getTime(), testTime.getHostName(), speeds);
+        }
+
+        long[] samples = dropOutliers(normalize(history, testTime.getHistoryHosts(), speeds), outlierThreshold);
+        switch (method) {
+            case EWMA:
+                double average = samples[0];
+                for (int i = 1; i < samples.length; i++) {
+                    average += EWMA_ALPHA * (samples[i] - average);
+                }
+                return Math.round(average);
+            case MEDIAN:
+                return median(sorted(samples));
+            case P90:
+                long[] sorted = sorted(samples);
+                return sorted[(int) Math.ceil(0.9 * sorted.length) - 1];
+            default:
+                throw new IllegalStateException("Unknown estimator " + method);
+        }
+    }
+
+    /**
+     * @return the samples within threshold scaled median absolute deviations of the median, in their original order.
+     * Never empty, the samples closest to the median are always kept
+     */
+    static long[] dropOutliers(long[] samples, double threshold) {
+        if (threshold <= 0 || samples.length < 3) {
+            return samples;
+        }
+
+        long median = median(sorted(samples));
+        long[] deviations = new long[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            deviations[i] = Math.abs(samples[i] - median);
+        }
+        double limit = threshold * MAD_SCALE * median(sorted(deviations));
+
+        return Arrays.stream(samples)
+                .filter(s -> Math.abs(s - median) <= limit)
+                .toArray();
+    }
+
+    private static long[] normalize(long[] history, String[] hosts, HostSpeedModel speeds) {
+        if (speeds.isUniform()) {
+            return history;
+        }
+
+        long[] normalized = new long[history.length];
+        for (int i = 0; i < history.length; i++) {
+            normalized[i] = normalize(history[i], hosts[i], speeds);
+        }
+        return normalized;
+    }
+
+    private static long normalize(long time, String host, HostSpeedModel speeds) {
+        double speedFactor = speeds.getSpeedFactor(host);
+        return speedFactor == 1.0 ? time : Math.round(time / speedFactor);
+    }
+
+    private static long[] sorted(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static long median(long[] sorted) {
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import org.apache.log4j.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Local search rebalancer that balances containers by runtime. On top of moving a single test from the longest running container,
+ * it also considers exchanging one test for one test, and two tests for one test, between the longest running container and every
+ * other container, and always applies the change that brings the longest running container down the most. This gets unstuck
+ * in the situations where no single move helps, e.g. two containers that each have a handful of long tests.
+ *
+ * Containers are kept in indexed min and max heaps so that only the two containers touched by a change are re-ordered.
+ * Balancing stops when the containers are within the threshold, when no change improves the longest running container,
+ * or when the time budget runs out.
+ *
+ * @since 10/16/26
+ */
+class SwapRebalancer extends Rebalancer {
+
+    private static final Logger LOG = Logger.getLogger(SwapRebalancer.class);
+    private static final int[] NONE = new int[0];
+
+    private final int threshold;
+    private final Duration budget;
+
+    SwapRebalancer(int threshold, Duration budget) {
+        super(TestContainer::getTime, Comparator.naturalOrder(), TestContainer::removeTestWithMaxRunTimeOf, threshold);
+        this.threshold = threshold;
+        this.budget = budget;
+    }
+
+    @Override
+    public void balanceTestContainers(Set<TestContainer> testContainers) {
+        if(!isRebalanceNeeded(testContainers)) {
+            LOG.info("Partitions are already appropriately sized");
+            return;
+        }
+
+        LOG.info("Pre-balanced");
+        testContainers.forEach(test -> LOG.info(test.toString()));
+
+        TestIndex index = TestIndex.shared(testContainers);
+        List<TestContainer> containers = new ArrayList<>(testContainers);
+        List<SortedTests> movable = new ArrayList<>(containers.size());
+        long[] loads = new long[containers.size()];
+        for (int i = 0; i < loads.length; ++i) {
+            movable.add(new SortedTests(index, containers.get(i)));
+            loads[i] = containers.get(i).getTime();
+        }
+
+        IndexedHeap maxHeap = IndexedHeap.maxHeap(loads);
+        IndexedHeap minHeap = IndexedHeap.minHeap(loads);
+
+        long deadline = System.nanoTime() + budget.toNanos();
+        int changes = 0;
+        while (maxHeap.peekKey() - minHeap.peekKey() > threshold) {
+            if (System.nanoTime() > deadline) {
+                LOG.info("Stopping re-balance after running out of time");
+                break;
+            }
+
+            int from = maxHeap.peek();
+            Exchange exchange = findBestExchange(from, loads, movable, false, deadline);
+            if (exchange == null) {
+                exchange = findBestExchange(from, loads, movable, true, deadline);
+            }
+
+            if (exchange == null) {
+                LOG.info("No more moves or swaps improve the balance. Stopping balance");
+                break;
+            }
+
+            long longerBefore = loads[exchange.from];
+            apply(exchange, containers, movable, loads);
+
+            // gains are estimated from the tests' runtimes on an average host, so on hosts of different speeds they can be off
+            if (Math.max(loads[exchange.from], loads[exchange.to]) >= longerBefore) {
+                apply(new Exchange(exchange.to, exchange.from, 0, exchange.out, exchange.in), containers, movable, loads);
+                LOG.info("No more moves or swaps improve the balance. Stopping balance");
+                break;
+            }
+
+            maxHeap.update(exchange.from, loads[exchange.from]);
+            maxHeap.update(exchange.to, loads[exchange.to]);
+            minHeap.update(exchange.from, loads[exchange.from]);
+            minHeap.update(exchange.to, loads[exchange.to]);
+            ++changes;
+        }
+
+        LOG.info("After-balance, " + changes + " changes");
+        testContainers.forEach(test -> LOG.info(test.toString()));
+    }
+
+    private Exchange findBestExchange(int from, long[] loads, List<SortedTests> movable, boolean twoForOne, long deadline) {
+        Exchange best = null;
+        for (int to = 0; to < loads.length; ++to) {
+            long diff = loads[from] - loads[to];
+            if (to == from || diff <= 0) {
+                continue;
+            }
+
+            SortedTests fromTests = movable.get(from);
+            SortedTests toTests = movable.get(to);
+            if (twoForOne) {
+                best = better(best, findTwoForOne(from, to, diff, fromTests, toTests, deadline));
+            } else {
+                best = better(best, findMove(from, to, diff, fromTests));
+                best = better(best, findOneForOne(from, to, diff, fromTests, toTests));
+            }
+        }
+        return best;
+    }
+
+    private Exchange findMove(int from, int to, long diff, SortedTests fromTests) {
+        Exchange best = null;
+        int closest = fromTests.firstAtLeast(diff / 2);
+        for (int i = closest - 1; i <= closest; ++i) {
+            if (i >= 0 && i < fromTests.size) {
+                long gain = gain(diff, fromTests.index.getTime(fromTests.ids[i]));
+                if (gain > gainOf(best)) {
+                    best = new Exchange(from, to, gain, new int[] {fromTests.ids[i]}, NONE);
+                }
+            }
+        }
+        return best;
+    }
+
+    private Exchange findOneForOne(int from, int to, long diff, SortedTests fromTests, SortedTests toTests) {
+        Exchange best = null;
+        for (int j = 0; j < toTests.size; ++j) {
+            int in = toTests.ids[j];
+            int closest = fromTests.firstAtLeast(fromTests.index.getTime(in) + diff / 2);
+            for (int i = closest - 1; i <= closest; ++i) {
+                if (i >= 0 && i < fromTests.size) {
+                    long gain = gain(diff, fromTests.index.getTime(fromTests.ids[i]) - fromTests.index.getTime(in));
+                    if (gain > gainOf(best)) {
+                        best = new Exchange(from, to, gain, new int[] {fromTests.ids[i]}, new int[] {in});
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private Exchange findTwoForOne(int from, int to, long diff, SortedTests fromTests, SortedTests toTests, long deadline) {
+        TestIndex index = fromTests.index;
+        Exchange best = null;
+        for (int j = 0; j < toTests.size; ++j) {
+            if (System.nanoTime() > deadline) {
+                break;
+            }
+
+            int in = toTests.ids[j];
+            for (int first = 0; first < fromTests.size; ++first) {
+                int out = fromTests.ids[first];
+                int closest = fromTests.firstAtLeast(index.getTime(in) + diff / 2 - index.getTime(out));
+                for (int second = closest - 1; second <= closest + 1; ++second) {
+                    if (second >= 0 && second < fromTests.size && second != first) {
+                        int other = fromTests.ids[second];
+                        long gain = gain(diff, index.getTime(out) + index.getTime(other) - index.getTime(in));
+                        if (gain > gainOf(best)) {
+                            best = new Exchange(from, to, gain, new int[] {out, other}, new int[] {in});
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private void apply(Exchange exchange, List<TestContainer> containers, List<SortedTests> movable, long[] loads) {
+        TestContainer from = containers.get(exchange.from);
+        TestContainer to = containers.get(exchange.to);
+
+        for (int out : exchange.out) {
+            from.remove(out);
+            to.add(out);
+            movable.get(exchange.from).remove(out);
+            movable.get(exchange.to).insert(out);
+        }
+
+        for (int in : exchange.in) {
+            to.remove(in);
+            from.add(in);
+            movable.get(exchange.to).remove(in);
+            movable.get(exchange.from).insert(in);
+        }
+
+        loads[exchange.from] = from.getTime();
+        loads[exchange.to] = to.getTime();
+    }
+
+    private static Exchange better(Exchange current, Exchange candidate) {
+        return gainOf(candidate) > gainOf(current) ? candidate : current;
+    }
+
+    private static long gainOf(Exchange exchange) {
+        return exchange == null ? 0 : exchange.gain;
+    }
+
+    /**
+     * @return how much moving delta from a container to one that is diff behind brings the longer of the two down
+     */
+    private static long gain(long diff, long delta) {
+        return delta <= 0 || delta >= diff ? 0 : Math.min(delta, diff - delta);
+    }
+
+    /**
+     * Ids of the tests of a container that didn't fail, sorted by ascending runtime
+     */
+    private static class SortedTests {
+        private final TestIndex index;
+        private int[] ids;
+        private int size;
+
+        SortedTests(TestIndex index, TestContainer container) {
+            this.index = index;
+            int[] all = container.getIds();
+            this.ids = new int[Math.max(all.length, 1)];
+            for (int id : all) {
+                if (!index.isFailed(id)) {
+                    ids[size++] = id;
+                }
+            }
+            index.sortByTimeDescending(ids, size);
+            for (int i = 0, j = size - 1; i < j; ++i, --j) {
+                int swap = ids[i];
+                ids[i] = ids[j];
+                ids[j] = swap;
+            }
+        }
+
+        /**
+         * @return position of the first test with a runtime of at least time, or size if there isn't one
+         */
+        int firstAtLeast(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (index.getTime(ids[mid]) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        void insert(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            int position = firstAtLeast(index.getTime(id));
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            ++size;
+        }
+
+        void remove(int id) {
+            for (int i = firstAtLeast(index.getTime(id)); i < size; ++i) {
+                if (ids[i] == id) {
+                    System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+                    --size;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves out from one container to another, and in the other way around
+     */
+    private static class Exchange {
+        private final int from;
+        private final int to;
+        private final int[] out;
+        private final int[] in;
+
+        /**
+         * How much the runtime of the longer of the two containers goes down
+         */
+        private final long gain;
+
+        Exchange(int from, int to, long gain, int[] out, int[] in) {
+            this.from = from;
+            this.to = to;
+            this.gain = gain;
+            this.out = out;
+            this.in = in;
+        }
+    }
+}
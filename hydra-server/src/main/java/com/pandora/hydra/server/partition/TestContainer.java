@@ -19,16 +19,19 @@ package com.pandora.hydra.server.partition;
 
 import com.pandora.hydra.server.persistence.model.TestTime;
 
-import java.util.Comparator;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
- * Represents a group of tests that will be run for a given host and a given project
+ * Represents a group of tests that will be run for a given host and a given project. Tests are kept as ids into a {@link TestIndex}
+ * that is shared with the other containers of the same project, so moving a test between containers only moves an int.
+ *
+ * The runtimes in the index are what the tests take on an average host. The container's time is what they're predicted to
+ * take on its host, see {@link #setSpeedFactor(double)}
  *
  * @author Justin Guerra
  * @since 10/24/16
@@ -38,44 +41,137 @@ public class TestContainer implements Comparable<TestContainer> {
     private final String hostName;
     private final String projectName;
 
-    private final LinkedList<TestTime> testTimes;
+    private TestIndex index;
+    private int[] ids;
+    private int size;
     private long time;
 
+    /**
+     * How much longer than an average host this container's host takes to run a test
+     */
+    private double speedFactor = 1.0;
+
+    /**
+     * When set, ids are sorted by descending runtime
+     */
     private boolean sorted;
+    private Set<String> classes;
 
     public TestContainer(String hostName, String projectName) {
-        this.testTimes = new LinkedList<>();
+        this(hostName, projectName, new TestIndex());
+    }
+
+    TestContainer(String hostName, String projectName, TestIndex index) {
         this.hostName = hostName;
         this.projectName = projectName;
+        this.index = index;
+        this.ids = new int[8];
     }
 
     void addTestTime(TestTime testTime) {
-        this.time += testTime.getTime();
-        testTimes.add(testTime);
-        sorted = false;
+        add(index.add(testTime));
     }
 
-    TestTime removeFromEnd() {
-        sortIfNeeded();
+    void add(int id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+
+        if (sorted) {
+            int position = firstNotLongerThan(index.getTime(id));
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+        } else {
+            ids[size] = id;
+        }
+
+        ++size;
+        time += getPredictedTime(id);
+        classes = null;
+    }
+
+    /**
+     * @param speedFactor how much longer than an average host the container's host takes to run a test, see {@link HostSpeedModel}
+     */
+    void setSpeedFactor(double speedFactor) {
+        this.speedFactor = speedFactor;
+        time = 0;
+        for (int i = 0; i < size; ++i) {
+            time += getPredictedTime(ids[i]);
+        }
+    }
+
+    double getSpeedFactor() {
+        return speedFactor;
+    }
+
+    /**
+     * @return how long the test is predicted to take on this container's host
+     */
+    long getPredictedTime(int id) {
+        long testTime = index.getTime(id);
+        return speedFactor == 1.0 ? testTime : Math.round(testTime * speedFactor);
+    }
+
+    boolean remove(int id) {
+        int start = sorted ? firstNotLongerThan(index.getTime(id)) : 0;
+        for (int i = start; i < size; ++i) {
+            if (ids[i] == id) {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
 
-        TestTime testTime = testTimes.pollLast();
-        time -= testTime.getTime();
-        return testTime;
+    /**
+     * @return the id of the longest running test after removing it, or -1 if the container is empty
+     */
+    int removeFromEnd() {
+        sortIfNeeded();
+        return size == 0 ? -1 : removeAt(0);
     }
 
-    TestTime getAndRemoveTestWithMaxRunTimeOf(long diff) {
+    /**
+     * @return the id of the shortest test that didn't fail, after removing it, if it runs for at most diff. Otherwise -1
+     */
+    int removeTestWithMaxRunTimeOf(long diff) {
         sortIfNeeded();
 
-        for (Iterator<TestTime> it = testTimes.iterator(); it.hasNext(); ) {
-            TestTime next = it.next();
-            if(!next.isFailed() && next.getTime() <= diff) {
-                time -= next.getTime();
-                it.remove();
-                return next;
+        for (int i = size - 1; i >= 0; --i) {
+            int id = ids[i];
+            if (!index.isFailed(id)) {
+                return getPredictedTime(id) <= diff ? removeAt(i) : -1;
             }
         }
 
-        return null;
+        return -1;
+    }
+
+    private int removeAt(int position) {
+        int id = ids[position];
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        --size;
+        time -= getPredictedTime(id);
+        classes = null;
+        return id;
+    }
+
+    /**
+     * @return the first position whose test runs for at most testTime. Only valid when sorted
+     */
+    private int firstNotLongerThan(long testTime) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index.getTime(ids[mid]) > testTime) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     private void sortIfNeeded() {
@@ -83,28 +179,71 @@ public class TestContainer implements Comparable<TestContainer> {
             return;
         }
 
-        testTimes.sort(Comparator.comparingLong(TestTime::getTime));
+        index.sortByTimeDescending(ids, size);
         sorted = true;
     }
 
+    /**
+     * Re-adds the tests of this container to another index
+     */
+    void moveTo(TestIndex newIndex) {
+        for (int i = 0; i < size; ++i) {
+            ids[i] = newIndex.add(index.get(ids[i]));
+        }
+        index = newIndex;
+    }
+
+    TestIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return a copy of the ids of the tests in this container
+     */
+    int[] getIds() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * @return the predicted runtime of the longest test in this container, or 0 if it's empty
+     */
+    long getLongestTestTime() {
+        long longest = 0;
+        for (int i = 0; i < size; ++i) {
+            longest = Math.max(longest, getPredictedTime(ids[i]));
+        }
+        return longest;
+    }
+
     @Override
     public int compareTo(TestContainer o) {
         return Long.compare(getTime(), o.getTime());
     }
 
     public Set<String> getClasses() {
-        return testTimes.stream().map(TestTime::getTestName).collect(Collectors.toCollection(LinkedHashSet::new));
+        if (classes == null) {
+            Set<String> names = new LinkedHashSet<>(size * 2);
+            for (int i = 0; i < size; ++i) {
+                names.add(index.getName(ids[i]));
+            }
+            classes = Collections.unmodifiableSet(names);
+        }
+        return classes;
     }
 
     /**
-     * @return Returns a Set of test times sorted in descending order of test run times
+     * @return a new list of the tests in this container
      */
     public List<TestTime> getTestTimes() {
+        List<TestTime> testTimes = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            testTimes.add(index.get(ids[i]));
+        }
         return testTimes;
     }
 
     public long size() {
-        return testTimes.size();
+        return size;
     }
 
     public long getTime() {
@@ -118,27 +257,6 @@ public class TestContainer implements Comparable<TestContainer> {
     @Override
     public String toString() {
         return String.format("TestContainer[hostName=%s, projectName=%s, numberTests=%d, time=%d]", hostName,
-                projectName, testTimes.size(), time);
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        TestContainer testContainer = (TestContainer) o;
-
-        if (!hostName.equals(testContainer.hostName)) return false;
-        return testTimes.equals(testContainer.testTimes);
-
+                projectName, size, time);
     }
-
-    @Override
-    public int hashCode() {
-        int result = hostName.hashCode();
-        result = 31 * result + testTimes.hashCode();
-        return result;
-    }
-
-
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.pandora.hydra.server.persistence.model.TestTime;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact, append only store of the tests being partitioned. Every test gets a dense int id when it's added, and its runtime,
+ * failure flag and last host are kept in primitive arrays indexed by that id, so partitioning and rebalancing only move ints
+ * around. Host names are interned to ints as well, so affinity lookups don't hash strings per test.
+ *
+ * Containers that exchange tests must share an index, see {@link #shared(Collection)}. Test names are only looked up again
+ * when the partitions are handed out.
+ *
+ * @since 10/16/26
+ */
+class TestIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private TestTime[] tests;
+    private long[] times;
+    private boolean[] failed;
+    private int[] hosts;
+    private int size;
+
+    private final Map<String, Integer> hostIds;
+
+    TestIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    TestIndex(int capacity) {
+        int initial = Math.max(capacity, 1);
+        this.tests = new TestTime[initial];
+        this.times = new long[initial];
+        this.failed = new boolean[initial];
+        this.hosts = new int[initial];
+        this.hostIds = new HashMap<>();
+    }
+
+    /**
+     * @return an index that every container in testContainers uses. If they don't already share one, the containers are moved
+     * over to a new index
+     */
+    static TestIndex shared(Collection<TestContainer> testContainers) {
+        TestIndex index = null;
+        boolean shared = true;
+        int total = 0;
+        for (TestContainer container : testContainers) {
+            if (index == null) {
+                index = container.getIndex();
+            } else if (index != container.getIndex()) {
+                shared = false;
+            }
+            total += container.size();
+        }
+
+        if (index != null && shared) {
+            return index;
+        }
+
+        TestIndex newIndex = new TestIndex(total);
+        testContainers.forEach(c -> c.moveTo(newIndex));
+        return newIndex;
+    }
+
+    int add(TestTime testTime) {
+        if (size == tests.length) {
+            grow();
+        }
+
+        int id = size++;
+        tests[id] = testTime;
+        times[id] = testTime.getTime();
+        failed[id] = testTime.isFailed();
+        hosts[id] = internHost(testTime.getHostName());
+        return id;
+    }
+
+    int[] addAll(Collection<TestTime> testTimes) {
+        ensureCapacity(size + testTimes.size());
+        int[] ids = new int[testTimes.size()];
+        int i = 0;
+        for (TestTime testTime : testTimes) {
+            ids[i++] = add(testTime);
+        }
+        return ids;
+    }
+
+    /**
+     * @return the interned id of hostName, or -1 if no test in the index last ran on it
+     */
+    int hostId(String hostName) {
+        Integer id = hostName == null ? null : hostIds.get(hostName);
+        return id == null ? -1 : id;
+    }
+
+    int hostCount() {
+        return hostIds.size();
+    }
+
+    TestTime get(int id) {
+        return tests[id];
+    }
+
+    String getName(int id) {
+        return tests[id].getTestName();
+    }
+
+    long getTime(int id) {
+        return times[id];
+    }
+
+    boolean isFailed(int id) {
+        return failed[id];
+    }
+
+    /**
+     * @return the interned id of the host the test last ran on, or -1 if it isn't known
+     */
+    int getHost(int id) {
+        return hosts[id];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Sorts the first length ids by descending runtime. The sort is stable, so tests with the same runtime keep their order
+     */
+    void sortByTimeDescending(int[] ids, int length) {
+        if (length < 2) {
+            return;
+        }
+
+        int[] source = ids;
+        int[] target = new int[length];
+        for (int width = 1; width < length; width *= 2) {
+            for (int low = 0; low < length; low += 2 * width) {
+                int mid = Math.min(low + width, length);
+                int high = Math.min(low + 2 * width, length);
+                int left = low;
+                int right = mid;
+                for (int out = low; out < high; ++out) {
+                    if (left < mid && (right >= high || times[source[left]] >= times[source[right]])) {
+                        target[out] = source[left++];
+                    } else {
+                        target[out] = source[right++];
+                    }
+                }
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+
+        if (source != ids) {
+            System.arraycopy(source, 0, ids, 0, length);
+        }
+    }
+
+    private int internHost(String hostName) {
+        if (hostName == null) {
+            return -1;
+        }
+        return hostIds.computeIfAbsent(hostName, h -> hostIds.size());
+    }
+
+    private void grow() {
+        ensureCapacity(tests.length * 2);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= tests.length) {
+            return;
+        }
+
+        tests = Arrays.copyOf(tests, capacity);
+        times = Arrays.copyOf(times, capacity);
+        failed = Arrays.copyOf(failed, capacity);
+        hosts = Arrays.copyOf(hosts, capacity);
+    }
+}
@@ -17,28 +17,147 @@
 
 package com.pandora.hydra.server.partition;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Sets;
+import com.google.gson.reflect.TypeToken;
+import com.pandora.hydra.common.HostAssignment;
+import com.pandora.hydra.common.TestIncludes;
+import com.pandora.hydra.server.persistence.model.TestTime;
 
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
- * Contains all partitions for a test run
+ * Contains all partitions for a test run. The tests each host should run, per host and per host and project, are worked out once
+ * when the test run is created, so the many requests for the same run don't need to walk every partition again.
+ *
+ * Only the inclusions are copied. Every host excludes nearly every test, so the exclusions are immutable views of all tests
+ * minus the host's inclusions, which keeps the memory of a run at O(tests) rather than O(hosts * tests).
+ *
+ * If a host dies during the run, the tests it was given are split between the hosts that are still running, see
+ * {@link #recoverDeadHost(String, Collection)}. The original partitions don't change, the recovered tests are handed out
+ * separately so hosts that already fetched their tests only need to fetch the difference.
+ *
+ * Hosts report the tests they finish as they go. A host that runs out of tests can be given copies of the longest unfinished
+ * tests of the host that has the most left to do, see {@link #speculate(String, String, int)}. Whichever host finishes a test
+ * first wins, and the other host's result is dropped, see {@link #reportCompleted(String, String, Collection)}.
  *
  * @author Justin Guerra
  * @since 4/19/18
  */
 public class TestRun {
 
+    private static final Type TEST_SET_TYPE = new TypeToken<Set<String>>() {}.getType();
+
     private final Set<Partition> partitions;
+    private final Set<String> partitionNames;
+    private final Map<String, Partition> partitionsByHost;
+
+    private final Set<String> allTests;
+    private final Map<String, Set<String>> allTestsByProject;
+
+    private final Map<String, Set<String>> includesByHost;
+    private final Map<String, Set<String>> excludesByHost;
+    private final ImmutableTable<String, String, Set<String>> includesByHostAndProject;
+    private final ImmutableTable<String, String, Set<String>> excludesByHostAndProject;
+
+    private final ConcurrentMap<String, Set<Set<String>>> threadGroupings;
+    private final ConcurrentMap<String, EncodedResponse<Set<String>>> encodedExcludes;
+    private final ConcurrentMap<String, EncodedResponse<TestIncludes>> encodedIncludes;
+    private volatile Map<String, Set<String>> reassignedByHost;
+    private final ConcurrentMap<String, Map<String, Set<String>>> reassignedByProject;
+
+    /**
+     * Hosts reported dead. Guarded by this
+     */
+    private final Set<String> deadHosts;
+
+    /**
+     * Tests of dead hosts given to each surviving host, by host and project. Guarded by this
+     */
+    private final Map<String, Map<String, List<TestTime>>> recoveredTestTimes;
+
+    /**
+     * Names of the tests in recoveredTestTimes, by host and project and by host. Only replaced as a whole so that readers
+     * don't need to lock
+     */
+    private volatile ImmutableTable<String, String, Set<String>> recoveredByHostAndProject;
+    private volatile Map<String, Set<String>> recoveredByHost;
+
+    private final RunProgress progress;
 
     public TestRun(Collection<Partition> partitions) {
         this.partitions = ImmutableSet.copyOf(partitions);
+
+        ImmutableMap.Builder<String, Partition> byHost = ImmutableMap.builder();
+        ImmutableSet.Builder<String> all = ImmutableSet.builder();
+        ImmutableMap.Builder<String, Set<String>> includes = ImmutableMap.builder();
+        ImmutableTable.Builder<String, String, Set<String>> projectIncludes = ImmutableTable.builder();
+        Map<String, ImmutableSet.Builder<String>> byProject = new HashMap<>();
+
+        for (Partition partition : this.partitions) {
+            byHost.put(partition.getHostName(), partition);
+
+            ImmutableSet.Builder<String> hostIncludes = ImmutableSet.builder();
+            for (String project : partition.getAllProjectNames()) {
+                Set<String> tests = ImmutableSet.copyOf(partition.getAllTestNames(project));
+                projectIncludes.put(partition.getHostName(), project, tests);
+                hostIncludes.addAll(tests);
+                byProject.computeIfAbsent(project, p -> ImmutableSet.builder()).addAll(tests);
+                all.addAll(tests);
+            }
+            includes.put(partition.getHostName(), hostIncludes.build());
+        }
+
+        this.partitionsByHost = byHost.build();
+        this.partitionNames = partitionsByHost.keySet();
+        this.allTests = all.build();
+        this.includesByHost = includes.build();
+        this.includesByHostAndProject = projectIncludes.build();
+
+        ImmutableMap.Builder<String, Set<String>> projectTests = ImmutableMap.builder();
+        byProject.forEach((project, tests) -> projectTests.put(project, tests.build()));
+        this.allTestsByProject = projectTests.build();
+
+        ImmutableMap.Builder<String, Set<String>> excludes = ImmutableMap.builder();
+        includesByHost.forEach((host, tests) -> excludes.put(host, difference(allTests, tests)));
+        this.excludesByHost = excludes.build();
+
+        ImmutableTable.Builder<String, String, Set<String>> projectExcludes = ImmutableTable.builder();
+        includesByHostAndProject.cellSet().forEach(cell -> projectExcludes.put(cell.getRowKey(), cell.getColumnKey(),
+                difference(allTestsByProject.get(cell.getColumnKey()), cell.getValue())));
+        this.excludesByHostAndProject = projectExcludes.build();
+
+        this.threadGroupings = new ConcurrentHashMap<>();
+        this.encodedExcludes = new ConcurrentHashMap<>();
+        this.encodedIncludes = new ConcurrentHashMap<>();
+        this.reassignedByProject = new ConcurrentHashMap<>();
+        this.deadHosts = new HashSet<>();
+        this.recoveredTestTimes = new HashMap<>();
+        this.recoveredByHostAndProject = ImmutableTable.of();
+        this.recoveredByHost = Collections.emptyMap();
+        this.progress = new RunProgress();
     }
 
     public Set<String> getPartitionNames() {
-        return partitions.stream().map(Partition::getHostName).collect(Collectors.toSet());
+        return partitionNames;
     }
 
     public Set<Partition> getPartitions() {
@@ -46,7 +165,314 @@ public class TestRun {
     }
 
     public Partition getPartitionByName(String partitionName) {
-        return partitions.stream().filter(p -> p.getHostName().equals(partitionName))
-                .findFirst().orElseThrow(() -> new IllegalArgumentException("No partition with name " + partitionName));
+        Partition partition = partitionsByHost.get(partitionName);
+        if (partition == null) {
+            throw new IllegalArgumentException("No partition with name " + partitionName);
+        }
+        return partition;
+    }
+
+    /**
+     * @return every test that host should run, across all projects
+     */
+    public Set<String> getIncludes(String host) {
+        return includesByHost.getOrDefault(host, Collections.emptySet());
+    }
+
+    /**
+     * @return every test in project that host should run
+     */
+    public Set<String> getIncludes(String host, String project) {
+        Set<String> includes = includesByHostAndProject.get(host, project);
+        return includes == null ? Collections.emptySet() : includes;
+    }
+
+    /**
+     * @return every test that is run by a host other than host, across all projects
+     */
+    public Set<String> getExcludes(String host) {
+        return excludesByHost.getOrDefault(host, allTests);
+    }
+
+    /**
+     * @return every test in project that is run by a host other than host
+     */
+    public Set<String> getExcludes(String host, String project) {
+        Set<String> excludes = excludesByHostAndProject.get(host, project);
+        if (excludes != null) {
+            return excludes;
+        }
+        return allTestsByProject.getOrDefault(project, Collections.emptySet());
+    }
+
+    /**
+     * @return {@link #getExcludes(String)} along with its cached encodings
+     */
+    public EncodedResponse<Set<String>> getEncodedExcludes(String host) {
+        return encodedExcludes.computeIfAbsent(host, h -> new EncodedResponse<>(getExcludes(h), TEST_SET_TYPE));
+    }
+
+    /**
+     * @return {@link #getExcludes(String, String)} along with its cached encodings
+     */
+    public EncodedResponse<Set<String>> getEncodedExcludes(String host, String project) {
+        // '/' can't appear in a host or project name because they're path variables
+        return encodedExcludes.computeIfAbsent(host + '/' + project, k -> new EncodedResponse<>(getExcludes(host, project), TEST_SET_TYPE));
+    }
+
+    /**
+     * @return the tests host should run across all projects, along with the tests {@link HostAssignment} maps to host that
+     * were assigned to another host
+     */
+    public EncodedResponse<TestIncludes> getEncodedIncludes(String host) {
+        return encodedIncludes.computeIfAbsent(host, h -> new EncodedResponse<>(
+                newTestIncludes(h, getIncludes(h), getReassignedByHost()), TestIncludes.class));
+    }
+
+    /**
+     * @return the tests in project host should run, along with the tests in project {@link HostAssignment} maps to host that
+     * were assigned to another host
+     */
+    public EncodedResponse<TestIncludes> getEncodedIncludes(String host, String project) {
+        return encodedIncludes.computeIfAbsent(host + '/' + project, k -> {
+            Map<String, Set<String>> reassigned = reassignedByProject.computeIfAbsent(project,
+                    p -> reassign(allTestsByProject.getOrDefault(p, Collections.emptySet()), h -> getIncludes(h, p)));
+            return new EncodedResponse<>(newTestIncludes(host, getIncludes(host, project), reassigned), TestIncludes.class);
+        });
+    }
+
+    /**
+     * Splits the tests host was given between the hosts that haven't died, the same way a project's tests are split between
+     * hosts. Each project is split separately, and the tests other hosts already have count towards their load. The tests
+     * of a host that dies after being given recovered tests include those. Reporting the same host twice does nothing
+     *
+     * @param completedTests tests the dead host finished before it died, they aren't run again. Neither are tests any host
+     * already reported finished, see {@link #reportCompleted(String, String, Collection)}
+     * @return the recovered tests by the host that will now run them
+     */
+    synchronized Map<String, Set<String>> recoverDeadHost(String host, Collection<String> completedTests) {
+        Partition deadPartition = getPartitionByName(host);
+        if (deadHosts.contains(host)) {
+            return Collections.emptyMap();
+        }
+
+        List<String> survivors = partitionNames.stream()
+                .filter(name -> !name.equals(host) && !deadHosts.contains(name))
+                .collect(Collectors.toList());
+        if (survivors.isEmpty()) {
+            throw new IllegalStateException("No hosts are left to run the tests of " + host);
+        }
+        deadHosts.add(host);
+
+        Set<String> completed = new HashSet<>(completedTests);
+        Map<String, Set<String>> recovered = new HashMap<>();
+        Set<String> projects = new LinkedHashSet<>(deadPartition.getAllProjectNames());
+        projects.addAll(recoveredTestTimes.getOrDefault(host, Collections.emptyMap()).keySet());
+        for (String project : projects) {
+            List<TestTime> orphans = getAssignedTests(host, project).stream()
+                    .filter(testTime -> !completed.contains(testTime.getTestName()))
+                    .filter(testTime -> !progress.isCompleted(project, testTime.getTestName()))
+                    .collect(Collectors.toList());
+            if (orphans.isEmpty()) {
+                continue;
+            }
+
+            Set<TestContainer> containers = new HashSet<>();
+            for (String survivor : survivors) {
+                TestContainer container = new TestContainer(survivor, project);
+                container.setSpeedFactor(getSpeedFactor(survivor, project));
+                getAssignedTests(survivor, project).forEach(container::addTestTime);
+                containers.add(container);
+            }
+
+            Set<String> orphanNames = orphans.stream().map(TestTime::getTestName).collect(Collectors.toSet());
+            PartitionUtil.greedyPartition(orphans, containers);
+
+            for (TestContainer container : containers) {
+                List<TestTime> given = container.getTestTimes().stream()
+                        .filter(testTime -> orphanNames.contains(testTime.getTestName()))
+                        .collect(Collectors.toList());
+                if (!given.isEmpty()) {
+                    recoveredTestTimes.computeIfAbsent(container.getHostName(), h -> new HashMap<>())
+                            .computeIfAbsent(project, p -> new ArrayList<>())
+                            .addAll(given);
+                    given.forEach(testTime -> recovered.computeIfAbsent(container.getHostName(), h -> new HashSet<>())
+                            .add(testTime.getTestName()));
+                }
+            }
+        }
+
+        publishRecoveredTests();
+        return recovered;
+    }
+
+    /**
+     * @return the tests of dead hosts that host should run on top of its own, across all projects
+     */
+    public Set<String> getRecoveredTests(String host) {
+        return recoveredByHost.getOrDefault(host, Collections.emptySet());
+    }
+
+    /**
+     * @return the tests in project of dead hosts that host should run on top of its own
+     */
+    public Set<String> getRecoveredTests(String host, String project) {
+        Set<String> recovered = recoveredByHostAndProject.get(host, project);
+        return recovered == null ? Collections.emptySet() : recovered;
+    }
+
+    /**
+     * Records that host finished tests. A test only counts for the first host that reports it
+     *
+     * @return the tests host finished first. Results of the other tests were already reported by another host
+     */
+    public Set<String> reportCompleted(String host, String project, Collection<String> tests) {
+        Set<String> won = new LinkedHashSet<>(tests.size() * 2);
+        for (String test : tests) {
+            if (progress.complete(project, test, host)) {
+                won.add(test);
+            }
+        }
+        return won;
+    }
+
+    public int getCompletedCount(String project) {
+        return progress.completedCount(project);
+    }
+
+    /**
+     * Gives an idle host copies of the longest unfinished tests in project of the host with the most predicted time left.
+     * A test is only copied if the idle host is predicted to finish it, along with the copies before it, before that host
+     * finishes the rest of its tests, and each test is copied at most once. Both hosts run the test, and the first to
+     * report it wins
+     *
+     * @param maxTests the most tests to copy
+     * @return the tests the idle host should run, longest first. Empty if no host is far enough behind
+     */
+    synchronized List<String> speculate(String idleHost, String project, int maxTests) {
+        getPartitionByName(idleHost);
+
+        String slowest = null;
+        long slowestRemaining = 0;
+        for (String host : partitionNames) {
+            if (host.equals(idleHost) || deadHosts.contains(host)) {
+                continue;
+            }
+
+            double speedFactor = getSpeedFactor(host, project);
+            long remaining = 0;
+            for (TestTime testTime : getAssignedTests(host, project)) {
+                if (!progress.isCompleted(project, testTime.getTestName())) {
+                    remaining += Math.round(testTime.getTime() * speedFactor);
+                }
+            }
+            if (remaining > slowestRemaining) {
+                slowest = host;
+                slowestRemaining = remaining;
+            }
+        }
+
+        if (slowest == null) {
+            return Collections.emptyList();
+        }
+
+        List<TestTime> candidates = getAssignedTests(slowest, project).stream()
+                .filter(testTime -> !progress.isCompleted(project, testTime.getTestName()))
+                .filter(testTime -> !progress.isSpeculated(project, testTime.getTestName()))
+                .sorted(Comparator.comparingLong(TestTime::getTime).reversed())
+                .collect(Collectors.toList());
+
+        double idleSpeedFactor = getSpeedFactor(idleHost, project);
+        List<String> copies = new ArrayList<>();
+        long idleTime = 0;
+        for (TestTime candidate : candidates) {
+            if (copies.size() >= maxTests) {
+                break;
+            }
+
+            long predicted = Math.round(candidate.getTime() * idleSpeedFactor);
+            if (idleTime + predicted < slowestRemaining && progress.markSpeculated(project, candidate.getTestName())) {
+                copies.add(candidate.getTestName());
+                idleTime += predicted;
+            }
+        }
+        return copies;
+    }
+
+    private double getSpeedFactor(String host, String project) {
+        Partition partition = partitionsByHost.get(host);
+        return partition.getAllProjectNames().contains(project)
+                ? partition.getTestContainerForProject(project).getSpeedFactor()
+                : 1.0;
+    }
+
+    private List<TestTime> getAssignedTests(String host, String project) {
+        List<TestTime> assigned = new ArrayList<>();
+        Partition partition = partitionsByHost.get(host);
+        if (partition.getAllProjectNames().contains(project)) {
+            assigned.addAll(partition.getTestContainerForProject(project).getTestTimes());
+        }
+        assigned.addAll(recoveredTestTimes.getOrDefault(host, Collections.emptyMap()).getOrDefault(project, Collections.emptyList()));
+        return assigned;
+    }
+
+    private void publishRecoveredTests() {
+        ImmutableTable.Builder<String, String, Set<String>> byHostAndProject = ImmutableTable.builder();
+        ImmutableMap.Builder<String, Set<String>> byHost = ImmutableMap.builder();
+        recoveredTestTimes.forEach((host, projects) -> {
+            ImmutableSet.Builder<String> hostTests = ImmutableSet.builder();
+            projects.forEach((project, testTimes) -> {
+                Set<String> names = ImmutableSet.copyOf(testTimes.stream().map(TestTime::getTestName).iterator());
+                byHostAndProject.put(host, project, names);
+                hostTests.addAll(names);
+            });
+            byHost.put(host, hostTests.build());
+        });
+        this.recoveredByHostAndProject = byHostAndProject.build();
+        this.recoveredByHost = byHost.build();
+    }
+
+    private Map<String, Set<String>> getReassignedByHost() {
+        if (reassignedByHost == null) {
+            synchronized (this) {
+                if (reassignedByHost == null) {
+                    reassignedByHost = reassign(allTests, this::getIncludes);
+                }
+            }
+        }
+        return reassignedByHost;
+    }
+
+    private TestIncludes newTestIncludes(String host, Set<String> includes, Map<String, Set<String>> reassigned) {
+        return new TestIncludes(includes, reassigned.getOrDefault(host, Collections.emptySet()), host, ImmutableList.copyOf(partitionNames));
+    }
+
+    /**
+     * Groups the tests that were not assigned to the host {@link HostAssignment} maps them to, by that host. This hashes
+     * every test against every host, so it's only done once per run and project
+     */
+    private Map<String, Set<String>> reassign(Set<String> tests, Function<String, Set<String>> includes) {
+        Map<String, ImmutableSet.Builder<String>> reassigned = new HashMap<>();
+        for (String test : tests) {
+            String owner = HostAssignment.ownerOf(test, partitionNames);
+            if (owner != null && !includes.apply(owner).contains(test)) {
+                reassigned.computeIfAbsent(owner, o -> ImmutableSet.builder()).add(test);
+            }
+        }
+
+        ImmutableMap.Builder<String, Set<String>> byHost = ImmutableMap.builder();
+        reassigned.forEach((host, builder) -> byHost.put(host, builder.build()));
+        return byHost.build();
+    }
+
+    /**
+     * @return the thread grouping of host's tests for numThreads threads, computing it the first time it's asked for
+     */
+    Set<Set<String>> getThreadGrouping(String host, int numThreads, Supplier<Set<Set<String>>> grouping) {
+        return threadGroupings.computeIfAbsent(host + ':' + numThreads, key -> grouping.get());
+    }
+
+    private static Set<String> difference(Set<String> all, Set<String> includes) {
+        return Collections.unmodifiableSet(Sets.difference(all, includes));
     }
 }
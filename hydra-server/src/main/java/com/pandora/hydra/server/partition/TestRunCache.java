@@ -25,6 +25,7 @@ import org.apache.log4j.Logger;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Maintains a cache of partitions for a short amount of time. This is to ensure that for a given test run
@@ -37,18 +38,36 @@ public class TestRunCache {
     private static final Logger LOG = Logger.getLogger(TestRunCache.class);
 
     private final Cache<String, TestRun> cache;
+    private final Cache<String, WorkQueue> workQueueCache;
 
     public TestRunCache(long ttl, TimeUnit timeUnit) {
         this.cache = CacheBuilder.newBuilder().expireAfterAccess(ttl, timeUnit).build();
+        this.workQueueCache = CacheBuilder.newBuilder().expireAfterAccess(ttl, timeUnit).build();
     }
 
     public Optional<TestRun> getCachedTestRun(PartitionRequest request) {
+        return getIfHostsMatch(cache, request, TestRun::getPartitionNames);
+    }
+
+    public void cacheTestRun(PartitionRequest request, TestRun toCache) {
+        cache.put(getCacheKey(request), toCache);
+    }
+
+    public Optional<WorkQueue> getCachedWorkQueue(PartitionRequest request) {
+        return getIfHostsMatch(workQueueCache, request, WorkQueue::getHostNames);
+    }
+
+    public void cacheWorkQueue(PartitionRequest request, WorkQueue toCache) {
+        workQueueCache.put(getCacheKey(request), toCache);
+    }
+
+    private <T> Optional<T> getIfHostsMatch(Cache<String, T> cache, PartitionRequest request, Function<T, Set<String>> hostExtractor) {
         String cacheKey = getCacheKey(request);
-        TestRun testRun = cache.getIfPresent(cacheKey);
-        if (testRun == null) {
+        T cached = cache.getIfPresent(cacheKey);
+        if (cached == null) {
             return Optional.empty();
         } else {
-            Set<String> partitionNames = testRun.getPartitionNames();
+            Set<String> partitionNames = hostExtractor.apply(cached);
             Set<String> hostList = request.getHostList();
 
             if(!partitionNames.equals(hostList)) {
@@ -57,14 +76,10 @@ public class TestRunCache {
                 return Optional.empty();
             }
 
-            return Optional.of(testRun);
+            return Optional.of(cached);
         }
     }
 
-    public void cacheTestRun(PartitionRequest request, TestRun toCache) {
-        cache.put(getCacheKey(request), toCache);
-    }
-
     String getCacheKey(PartitionRequest request) {
         if(StringUtils.isEmpty(request.getBuildTag())) {
             LOG.debug("No build tag included in request. Falling back on build name");
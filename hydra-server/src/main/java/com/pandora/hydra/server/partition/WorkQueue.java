@@ -0,0 +1,256 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableSet;
+import com.pandora.hydra.common.HostAssignment;
+import com.pandora.hydra.common.TestLease;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.apache.log4j.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * A pull based alternative to a {@link TestRun}. Instead of handing each host a fixed partition up front, tests are kept
+ * in a per project queue ordered longest first, and hosts lease the next batch of tests whenever they have spare capacity.
+ * A host that finishes early keeps pulling work instead of sitting idle while a slower host works through its tail.
+ *
+ * Batches shrink as the queue drains (guided self-scheduling) so the last few tests are spread across as many hosts as possible.
+ *
+ * Hosts report the tests they finished when they lease the next batch. A lease that isn't reported finished within the
+ * lease timeout plus the predicted runtime of the test expires, and the test is handed out again on the next lease, so
+ * the tests of a host that dies or stalls still run. A project is only drained once no leases are outstanding.
+ *
+ * @since 10/16/26
+ */
+public class WorkQueue {
+
+    private static final Logger LOG = Logger.getLogger(WorkQueue.class);
+
+    static final Duration DEFAULT_LEASE_TIMEOUT = Duration.ofMinutes(10);
+
+    private final Set<String> hostNames;
+    private final Map<String, ProjectQueue> projectQueues;
+    private final long leaseTimeoutMillis;
+    private final Clock clock;
+
+    public WorkQueue(Set<String> hostNames, Map<String, Collection<TestTime>> projectToTestTimes) {
+        this(hostNames, projectToTestTimes, DEFAULT_LEASE_TIMEOUT, Clock.systemUTC());
+    }
+
+    /**
+     * @param leaseTimeout how long a host has to report a leased test finished, on top of the test's predicted runtime
+     */
+    WorkQueue(Set<String> hostNames, Map<String, Collection<TestTime>> projectToTestTimes, Duration leaseTimeout, Clock clock) {
+        this.hostNames = ImmutableSet.copyOf(hostNames);
+        this.projectQueues = new ConcurrentHashMap<>();
+        this.leaseTimeoutMillis = leaseTimeout.toMillis();
+        this.clock = clock;
+        projectToTestTimes.forEach((project, testTimes) -> projectQueues.put(project, new ProjectQueue(project, testTimes)));
+    }
+
+    public TestLease lease(String project, String host, int maxBatchSize, Collection<String> candidates) {
+        return lease(project, host, maxBatchSize, candidates, Collections.emptyList());
+    }
+
+    /**
+     * Leases up to maxBatchSize tests to host. If candidates are included, any that the queue has never seen are split
+     * between the hosts of the run with {@link HostAssignment} and host's share is returned as new tests. Expired leases
+     * are handed out before the rest of the queue
+     *
+     * @param project - the project to lease tests from
+     * @param host - the host requesting work
+     * @param maxBatchSize - the maximum number of tests to lease
+     * @param candidates - test classes available on host, may be empty
+     * @param completed - tests host finished since its last lease, may be empty
+     * @return the leased tests. An empty lease with no outstanding tests indicates the project has no more work
+     */
+    public TestLease lease(String project, String host, int maxBatchSize, Collection<String> candidates, Collection<String> completed) {
+        ProjectQueue queue = projectQueues.computeIfAbsent(project, p -> new ProjectQueue(p, Collections.emptyList()));
+        long now = clock.millis();
+
+        queue.complete(completed);
+        List<String> newTests = queue.claimUnknown(candidates, host, now);
+        List<String> tests = queue.poll(host, maxBatchSize, now);
+        return new TestLease(tests, newTests, queue.outstanding());
+    }
+
+    Set<String> getHostNames() {
+        return hostNames;
+    }
+
+    int remaining(String project) {
+        ProjectQueue queue = projectQueues.get(project);
+        return queue != null ? queue.remaining() : 0;
+    }
+
+    int outstanding(String project) {
+        ProjectQueue queue = projectQueues.get(project);
+        return queue != null ? queue.outstanding() : 0;
+    }
+
+    private class ProjectQueue {
+
+        private final String project;
+        private final Deque<String> pending;
+        private final Map<String, Long> times;
+        private final Set<String> known;
+
+        /**
+         * Tests that were leased and not reported finished yet, with the time their lease expires
+         */
+        private final Map<String, Lease> leases;
+
+        /**
+         * Tests whose lease expired that are back in pending
+         */
+        private final Set<String> requeued;
+
+        /**
+         * New tests another host sent as candidates that their owner hasn't claimed yet, with the time they're queued for
+         * any host
+         */
+        private final Map<String, Long> unclaimed;
+
+        ProjectQueue(String project, Collection<TestTime> testTimes) {
+            this.project = project;
+            this.times = new HashMap<>();
+            testTimes.forEach(testTime -> times.put(testTime.getTestName(), testTime.getTime()));
+            this.pending = testTimes.stream()
+                    .sorted(Comparator.comparingLong(TestTime::getTime).reversed())
+                    .map(TestTime::getTestName)
+                    .collect(Collectors.toCollection(ArrayDeque::new));
+            this.known = new HashSet<>(pending);
+            this.leases = new HashMap<>();
+            this.requeued = new HashSet<>();
+            this.unclaimed = new HashMap<>();
+        }
+
+        synchronized List<String> poll(String host, int maxBatchSize, long now) {
+            requeueExpired(now);
+
+            int guidedSize = Math.max(1, pending.size() / Math.max(1, hostNames.size()));
+            int batchSize = Math.min(Math.max(1, maxBatchSize), guidedSize);
+
+            List<String> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && !pending.isEmpty()) {
+                String test = pending.poll();
+                requeued.remove(test);
+                leases.put(test, new Lease(host, now + leaseTimeoutMillis + times.getOrDefault(test, 0L)));
+                batch.add(test);
+            }
+            return batch;
+        }
+
+        /**
+         * @return the candidates the queue has never seen that host should run. They're leased to host like any other test.
+         * Candidates another host owns wait for their owner, and are queued for any host if the owner hasn't claimed them
+         * within the lease timeout
+         */
+        synchronized List<String> claimUnknown(Collection<String> candidates, String host, long now) {
+            List<String> claimed = new ArrayList<>();
+            for (String candidate : new HashSet<>(candidates)) {
+                boolean unknown = known.add(candidate);
+                if (!unknown && !unclaimed.containsKey(candidate)) {
+                    continue;
+                }
+
+                if (HostAssignment.isOwner(candidate, host, hostNames)) {
+                    unclaimed.remove(candidate);
+                    leases.put(candidate, new Lease(host, now + leaseTimeoutMillis));
+                    claimed.add(candidate);
+                } else if (unknown) {
+                    unclaimed.put(candidate, now + leaseTimeoutMillis);
+                }
+            }
+            return claimed;
+        }
+
+        /**
+         * A test counts as finished whichever host finishes it, so a test whose lease expired is not run again
+         */
+        synchronized void complete(Collection<String> tests) {
+            for (String test : tests) {
+                leases.remove(test);
+                unclaimed.remove(test);
+                if (requeued.remove(test)) {
+                    pending.remove(test);
+                }
+            }
+        }
+
+        private void requeueExpired(long now) {
+            List<String> expired = leases.entrySet().stream()
+                    .filter(lease -> lease.getValue().deadline < now)
+                    .map(Map.Entry::getKey)
+                    .sorted(Comparator.comparingLong((String test) -> times.getOrDefault(test, 0L)))
+                    .collect(Collectors.toList());
+
+            for (String test : expired) {
+                LOG.info(String.format("Lease of %s on %s for project %s expired, leasing it again", test,
+                        leases.remove(test).host, project));
+                pending.addFirst(test);
+                requeued.add(test);
+            }
+
+            Iterator<Map.Entry<String, Long>> waiting = unclaimed.entrySet().iterator();
+            while (waiting.hasNext()) {
+                Map.Entry<String, Long> test = waiting.next();
+                if (test.getValue() < now) {
+                    LOG.info(String.format("Owner of new test %s for project %s never claimed it, leasing it to any host",
+                            test.getKey(), project));
+                    pending.addLast(test.getKey());
+                    waiting.remove();
+                }
+            }
+        }
+
+        synchronized int remaining() {
+            return pending.size();
+        }
+
+        synchronized int outstanding() {
+            return pending.size() + leases.size() + unclaimed.size();
+        }
+    }
+
+    private static class Lease {
+        private final String host;
+        private final long deadline;
+
+        Lease(String host, long deadline) {
+            this.host = host;
+            this.deadline = deadline;
+        }
+    }
+}
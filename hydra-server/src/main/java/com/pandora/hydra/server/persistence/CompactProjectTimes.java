@@ -0,0 +1,300 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.pandora.hydra.server.persistence.model.TestTime;
+
+import java.sql.Timestamp;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Stores the test times of a project in columns rather than as {@link TestTime} entities: an interned test name, the
+ * time, the last updated time in epoch millis, a host id, a failed bit and the history with its host ids per test. Tests are found through an open
+ * addressing index of row numbers, so there is no per test map entry either. {@link TestTime}s are only created while
+ * a snapshot is iterated.
+ *
+ * Snapshots share the columns with the store. The first write after a snapshot copies the columns, so a snapshot never
+ * changes
+ *
+ * @since 10/16/26
+ */
+class CompactProjectTimes implements ProjectTimes {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final TestTimeDictionary dictionary;
+
+    private int size;
+    private String[] names = new String[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private long[] lastUpdated = new long[INITIAL_CAPACITY];
+    private int[] hosts = new int[INITIAL_CAPACITY];
+    private BitSet failed = new BitSet();
+
+    /**
+     * The arrays are never modified, so they're shared with snapshots without being copied
+     */
+    private long[][] histories = new long[INITIAL_CAPACITY][];
+    private int[][] historyHosts = new int[INITIAL_CAPACITY][];
+
+    /**
+     * row + 1 of the test whose name hashes to the slot, 0 if the slot is empty. Kept at most half full
+     */
+    private int[] index = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * Set when a snapshot shares the columns
+     */
+    private boolean shared;
+
+    CompactProjectTimes(TestTimeDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void put(TestTime testTime) {
+        unshare();
+
+        int row = find(testTime.getTestName());
+        if (row < 0) {
+            row = size;
+            ensureCapacity(size + 1);
+            size++;
+            names[row] = dictionary.internTestName(testTime.getTestName());
+            if (size * 2 > index.length) {
+                rebuildIndex(index.length * 2);
+            } else {
+                addToIndex(row);
+            }
+        } else {
+            names[row] = dictionary.internTestName(testTime.getTestName());
+        }
+
+        times[row] = testTime.getTime();
+        lastUpdated[row] = testTime.getLastUpdated() != null ? testTime.getLastUpdated().getTime() : NO_TIMESTAMP;
+        hosts[row] = dictionary.getHostId(testTime.getHostName());
+        failed.set(row, testTime.isFailed());
+        if (testTime.getHistory().length > 0) {
+            histories[row] = testTime.getHistory();
+            historyHosts[row] = Arrays.stream(testTime.getHistoryHosts()).mapToInt(dictionary::getHostId).toArray();
+        } else {
+            histories[row] = null;
+            historyHosts[row] = null;
+        }
+    }
+
+    @Override
+    public TestTime get(String testName) {
+        int row = find(testName);
+        return row >= 0 ? new Snapshot(this).get(row) : null;
+    }
+
+    @Override
+    public void removeAll(Collection<TestTime> testTimes) {
+        BitSet removed = new BitSet(size);
+        for (TestTime testTime : testTimes) {
+            int row = find(testTime.getTestName());
+            if (row >= 0) {
+                removed.set(row);
+            }
+        }
+
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        unshare();
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (removed.get(row)) {
+                continue;
+            }
+
+            names[kept] = names[row];
+            times[kept] = times[row];
+            lastUpdated[kept] = lastUpdated[row];
+            hosts[kept] = hosts[row];
+            failed.set(kept, failed.get(row));
+            histories[kept] = histories[row];
+            historyHosts[kept] = historyHosts[row];
+            kept++;
+        }
+
+        Arrays.fill(names, kept, size, null);
+        Arrays.fill(histories, kept, size, null);
+        Arrays.fill(historyHosts, kept, size, null);
+        failed.clear(kept, size);
+        size = kept;
+        rebuildIndex(index.length);
+    }
+
+    @Override
+    public Collection<TestTime> snapshot() {
+        shared = true;
+        return new Snapshot(this);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int find(String testName) {
+        int mask = index.length - 1;
+        for (int slot = keyHash(testName) & mask; ; slot = (slot + 1) & mask) {
+            int entry = index[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (sameKey(names[entry - 1], testName)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void addToIndex(int row) {
+        int mask = index.length - 1;
+        int slot = keyHash(names[row]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = row + 1;
+    }
+
+    private void rebuildIndex(int capacity) {
+        index = new int[capacity];
+        for (int row = 0; row < size; row++) {
+            addToIndex(row);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= names.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, names.length * 2);
+        names = Arrays.copyOf(names, newCapacity);
+        times = Arrays.copyOf(times, newCapacity);
+        lastUpdated = Arrays.copyOf(lastUpdated, newCapacity);
+        hosts = Arrays.copyOf(hosts, newCapacity);
+        histories = Arrays.copyOf(histories, newCapacity);
+        historyHosts = Arrays.copyOf(historyHosts, newCapacity);
+    }
+
+    private void unshare() {
+        if (!shared) {
+            return;
+        }
+
+        names = names.clone();
+        times = times.clone();
+        lastUpdated = lastUpdated.clone();
+        hosts = hosts.clone();
+        failed = (BitSet) failed.clone();
+        histories = histories.clone();
+        historyHosts = historyHosts.clone();
+        shared = false;
+    }
+
+    private static int keyLength(String testName) {
+        return testName.endsWith(CLASS_SUFFIX) ? testName.length() - CLASS_SUFFIX.length() : testName.length();
+    }
+
+    /**
+     * Hash of the test name without the .class suffix, computed without creating a new string
+     */
+    private static int keyHash(String testName) {
+        int length = keyLength(testName);
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + testName.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sameKey(String a, String b) {
+        int length = keyLength(a);
+        return length == keyLength(b) && a.regionMatches(0, b, 0, length);
+    }
+
+    private static class Snapshot extends AbstractCollection<TestTime> {
+        private final TestTimeDictionary dictionary;
+        private final int size;
+        private final String[] names;
+        private final long[] times;
+        private final long[] lastUpdated;
+        private final int[] hosts;
+        private final BitSet failed;
+        private final long[][] histories;
+        private final int[][] historyHosts;
+
+        Snapshot(CompactProjectTimes source) {
+            this.dictionary = source.dictionary;
+            this.size = source.size;
+            this.names = source.names;
+            this.times = source.times;
+            this.lastUpdated = source.lastUpdated;
+            this.hosts = source.hosts;
+            this.failed = source.failed;
+            this.histories = source.histories;
+            this.historyHosts = source.historyHosts;
+        }
+
+        @Override
+        public Iterator<TestTime> iterator() {
+            return new Iterator<TestTime>() {
+                private int row;
+
+                @Override
+                public boolean hasNext() {
+                    return row < size;
+                }
+
+                @Override
+                public TestTime next() {
+                    if (row >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return get(row++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private TestTime get(int row) {
+            Timestamp updated = lastUpdated[row] != NO_TIMESTAMP ? new Timestamp(lastUpdated[row]) : null;
+            TestTime testTime = new TestTime(names[row], times[row], failed.get(row), dictionary.getHost(hosts[row]), updated);
+            if (histories[row] != null) {
+                testTime.setHistory(histories[row]);
+                testTime.setHistoryHosts(Arrays.stream(historyHosts[row]).mapToObj(dictionary::getHost).toArray(String[]::new));
+            }
+            return testTime;
+        }
+    }
+}
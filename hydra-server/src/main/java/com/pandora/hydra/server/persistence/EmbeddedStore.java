@@ -0,0 +1,346 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.pandora.hydra.common.TestSuite;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps test times in a single embedded H2 MVStore file, so small installs get a persistent store without running a
+ * database. Each build is a B-tree map keyed by project and test name, and each test is a small binary value that is
+ * updated in place. Only the pages that are read are cached, up to hydra.embedded_repo_cache_mb, so memory stays bounded
+ * no matter how many builds the store holds.
+ *
+ * Writes are committed in the background every hydra.embedded_repo_commit_ms, the same way {@link FileStore} batches its
+ * fsyncs
+ *
+ * @since 10/16/26
+ */
+@Component
+@Profile("embedded_repo")
+public class EmbeddedStore implements TestStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmbeddedStore.class);
+    private static final String BUILD_MAP_PREFIX = "build.";
+    private static final char KEY_SEPARATOR = '\0';
+
+    private static final int FAILED = 1;
+    private static final int NO_CLASS_SUFFIX = 1 << 1;
+    private static final int HAS_LAST_UPDATED = 1 << 2;
+    private static final int HAS_HOST = 1 << 3;
+    private static final int HAS_HISTORY = 1 << 4;
+    private static final int HAS_HISTORY_HOSTS = 1 << 5;
+    private static final int UNKNOWN_HOST = 0xFF;
+
+    /**
+     * Readers share the lock. Writers, clears and purges take it exclusively, so a build's map is never removed while
+     * it's being read or written
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Value("${hydra.embedded_repo}")
+    private String storeFile;
+
+    @Value("${hydra.embedded_repo_cache_mb:16}")
+    private int cacheSizeMb;
+
+    @Value("${hydra.embedded_repo_commit_ms:1000}")
+    private int commitDelayMs;
+
+    private MVStore store;
+
+    public EmbeddedStore() {
+    }
+
+    EmbeddedStore(String storeFile, int cacheSizeMb, int commitDelayMs) {
+        this.storeFile = storeFile;
+        this.cacheSizeMb = cacheSizeMb;
+        this.commitDelayMs = commitDelayMs;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Path path = Paths.get(storeFile).toAbsolutePath();
+        if (path.getParent() != null && !Files.exists(path.getParent())) {
+            LOG.info("Creating dir " + path.getParent());
+            Files.createDirectories(path.getParent());
+        }
+
+        long start = System.nanoTime();
+        store = new MVStore.Builder()
+                .fileName(path.toString())
+                .cacheSize(cacheSizeMb)
+                .compress()
+                .open();
+        store.setAutoCommitDelay(commitDelayMs);
+        LOG.info(String.format("Opened %s with %d builds in %d ms", path, buildMapNames().size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (store != null && !store.isClosed()) {
+                store.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Collection<TestTime>> getTestTimes(String buildName) {
+        lock.readLock().lock();
+        try {
+            String mapName = BUILD_MAP_PREFIX + buildName;
+            if (!store.hasMap(mapName)) {
+                return Collections.emptyMap();
+            }
+
+            return readProjects(store.openMap(mapName));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addTestTimes(String project, List<TestSuite> testTimes, String host, String build) {
+        Objects.requireNonNull(testTimes);
+        Objects.requireNonNull(host);
+        Objects.requireNonNull(build);
+
+        lock.writeLock().lock();
+        try {
+            MVMap<String, byte[]> testMap = store.openMap(BUILD_MAP_PREFIX + build);
+            for (TestSuite suite : testTimes) {
+                TestTime testTime = TestTime.of(suite, host);
+                String key = toKey(project, testTime.getTestName());
+                byte[] previous = testMap.get(key);
+                testTime.appendToHistory(previous != null ? decode(ProjectTimes.toKey(testTime.getTestName()), previous) : null);
+                testMap.put(key, encode(testTime));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the lock once for all of the batches
+     */
+    @Override
+    public void addTestTimes(Collection<TestTimeBatch> batches) {
+        lock.writeLock().lock();
+        try {
+            TestStore.super.addTestTimes(batches);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clearTestTimes(String build) {
+        lock.writeLock().lock();
+        try {
+            String mapName = BUILD_MAP_PREFIX + build;
+            if (store.hasMap(mapName)) {
+                store.removeMap(store.openMap(mapName));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelay = 3_600_000)
+    public void purgeObsoleteTests() {
+        for (String mapName : buildMapNames()) {
+            lock.writeLock().lock();
+            try {
+                if (!store.hasMap(mapName)) {
+                    continue;
+                }
+
+                MVMap<String, byte[]> testMap = store.openMap(mapName);
+                String build = mapName.substring(BUILD_MAP_PREFIX.length());
+                for (Map.Entry<String, Collection<TestTime>> project : readProjects(testMap).entrySet()) {
+                    for (TestTime test : PersistenceUtil.findObsoleteTests(project.getValue())) {
+                        LOG.info("Removing obsolete test " + test.getTestName()
+                                + " on project " + project.getKey() + " on build " + build);
+                        testMap.remove(toKey(project.getKey(), test.getTestName()));
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private List<String> buildMapNames() {
+        List<String> names = new ArrayList<>();
+        for (String name : store.getMapNames()) {
+            if (name.startsWith(BUILD_MAP_PREFIX)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    private static Map<String, Collection<TestTime>> readProjects(MVMap<String, byte[]> testMap) {
+        Map<String, Collection<TestTime>> projects = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : testMap.entrySet()) {
+            String key = entry.getKey();
+            int separator = key.indexOf(KEY_SEPARATOR);
+            String project = key.substring(0, separator);
+            String testKey = key.substring(separator + 1);
+            projects.computeIfAbsent(project, p -> new ArrayList<>()).add(decode(testKey, entry.getValue()));
+        }
+        return projects;
+    }
+
+    /**
+     * A test name with and without the .class suffix is the same test, see {@link ProjectTimes#toKey(String)}
+     */
+    static String toKey(String project, String testName) {
+        return project + KEY_SEPARATOR + ProjectTimes.toKey(testName);
+    }
+
+    /**
+     * Flags, time, then the last updated time, host and history if there are any. The hosts of the history are written
+     * once each, followed by an index into them per run. The test name is already in the key
+     */
+    static byte[] encode(TestTime testTime) {
+        int flags = (testTime.isFailed() ? FAILED : 0)
+                | (testTime.getTestName().endsWith(".class") ? 0 : NO_CLASS_SUFFIX)
+                | (testTime.getLastUpdated() != null ? HAS_LAST_UPDATED : 0)
+                | (testTime.getHostName() != null ? HAS_HOST : 0)
+                | (testTime.getHistory().length > 0 ? HAS_HISTORY | HAS_HISTORY_HOSTS : 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(flags);
+            out.writeLong(testTime.getTime());
+            if (testTime.getLastUpdated() != null) {
+                out.writeLong(testTime.getLastUpdated().getTime());
+            }
+            if (testTime.getHostName() != null) {
+                out.writeUTF(testTime.getHostName());
+            }
+            if (testTime.getHistory().length > 0) {
+                out.writeByte(testTime.getHistory().length);
+                for (long time : testTime.getHistory()) {
+                    out.writeLong(time);
+                }
+                writeHistoryHosts(out, testTime.getHistoryHosts());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static TestTime decode(String testKey, byte[] value) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            int flags = in.readUnsignedByte();
+            long time = in.readLong();
+            Timestamp lastUpdated = (flags & HAS_LAST_UPDATED) != 0 ? new Timestamp(in.readLong()) : null;
+            String host = (flags & HAS_HOST) != 0 ? in.readUTF() : null;
+            String testName = (flags & NO_CLASS_SUFFIX) != 0 ? testKey.substring(0, testKey.length() - ".class".length()) : testKey;
+            TestTime testTime = new TestTime(testName, time, (flags & FAILED) != 0, host, lastUpdated);
+            if ((flags & HAS_HISTORY) != 0) {
+                testTime.setHistory(readHistory(in));
+            }
+            if ((flags & HAS_HISTORY_HOSTS) != 0) {
+                testTime.setHistoryHosts(readHistoryHosts(in, testTime.getHistory().length));
+            }
+            return testTime;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long[] readHistory(DataInputStream in) throws IOException {
+        long[] history = new long[in.readUnsignedByte()];
+        for (int i = 0; i < history.length; i++) {
+            history[i] = in.readLong();
+        }
+        return history;
+    }
+
+    private static void writeHistoryHosts(DataOutputStream out, String[] hosts) throws IOException {
+        List<String> distinct = new ArrayList<>();
+        for (String host : hosts) {
+            if (host != null && !distinct.contains(host)) {
+                distinct.add(host);
+            }
+        }
+
+        out.writeByte(distinct.size());
+        for (String host : distinct) {
+            out.writeUTF(host);
+        }
+        for (String host : hosts) {
+            out.writeByte(host != null ? distinct.indexOf(host) : UNKNOWN_HOST);
+        }
+    }
+
+    private static String[] readHistoryHosts(DataInputStream in, int length) throws IOException {
+        String[] distinct = new String[in.readUnsignedByte()];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = in.readUTF();
+        }
+
+        String[] hosts = new String[length];
+        for (int i = 0; i < length; i++) {
+            int host = in.readUnsignedByte();
+            hosts[i] = host != UNKNOWN_HOST ? distinct[host] : null;
+        }
+        return hosts;
+    }
+}
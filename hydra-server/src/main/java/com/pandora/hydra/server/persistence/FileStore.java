@@ -17,11 +17,13 @@
 
 package com.pandora.hydra.server.persistence;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
-import com.google.gson.JsonParser;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 import com.pandora.hydra.common.TestSuite;
 import com.pandora.hydra.server.persistence.model.TestTime;
 import org.slf4j.Logger;
@@ -32,30 +34,44 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * Saves new test time data to file system
+ * Saves new test time data to file system. Test times are appended to a log per build as they arrive, and the log is
+ * periodically compacted into a snapshot of the build (test.current). On startup the snapshot is loaded and the log is
+ * replayed on top of it.
+ *
+ * Writes to a build are serialized so that the log and the in memory test times agree, but writes to different builds,
+ * and all reads, proceed in parallel. Readers get an immutable snapshot of a build that is only rebuilt after the build changes
  *
  * @author Justin Guerra
  * @since 8/16/16
@@ -66,19 +82,47 @@ public class FileStore implements TestStore {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileStore.class);
     private static final String BASE_FILE_NAME = "test.current";
+    private static final Gson GSON = new Gson();
 
-    private final Map<String, Multimap<String,TestTime>> fullCache;
-    private final Deque<String> updateDeque = new LinkedBlockingDeque<>();
+    private final ConcurrentMap<String, BuildTimes> builds = new ConcurrentHashMap<>();
+    private final Set<String> buildsToCompact = ConcurrentHashMap.newKeySet();
 
     @Value("${hydra.repo}")
     private String repoDir;
 
+    /**
+     * How many builds are loaded at once on startup. 0 uses one thread per core
+     */
+    @Value("${hydra.repo_load_threads:0}")
+    private int loadThreads;
+
+    /**
+     * Keeps test times in columns with shared test names, see {@link CompactProjectTimes}
+     */
+    @Value("${hydra.repo_compact:false}")
+    private boolean compact;
+
+    private final TestTimeDictionary dictionary = new TestTimeDictionary();
+
+    private volatile CompletableFuture<Void> allLoaded = CompletableFuture.completedFuture(null);
+
     public FileStore() {
-        fullCache = new HashMap<>();
     }
 
-    public FileStore(Map<String, Multimap<String, TestTime>> fullCache) {
-        this.fullCache = fullCache;
+    public FileStore(Map<String, Multimap<String, TestTime>> testTimes) {
+        testTimes.forEach((build, projects) -> {
+            BuildTimes buildTimes = getOrCreateBuild(build);
+            projects.entries().forEach(e -> buildTimes.put(e.getKey(), e.getValue()));
+        });
+    }
+
+    FileStore(String repoDir) {
+        this(repoDir, false);
+    }
+
+    FileStore(String repoDir, boolean compact) {
+        this.repoDir = repoDir;
+        this.compact = compact;
     }
 
     @PostConstruct
@@ -89,147 +133,288 @@ public class FileStore implements TestStore {
             Files.createDirectory(repo);
         }
 
-        Files.walk(repo, 2)
-                .filter(x -> !Files.isDirectory(x))
-                .filter(x -> x.getFileName().endsWith(BASE_FILE_NAME))
-                .forEach(this::populateCache);
+        List<Path> buildFolders;
+        try (Stream<Path> folders = Files.list(repo)) {
+            buildFolders = folders.filter(Files::isDirectory)
+                    .filter(FileStore::hasTestTimes)
+                    .collect(Collectors.toList());
+        }
+
+        int threads = loadThreads > 0 ? loadThreads : Runtime.getRuntime().availableProcessors();
+        ExecutorService loader = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("file-store-load-%d")
+                .setDaemon(true)
+                .build());
+
+        // every build is registered before loading starts, so a request for a build that is still loading waits for it
+        // instead of falling back to the default build
+        List<CompletableFuture<Void>> loads = new ArrayList<>(buildFolders.size());
+        for (Path buildFolder : buildFolders) {
+            String buildName = buildFolder.getFileName().toString();
+            BuildTimes buildTimes = new BuildTimes(buildFolder, new CompletableFuture<>(), this::newProjectTimes);
+            builds.put(buildName, buildTimes);
+            loads.add(CompletableFuture.runAsync(() -> populateCache(buildName, buildFolder, buildTimes), loader)
+                    .whenComplete((ignored, e) -> buildTimes.completeLoad(e)));
+        }
+
+        long start = System.nanoTime();
+        allLoaded = CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]));
+        allLoaded.whenComplete((ignored, e) -> {
+            loader.shutdown();
+            LOG.info(String.format("Loaded %d builds in %d ms", buildFolders.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        });
     }
 
-    private synchronized void populateCache(Path pathToCache) {
-        final Map<String, Set<TestTime>> projectResults;
-        try(Reader reader = Files.newBufferedReader(pathToCache, StandardCharsets.UTF_8)) {
-            Gson gson = new Gson();
-            JsonParser parser = new JsonParser();
-            projectResults = gson.fromJson(parser.parse(reader), new TypeToken<Map<String, Set<TestTime>>>() {}.getType());
-        } catch (IOException e) {
-            LOG.error("Unable to parse " + pathToCache);
-            throw new RuntimeException(e);
+    private ProjectTimes newProjectTimes() {
+        return compact ? new CompactProjectTimes(dictionary) : new ProjectTimes.MapProjectTimes();
+    }
+
+    /**
+     * Completes once every build found on startup has been loaded, or exceptionally if any of them couldn't be loaded
+     */
+    public CompletableFuture<Void> getAllLoaded() {
+        return allLoaded;
+    }
+
+    private static boolean hasTestTimes(Path buildFolder) {
+        return Files.exists(buildFolder.resolve(BASE_FILE_NAME))
+                || Files.exists(buildFolder.resolve(TestTimeLog.LOG_FILE_NAME))
+                || Files.exists(buildFolder.resolve(TestTimeLog.ROTATED_LOG_FILE_NAME));
+    }
+
+    private void populateCache(String buildName, Path buildFolder, BuildTimes buildTimes) {
+        Path snapshot = buildFolder.resolve(BASE_FILE_NAME);
+        if (Files.exists(snapshot)) {
+            try {
+                readSnapshot(snapshot, buildTimes);
+            } catch (IOException | JsonParseException e) {
+                LOG.error("Unable to parse " + snapshot);
+                throw new IllegalStateException("Unable to parse " + snapshot, e);
+            }
         }
 
-        final HashMultimap<String, TestTime> multimap = HashMultimap.create();
+        try {
+            TestTimeLog.replay(buildFolder, (project, testTimes) -> testTimes.forEach(t -> buildTimes.record(project, t)));
+        } catch (IOException e) {
+            LOG.error("Unable to replay the log in " + buildFolder);
+            throw new UncheckedIOException(e);
+        }
 
-        for(Map.Entry<String, Set<TestTime>> entry : projectResults.entrySet()) {
-            entry.getValue().forEach(x-> multimap.put(entry.getKey(), x));
+        if (Files.exists(buildFolder.resolve(TestTimeLog.LOG_FILE_NAME))
+                || Files.exists(buildFolder.resolve(TestTimeLog.ROTATED_LOG_FILE_NAME))) {
+            buildsToCompact.add(buildName);
         }
+    }
 
-        String buildName = pathToCache.getParent().getFileName().toString();
-        fullCache.put(buildName,multimap);
+    /**
+     * Streams the snapshot straight into the build, one test time at a time, rather than parsing the whole file first
+     */
+    private static void readSnapshot(Path snapshot, BuildTimes buildTimes) throws IOException {
+        TypeAdapter<TestTime> adapter = GSON.getAdapter(TestTime.class);
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(snapshot, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String project = reader.nextName();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    buildTimes.put(project, adapter.read(reader));
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
     }
 
     @Override
-    public synchronized Map<String, Collection<TestTime>> getTestTimes(String buildName) {
-        Multimap<String, TestTime> testTimes = fullCache.get(buildName);
+    public Map<String, Collection<TestTime>> getTestTimes(String buildName) {
+        BuildTimes testTimes = builds.get(buildName);
+        if (testTimes == null) {
+            testTimes = builds.get("default");
+        }
 
-        Map<String, Collection<TestTime>> times;
-        if (testTimes != null) {
-            times = testTimes.asMap();
-        } else if (fullCache.containsKey("default")) {
-            times = fullCache.get("default").asMap();
-        } else {
-            times = Collections.emptyMap();
+        if (testTimes == null) {
+            return Collections.emptyMap();
         }
 
-        return Collections.unmodifiableMap(times);
+        testTimes.awaitLoad();
+        return testTimes.snapshot();
     }
 
+    /**
+     * The test times are appended to the build's log before they're applied, so once the log is synced they survive a
+     * restart. Only the new test times are written, regardless of how many the build already has
+     */
     @Override
-    public synchronized void addTestTimes(String project, List<TestSuite> testTimes, String host, String build) {
+    public void addTestTimes(String project, List<TestSuite> testTimes, String host, String build) {
         Objects.requireNonNull(testTimes);
         Objects.requireNonNull(host);
         Objects.requireNonNull(build);
 
-        Multimap<String, TestTime> testCache = fullCache.get(build);
-        if(testCache == null) {
-            testCache = HashMultimap.create();
-            fullCache.put(build, testCache);
+        List<TestTime> newTestTimes = new ArrayList<>(testTimes.size());
+        for(TestSuite suite : testTimes) {
+            newTestTimes.add(TestTime.of(suite, host));
         }
 
-        for(TestSuite suite : testTimes) {
-            final String key;
-            if(!suite.getClassName().endsWith(".class")) {
-                key = suite.getClassName() + ".class";
-            } else {
-                key = suite.getClassName();
-            }
+        while (true) {
+            BuildTimes buildTimes = getOrCreateBuild(build);
+            buildTimes.awaitLoad();
+            synchronized (buildTimes) {
+                // the build was cleared after we looked it up
+                if (buildTimes.cleared) {
+                    continue;
+                }
+
+                try {
+                    buildTimes.getLog().append(project, newTestTimes);
+                } catch (IOException e) {
+                    LOG.error("Problem appending test times for build " + build, e);
+                    throw new UncheckedIOException(e);
+                }
 
-            final Optional<TestTime> testTime = testCache.get(project).stream().filter(x -> x.getTestName().equals(key)).findFirst();
-            if(testTime.isPresent()) {
-                testCache.remove(project, testTime.get());
+                newTestTimes.forEach(t -> buildTimes.record(project, t));
             }
 
-            testCache.put(project, TestTime.of(suite, host));
+            buildsToCompact.add(build);
+            return;
         }
+    }
 
-        synchronized (updateDeque) {
-            updateDeque.offer(build);
-        }
+    private BuildTimes getOrCreateBuild(String build) {
+        return builds.computeIfAbsent(build, b -> new BuildTimes(repoDir != null ? Paths.get(repoDir, b) : null,
+                CompletableFuture.completedFuture(null), this::newProjectTimes));
     }
 
     @Override
-    public synchronized void clearTestTimes(String build) {
-        fullCache.remove(build);
+    public void clearTestTimes(String build) {
+        BuildTimes buildTimes = builds.remove(build);
+        if (buildTimes == null) {
+            return;
+        }
+
+        // a build that failed to load can still be cleared
+        buildTimes.loaded.exceptionally(e -> null).join();
+        synchronized (buildTimes) {
+            buildTimes.cleared = true;
+            try {
+                buildTimes.closeLog();
+
+                if (repoDir != null) {
+                    Path buildFolder = Paths.get(repoDir, build);
+                    Files.deleteIfExists(buildFolder.resolve(TestTimeLog.LOG_FILE_NAME));
+                    Files.deleteIfExists(buildFolder.resolve(TestTimeLog.ROTATED_LOG_FILE_NAME));
+                    Files.deleteIfExists(buildFolder.resolve(BASE_FILE_NAME));
+                }
+            } catch (IOException e) {
+                LOG.error("Problem removing the files of build " + build, e);
+            }
+        }
     }
 
     @Override
     @Scheduled(fixedDelay = 3_600_000)
-    public synchronized void purgeObsoleteTests() {
-        for(Map.Entry<String, Multimap<String, TestTime>> entry : fullCache.entrySet()) {
-            Map<String, Collection<TestTime>> projectTimes = entry.getValue().asMap();
+    public void purgeObsoleteTests() {
+        for(Map.Entry<String, BuildTimes> entry : builds.entrySet()) {
+            BuildTimes buildTimes = entry.getValue();
+            if (!buildTimes.isLoaded()) {
+                continue;
+            }
 
-            for (Map.Entry<String, Collection<TestTime>> project : projectTimes.entrySet()) {
-                Collection<TestTime> projectTestTimes = project.getValue();
-                Set<TestTime> obsoleteTests = PersistenceUtil.findObsoleteTests(projectTestTimes);
+            synchronized (buildTimes) {
+                for (Map.Entry<String, Collection<TestTime>> project : buildTimes.snapshot().entrySet()) {
+                    Set<TestTime> obsoleteTests = PersistenceUtil.findObsoleteTests(project.getValue());
 
-                for (Iterator<TestTime> it = projectTestTimes.iterator(); it.hasNext(); ) {
-                    TestTime test = it.next();
-                    if(obsoleteTests.contains(test)) {
+                    for (TestTime test : obsoleteTests) {
                         LOG.info("Removing obsolete test " + test.getTestName()
                                 + " on project " + project.getKey() + " on build " + entry.getKey());
-                        it.remove();
+                    }
+
+                    if (!obsoleteTests.isEmpty()) {
+                        buildTimes.removeAll(project.getKey(), obsoleteTests);
+                        buildsToCompact.add(entry.getKey());
                     }
                 }
             }
         }
     }
 
-    @Scheduled(fixedDelay = 60_000)
-    public void writeTestsToFile() {
-        Set<String> buildsToUpdate;
-        synchronized (updateDeque) {
-            if(updateDeque.isEmpty()) {
-                return;
+    /**
+     * Batches the fsyncs of every log, so test times are durable at most hydra.repo_fsync_ms after they're received
+     */
+    @Scheduled(fixedDelayString = "${hydra.repo_fsync_ms:1000}")
+    public void syncLogs() {
+        for (Map.Entry<String, BuildTimes> build : builds.entrySet()) {
+            TestTimeLog log = build.getValue().log;
+            if (log == null) {
+                continue;
             }
 
-            buildsToUpdate = new HashSet<>(updateDeque);
-            updateDeque.clear();
+            try {
+                log.sync();
+            } catch (IOException e) {
+                LOG.error("Problem syncing the log of build " + build.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of every build that changed since the last compaction and drops the log records the snapshot
+     * contains
+     */
+    @Scheduled(fixedDelayString = "${hydra.repo_compaction_ms:60000}")
+    public void compactLogs() {
+        for (String build : buildsToCompact) {
+            buildsToCompact.remove(build);
+            compact(build);
         }
+    }
 
-        final Gson gson = new Gson();
-        for(String build : buildsToUpdate) {
+    private void compact(String build) {
+        BuildTimes buildTimes = builds.get(build);
+        if (buildTimes == null) {
+            return;
+        }
 
-            Path buildFolder = Paths.get(repoDir, build);
-            if(!Files.exists(buildFolder)) {
-                try {
-                    Files.createDirectory(buildFolder);
-                } catch (IOException e) {
-                    LOG.error("Couldn't create directory " + buildFolder);
-                    continue;
-                }
-            }
+        final Map<String, Collection<TestTime>> testTimes;
+        final TestTimeLog log;
 
-            Map<String, Collection<TestTime>> testTimes = getTestTimes(build);
-            Path tmpPath = Paths.get(repoDir, build, "test.tmp");
+        // the snapshot and the rotation happen together, so every record is either in the snapshot or in the new log
+        synchronized (buildTimes) {
+            if (buildTimes.cleared) {
+                return;
+            }
 
-            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
-                gson.toJson(gson.toJsonTree(testTimes), gson.newJsonWriter(writer));
+            testTimes = buildTimes.snapshot();
+            try {
+                log = buildTimes.getLog();
+                log.rotate();
             } catch (IOException e) {
-                LOG.error("Problem writing temp file " + tmpPath.toAbsolutePath(),e);
-                continue;
+                LOG.error("Problem rotating the log of build " + build, e);
+                return;
+            }
+        }
+
+        Path tmpPath = Paths.get(repoDir, build, "test.tmp");
+        Path newFilePath = Paths.get(repoDir, build, BASE_FILE_NAME);
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1);
+            GSON.toJson(testTimes, writer);
+            writer.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            LOG.error("Problem writing temp file " + tmpPath.toAbsolutePath(),e);
+            return;
+        }
+
+        synchronized (buildTimes) {
+            // the build was cleared while the snapshot was being written
+            if (buildTimes.cleared) {
+                deleteQuietly(tmpPath);
+                return;
             }
 
-            Path newFilePath = Paths.get(repoDir, build, BASE_FILE_NAME);
             try {
-                Files.move(tmpPath, newFilePath, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmpPath, newFilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.deleteRotated();
                 LOG.info(String.format("Successfully wrote %s to disk",newFilePath.toAbsolutePath()));
             } catch (IOException e) {
                 LOG.error("Problem writing file for build " + newFilePath.toAbsolutePath());
@@ -237,5 +422,125 @@ public class FileStore implements TestStore {
         }
     }
 
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.warn("Couldn't delete " + path.toAbsolutePath());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (Map.Entry<String, BuildTimes> build : builds.entrySet()) {
+            synchronized (build.getValue()) {
+                try {
+                    build.getValue().closeLog();
+                } catch (IOException e) {
+                    LOG.error("Problem closing the log of build " + build.getKey(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The test times of a single build, by project. Writers hold the lock on the build. Readers get an immutable snapshot
+     * without locking, and only lock to rebuild it after a write
+     */
+    private static class BuildTimes {
+        private final Path buildFolder;
+        private final CompletableFuture<Void> loaded;
+        private final Supplier<ProjectTimes> projectTimesFactory;
+        private final Map<String, ProjectTimes> projects = new HashMap<>();
+
+        private volatile Map<String, Collection<TestTime>> snapshot;
+        private volatile TestTimeLog log;
+        private boolean cleared;
+
+        BuildTimes(Path buildFolder, CompletableFuture<Void> loaded, Supplier<ProjectTimes> projectTimesFactory) {
+            this.buildFolder = buildFolder;
+            this.loaded = loaded;
+            this.projectTimesFactory = projectTimesFactory;
+        }
+
+        void completeLoad(Throwable failure) {
+            if (failure != null) {
+                loaded.completeExceptionally(failure);
+            } else {
+                loaded.complete(null);
+            }
+        }
+
+        boolean isLoaded() {
+            return loaded.isDone() && !loaded.isCompletedExceptionally();
+        }
+
+        /**
+         * Blocks until the build has been loaded from disk
+         */
+        void awaitLoad() {
+            try {
+                loaded.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Build in " + buildFolder + " couldn't be loaded", e.getCause());
+            }
+        }
+
+        synchronized void put(String project, TestTime testTime) {
+            projects.computeIfAbsent(project, p -> projectTimesFactory.get()).put(testTime);
+            snapshot = null;
+        }
+
+        /**
+         * Like {@link #put(String, TestTime)}, for test times that were just reported rather than read from a snapshot
+         */
+        synchronized void record(String project, TestTime testTime) {
+            projects.computeIfAbsent(project, p -> projectTimesFactory.get()).record(testTime);
+            snapshot = null;
+        }
+
+        synchronized void removeAll(String project, Collection<TestTime> testTimes) {
+            ProjectTimes tests = projects.get(project);
+            if (tests != null) {
+                tests.removeAll(testTimes);
+                snapshot = null;
+            }
+        }
+
+        Map<String, Collection<TestTime>> snapshot() {
+            Map<String, Collection<TestTime>> current = snapshot;
+            if (current != null) {
+                return current;
+            }
+
+            synchronized (this) {
+                if (snapshot == null) {
+                    ImmutableMap.Builder<String, Collection<TestTime>> builder = ImmutableMap.builder();
+                    projects.forEach((project, tests) -> {
+                        Collection<TestTime> testTimes = tests.snapshot();
+                        if (!testTimes.isEmpty()) {
+                            builder.put(project, testTimes);
+                        }
+                    });
+                    snapshot = builder.build();
+                }
+                return snapshot;
+            }
+        }
+
+        TestTimeLog getLog() throws IOException {
+            if (log == null) {
+                Files.createDirectories(buildFolder);
+                log = new TestTimeLog(buildFolder);
+            }
+            return log;
+        }
+
+        void closeLog() throws IOException {
+            if (log != null) {
+                log.close();
+            }
+        }
+    }
 
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reports the file store as out of service until every build has been loaded from disk. Requests for a build are
+ * already served as soon as that build is loaded, so this is only a signal for load balancers and deploy scripts
+ *
+ * @since 10/16/26
+ */
+@Component
+@Profile("file_repo")
+public class FileStoreHealthIndicator implements HealthIndicator {
+
+    private final FileStore fileStore;
+
+    @Autowired
+    public FileStoreHealthIndicator(FileStore fileStore) {
+        this.fileStore = fileStore;
+    }
+
+    @Override
+    public Health health() {
+        CompletableFuture<Void> allLoaded = fileStore.getAllLoaded();
+        if (!allLoaded.isDone()) {
+            return Health.outOfService().withDetail("loading", true).build();
+        }
+
+        if (allLoaded.isCompletedExceptionally()) {
+            return Health.down().withDetail("error", "Some builds couldn't be loaded, check the logs").build();
+        }
+
+        return Health.up().build();
+    }
+}
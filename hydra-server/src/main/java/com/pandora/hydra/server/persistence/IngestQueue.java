@@ -0,0 +1,251 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.pandora.hydra.common.TestSuite;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue for reported test times. Every host reports its test times at the end of a run, so instead of
+ * writing each request to the store while the host waits, requests are queued and a single writer takes everything
+ * that queued up in the meantime, merges the batches of the same host, project and build, and hands them to the store
+ * at once.
+ *
+ * The queue is bounded. When it is full new requests are rejected, and hosts are expected to retry later
+ *
+ * Hosts were already told their test times were accepted, so a failed write isn't simply dropped. If the merged write
+ * fails, each batch is written on its own, so one bad batch doesn't take the others down with it, and a batch that fails
+ * is retried a few times before it's given up on
+ *
+ * @since 10/16/26
+ */
+@Component
+public class IngestQueue implements MeterBinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestQueue.class);
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+
+    private final TestStore testStore;
+    private final BlockingQueue<TestTimeBatch> queue;
+    private final int maxBatchSize;
+    private final int retryAfterSeconds;
+    private final int maxAttempts;
+    private final Thread writer;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    public IngestQueue(TestStore testStore, int capacity, int maxBatchSize, int retryAfterSeconds) {
+        this(testStore, capacity, maxBatchSize, retryAfterSeconds, 3);
+    }
+
+    /**
+     * @param maxAttempts how many times a batch is written on its own before it's dropped
+     */
+    @Autowired
+    public IngestQueue(TestStore testStore, @Value("${hydra.ingest.queue_capacity:1000}") int capacity,
+                       @Value("${hydra.ingest.max_batch_size:200}") int maxBatchSize,
+                       @Value("${hydra.ingest.retry_after_seconds:5}") int retryAfterSeconds,
+                       @Value("${hydra.ingest.max_attempts:3}") int maxAttempts) {
+        this.testStore = testStore;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.writer = new ThreadFactoryBuilder()
+                .setNameFormat("ingest-writer")
+                .setDaemon(true)
+                .build()
+                .newThread(this::writeUntilStopped);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer.start();
+    }
+
+    /**
+     * Stops taking new batches and waits for the queued ones to be written
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+        if (!queue.isEmpty()) {
+            LOG.error(queue.size() + " batches of test times weren't written before shutdown");
+        }
+    }
+
+    /**
+     * @return false if the queue is full and the batch wasn't accepted
+     */
+    public boolean offer(TestTimeBatch batch) {
+        if (running && queue.offer(batch)) {
+            return true;
+        }
+
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * How long a host should wait before retrying a rejected batch
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("hydra.ingest.queue.depth", queue, BlockingQueue::size)
+                .description("Batches of test times waiting to be written")
+                .register(registry);
+        FunctionCounter.builder("hydra.ingest.rejected", rejected, AtomicLong::get)
+                .description("Batches of test times rejected because the queue was full")
+                .register(registry);
+        FunctionCounter.builder("hydra.ingest.failed", failed, AtomicLong::get)
+                .description("Batches of test times dropped after the store failed to write them")
+                .register(registry);
+        FunctionCounter.builder("hydra.ingest.written", written, AtomicLong::get)
+                .description("Batches of test times written to the store")
+                .register(registry);
+    }
+
+    private void writeUntilStopped() {
+        List<TestTimeBatch> batches = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                TestTimeBatch first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batches.add(first);
+                queue.drainTo(batches, maxBatchSize - 1);
+                write(batches);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batches.clear();
+            }
+        }
+    }
+
+    private void write(List<TestTimeBatch> batches) throws InterruptedException {
+        List<TestTimeBatch> merged = merge(batches);
+        try {
+            long start = System.nanoTime();
+            testStore.addTestTimes(merged);
+            written.addAndGet(batches.size());
+            LOG.debug(String.format("Wrote %d batches of test times as %d in %d ms", batches.size(), merged.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            return;
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to write " + batches.size() + " batches of test times together, writing them one at a time", e);
+        }
+
+        Map<List<String>, Integer> requests = new HashMap<>();
+        batches.forEach(batch -> requests.merge(keyOf(batch), 1, Integer::sum));
+        for (TestTimeBatch batch : merged) {
+            int count = requests.get(keyOf(batch));
+            if (writeAlone(batch)) {
+                written.addAndGet(count);
+            } else {
+                failed.addAndGet(count);
+            }
+        }
+    }
+
+    /**
+     * @return false if the batch still couldn't be written after maxAttempts
+     */
+    private boolean writeAlone(TestTimeBatch batch) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                testStore.addTestTimes(Collections.singletonList(batch));
+                return true;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    LOG.error(String.format("Dropping %d test times of host %s for project %s of build %s after %d attempts",
+                            batch.getTestSuites().size(), batch.getHost(), batch.getProject(), batch.getBuild(), attempt), e);
+                    return false;
+                }
+                TimeUnit.MILLISECONDS.sleep(RETRY_BACKOFF_MILLIS * attempt);
+            }
+        }
+    }
+
+    /**
+     * Batches of the same host, project and build are merged, keeping their order so that later test times win
+     */
+    static List<TestTimeBatch> merge(List<TestTimeBatch> batches) {
+        Map<List<String>, List<TestTimeBatch>> byKey = new LinkedHashMap<>();
+        for (TestTimeBatch batch : batches) {
+            byKey.computeIfAbsent(keyOf(batch), k -> new ArrayList<>()).add(batch);
+        }
+
+        List<TestTimeBatch> merged = new ArrayList<>(byKey.size());
+        for (List<TestTimeBatch> sameKey : byKey.values()) {
+            if (sameKey.size() == 1) {
+                merged.add(sameKey.get(0));
+                continue;
+            }
+
+            TestTimeBatch first = sameKey.get(0);
+            List<TestSuite> testSuites = new ArrayList<>();
+            sameKey.forEach(b -> testSuites.addAll(b.getTestSuites()));
+            merged.add(new TestTimeBatch(first.getBuild(), first.getProject(), first.getHost(), testSuites));
+        }
+        return merged;
+    }
+
+    private static List<String> keyOf(TestTimeBatch batch) {
+        return Arrays.asList(batch.getBuild(), batch.getProject(), batch.getHost());
+    }
+}
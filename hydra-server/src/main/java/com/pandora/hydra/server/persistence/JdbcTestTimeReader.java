@@ -0,0 +1,114 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the test times of a build with a projection query, and their histories with another. Only the columns
+ * partitioning needs are selected, so no entities, and none of their project and build relations, are loaded
+ *
+ * @since 10/16/26
+ */
+@Component
+@Conditional(SqlRepoCondition.class)
+public class JdbcTestTimeReader {
+
+    private static final String SELECT_SQL = "SELECT p.name, t.name, t.time, t.failed, t.hostname, t.last_updated, t.id "
+            + "FROM test t "
+            + "JOIN build b ON b.id = t.build_id "
+            + "JOIN project p ON p.id = t.project_id "
+            + "WHERE b.name = ?";
+    private static final String SELECT_SAMPLES_SQL = "SELECT s.test_id, s.time, s.hostname "
+            + "FROM test_runtime_sample s "
+            + "JOIN test t ON t.id = s.test_id "
+            + "JOIN build b ON b.id = t.build_id "
+            + "WHERE b.name = ? "
+            + "ORDER BY s.test_id, s.id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public JdbcTestTimeReader(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @return the test times of the build by project name, empty if the build doesn't exist
+     */
+    public Map<String, Collection<TestTime>> getTestTimes(String buildName) {
+        Map<Long, History> histories = getHistories(buildName);
+
+        Map<String, ImmutableList.Builder<TestTime>> byProject = new HashMap<>();
+        RowCallbackHandler groupByProject = rs -> {
+            TestTime testTime = new TestTime(rs.getString(2), rs.getLong(3), rs.getBoolean(4), rs.getString(5), rs.getTimestamp(6));
+            History history = histories.get(rs.getLong(7));
+            if (history != null) {
+                int from = Math.max(0, history.size - TestTime.HISTORY_SIZE);
+                testTime.setHistory(Arrays.copyOfRange(history.times, from, history.size));
+                testTime.setHistoryHosts(Arrays.copyOfRange(history.hosts, from, history.size));
+            }
+            byProject.computeIfAbsent(rs.getString(1), p -> ImmutableList.builder()).add(testTime);
+        };
+        jdbcTemplate.query(SELECT_SQL, groupByProject, buildName);
+
+        ImmutableMap.Builder<String, Collection<TestTime>> testTimes = ImmutableMap.builder();
+        byProject.forEach((project, tests) -> testTimes.put(project, tests.build()));
+        return testTimes.build();
+    }
+
+    /**
+     * @return the runtime samples of every test of the build by test id, oldest first
+     */
+    private Map<Long, History> getHistories(String buildName) {
+        Map<Long, History> histories = new HashMap<>();
+        RowCallbackHandler appendSample = rs -> histories.computeIfAbsent(rs.getLong(1), id -> new History())
+                .add(rs.getLong(2), rs.getString(3));
+        jdbcTemplate.query(SELECT_SAMPLES_SQL, appendSample, buildName);
+        return histories;
+    }
+
+    private static class History {
+        private long[] times = new long[TestTime.HISTORY_SIZE];
+        private String[] hosts = new String[TestTime.HISTORY_SIZE];
+        private int size;
+
+        void add(long time, String host) {
+            // a concurrent write can leave more samples than the history size until it's trimmed
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                hosts = Arrays.copyOf(hosts, size * 2);
+            }
+            times[size] = time;
+            hosts[size] = host;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.pandora.hydra.common.TestSuite;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the test times of a project in a handful of statements, regardless of how many tests there are: one query
+ * for the tests that already exist, one batch of updates and one batch of inserts, all in one transaction. The runtimes of
+ * passing runs are added to test_runtime_sample in another batch, and trimmed to the last {@link TestTime#HISTORY_SIZE}
+ *
+ * @since 10/16/26
+ */
+@Component
+@Conditional(SqlRepoCondition.class)
+public class JdbcTestTimeWriter {
+
+    private static final Logger LOG = Logger.getLogger(JdbcTestTimeWriter.class);
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String SELECT_SQL = "SELECT id, name FROM test WHERE build_id = ? AND project_id = ?";
+    private static final String UPDATE_SQL = "UPDATE test SET time = ?, failed = ?, hostname = ?, last_updated = ? WHERE id = ?";
+    private static final String INSERT_SQL = "INSERT INTO test (name, time, failed, hostname, last_updated, build_id, project_id) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_SAMPLE_SQL = "INSERT INTO test_runtime_sample (test_id, time, hostname, recorded_at) "
+            + "SELECT id, ?, ?, ? FROM test WHERE build_id = ? AND project_id = ? AND name = ?";
+    private static final String TRIM_SAMPLES_SQL = "DELETE FROM test_runtime_sample WHERE test_id = ? AND id < "
+            + "(SELECT MIN(id) FROM (SELECT id FROM test_runtime_sample WHERE test_id = ? ORDER BY id DESC LIMIT ?) recent)";
+    private static final String AVERAGE_LAST_UPDATED_SQL = "SELECT AVG(EXTRACT(EPOCH FROM last_updated)) FROM test "
+            + "WHERE build_id = ? AND last_updated IS NOT NULL";
+    private static final String DELETE_OBSOLETE_SQL = "DELETE FROM test WHERE id IN "
+            + "(SELECT id FROM test WHERE build_id = ? AND (last_updated IS NULL OR last_updated < ?) LIMIT ?)";
+    private static final String DELETE_BUILD_SQL = "DELETE FROM test WHERE id IN (SELECT id FROM test WHERE build_id = ? LIMIT ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Rows removed per delete statement, so deletes never lock a large part of the table for long
+     */
+    private final int deleteChunkSize;
+
+    @Autowired
+    public JdbcTestTimeWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                              @Value("${hydra.sql_delete_chunk_size:1000}") int deleteChunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.deleteChunkSize = deleteChunkSize;
+    }
+
+    /**
+     * Inserts or updates the test times of a project. If another host inserts one of the same tests at the same time the
+     * unique index on (name, build_id, project_id) rejects the batch, and it's retried so the test is updated instead
+     */
+    public void write(long buildId, long projectId, List<TestSuite> testSuites, String host) {
+        writeAll(Collections.singletonList(new Write(buildId, projectId, testSuites, host)));
+    }
+
+    /**
+     * Same as {@link #write(long, long, List, String)}, but every write is committed in a single transaction
+     */
+    public void writeAll(List<Write> writes) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.execute(status -> {
+                    writes.forEach(w -> writeBatch(w.buildId, w.projectId, w.latestTestSuites(), w.host));
+                    return null;
+                });
+                return;
+            } catch (DuplicateKeyException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                LOG.info("Tests were inserted concurrently, retrying " + writes.size() + " writes");
+            }
+        }
+    }
+
+    private void writeBatch(long buildId, long projectId, Map<String, TestSuite> testSuites, String host) {
+        Map<String, Long> existing = new HashMap<>();
+        RowCallbackHandler collectExisting = rs -> existing.put(rs.getString(2), rs.getLong(1));
+        jdbcTemplate.query(SELECT_SQL, collectExisting, buildId, projectId);
+
+        Timestamp now = Timestamp.from(Clock.systemUTC().instant());
+        List<Object[]> updates = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        List<Object[]> samples = new ArrayList<>();
+        List<Object[]> trims = new ArrayList<>();
+
+        for (TestSuite suite : testSuites.values()) {
+            Long id = existing.get(suite.getClassName());
+            if (id != null) {
+                updates.add(new Object[]{suite.getRunTime(), suite.isFailed(), host, now, id});
+            } else {
+                inserts.add(new Object[]{suite.getClassName(), suite.getRunTime(), suite.isFailed(), host, now, buildId, projectId});
+            }
+
+            // failed runs are usually cut short, so they aren't part of the history
+            if (!suite.isFailed()) {
+                samples.add(new Object[]{suite.getRunTime(), host, now, buildId, projectId, suite.getClassName()});
+                if (id != null) {
+                    trims.add(new Object[]{id, id, TestTime.HISTORY_SIZE});
+                }
+            }
+        }
+
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, updates);
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, inserts);
+        }
+        if (!samples.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_SAMPLE_SQL, samples);
+        }
+        if (!trims.isEmpty()) {
+            jdbcTemplate.batchUpdate(TRIM_SAMPLES_SQL, trims);
+        }
+
+        LOG.debug(String.format("Updated %d and inserted %d tests for build %d and project %d", updates.size(), inserts.size(), buildId, projectId));
+    }
+
+    /**
+     * Deletes the tests of a build that weren't updated within a day of the build's average last updated time, see
+     * {@link PersistenceUtil#findObsoleteTests(Collection)}. The average is computed by the database, so no test rows are
+     * read, and the delete happens in chunks
+     *
+     * @return the number of tests deleted
+     */
+    public int deleteObsoleteTests(long buildId) {
+        Double averageEpochSeconds = jdbcTemplate.queryForObject(AVERAGE_LAST_UPDATED_SQL, Double.class, buildId);
+        if (averageEpochSeconds == null) {
+            return 0;
+        }
+
+        Instant average = Instant.ofEpochMilli(Math.round(averageEpochSeconds * 1000));
+        Timestamp cutoff = Timestamp.from(PersistenceUtil.obsoleteBefore(average));
+        return deleteInChunks(DELETE_OBSOLETE_SQL, buildId, cutoff);
+    }
+
+    /**
+     * @return the number of tests deleted
+     */
+    public int deleteTestTimes(long buildId) {
+        return deleteInChunks(DELETE_BUILD_SQL, buildId);
+    }
+
+    /**
+     * The test times a host reported for a project of a build
+     */
+    public static class Write {
+        private final long buildId;
+        private final long projectId;
+        private final List<TestSuite> testSuites;
+        private final String host;
+
+        public Write(long buildId, long projectId, List<TestSuite> testSuites, String host) {
+            this.buildId = buildId;
+            this.projectId = projectId;
+            this.testSuites = testSuites;
+            this.host = host;
+        }
+
+        private Map<String, TestSuite> latestTestSuites() {
+            // a suite reported twice in the same request would otherwise be inserted twice
+            Map<String, TestSuite> latest = new LinkedHashMap<>();
+            for (TestSuite testSuite : testSuites) {
+                latest.put(testSuite.getClassName(), testSuite);
+            }
+            return latest;
+        }
+    }
+
+    /**
+     * Each chunk is deleted in its own statement, and so its own transaction
+     */
+    private int deleteInChunks(String sql, Object... args) {
+        Object[] argsWithLimit = Arrays.copyOf(args, args.length + 1);
+        argsWithLimit[args.length] = deleteChunkSize;
+
+        int total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(sql, argsWithLimit);
+            total += deleted;
+        } while (deleted == deleteChunkSize);
+
+        return total;
+    }
+}
@@ -61,6 +61,13 @@ public class PersistenceUtil {
     }
 
 
+    /**
+     * Tests last updated before the returned instant are obsolete, the same cutoff as {@link #isTestOlderThanAverage(Instant, TestTime)}
+     */
+    static Instant obsoleteBefore(Instant averageInstant) {
+        return averageInstant.minus(Duration.ofDays(1)).plusSeconds(1);
+    }
+
     static boolean isTestOlderThanAverage(Instant averageInstant, TestTime test) {
         if(test.getLastUpdated() == null) {
             return true;
@@ -0,0 +1,90 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.pandora.hydra.server.persistence.model.TestTime;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The latest test time of every test in a project, keyed by test name. A test name with and without the .class suffix
+ * is the same test. Implementations aren't thread safe, {@link FileStore} serializes all calls for a build
+ *
+ * @since 10/16/26
+ */
+interface ProjectTimes {
+
+    /**
+     * Replaces the test time of the test with the same name, if any
+     */
+    void put(TestTime testTime);
+
+    /**
+     * @return the test time of the test with the same name, null if there is no such test
+     */
+    TestTime get(String testName);
+
+    /**
+     * Puts a newly reported test time, continuing the history of the test time it replaces
+     */
+    default void record(TestTime testTime) {
+        testTime.appendToHistory(get(testTime.getTestName()));
+        put(testTime);
+    }
+
+    void removeAll(Collection<TestTime> testTimes);
+
+    /**
+     * @return an immutable copy of the test times, which later writes don't change
+     */
+    Collection<TestTime> snapshot();
+
+    static String toKey(String testName) {
+        return testName.endsWith(".class") ? testName : testName + ".class";
+    }
+
+    /**
+     * Keeps every test time as is
+     */
+    class MapProjectTimes implements ProjectTimes {
+        private final Map<String, TestTime> testTimes = new HashMap<>();
+
+        @Override
+        public void put(TestTime testTime) {
+            testTimes.put(toKey(testTime.getTestName()), testTime);
+        }
+
+        @Override
+        public TestTime get(String testName) {
+            return testTimes.get(toKey(testName));
+        }
+
+        @Override
+        public void removeAll(Collection<TestTime> toRemove) {
+            toRemove.forEach(t -> testTimes.remove(toKey(t.getTestName()), t));
+        }
+
+        @Override
+        public Collection<TestTime> snapshot() {
+            return ImmutableList.copyOf(testTimes.values());
+        }
+    }
+}
@@ -17,106 +17,145 @@
 
 package com.pandora.hydra.server.persistence;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.pandora.hydra.common.TestSuite;
 import com.pandora.hydra.server.persistence.model.Build;
 import com.pandora.hydra.server.persistence.model.Project;
 import com.pandora.hydra.server.persistence.model.TestTime;
 import com.pandora.hydra.server.persistence.repo.BuildRepo;
 import com.pandora.hydra.server.persistence.repo.ProjectRepo;
-import com.pandora.hydra.server.persistence.repo.TestRepo;
-import org.apache.commons.lang3.NotImplementedException;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Profile;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * @author Justin Guerra
  * @since 2/12/18
  */
 @Component
-@Profile("!file_repo")
+@Conditional(SqlRepoCondition.class)
 public class SqlStore implements TestStore {
 
     private static final Logger LOG = Logger.getLogger(SqlStore.class);
 
-    private final TestRepo testRepo;
     private final BuildRepo buildRepo;
     private final ProjectRepo projectRepo;
+    private final JdbcTestTimeWriter testTimeWriter;
+    private final JdbcTestTimeReader testTimeReader;
+
+    /**
+     * Test times by build, so repeated test runs of a build don't query the database until it gets new test times
+     */
+    private final Cache<String, BuildSnapshot> snapshots;
+
+    /**
+     * Bumped after every write to a build. A snapshot is only used while its version is current
+     */
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Builds that received test times since the last purge. Every build is purged on the first pass after startup
+     */
+    private final Set<String> buildsToPurge = ConcurrentHashMap.newKeySet();
+    private volatile boolean purgedOnce;
 
     @Autowired
-    public SqlStore(TestRepo testRepo, BuildRepo buildRepo, ProjectRepo projectRepo) {
-        this.testRepo = testRepo;
+    public SqlStore(BuildRepo buildRepo, ProjectRepo projectRepo, JdbcTestTimeWriter testTimeWriter,
+                    JdbcTestTimeReader testTimeReader, @Value("${hydra.sql_snapshot_cache_size:100}") int snapshotCacheSize) {
         this.buildRepo = buildRepo;
         this.projectRepo = projectRepo;
+        this.testTimeWriter = testTimeWriter;
+        this.testTimeReader = testTimeReader;
+        this.snapshots = CacheBuilder.newBuilder().maximumSize(snapshotCacheSize).build();
     }
 
     @Override
     public Map<String, Collection<TestTime>> getTestTimes(String buildName) {
-        Build build = buildRepo.findByName(buildName);
-        if(build == null) {
-            return Collections.emptyMap();
+        long version = getVersion(buildName).get();
+        BuildSnapshot snapshot = snapshots.getIfPresent(buildName);
+        if (snapshot != null && snapshot.version == version) {
+            return snapshot.testTimes;
         }
 
-        List<TestTime> testTimesByBuild = testRepo.findTestTimesByBuild(build);
-        if(testTimesByBuild == null || testTimesByBuild.isEmpty()) {
-            return Collections.emptyMap();
-        }
-
-        Multimap<String, TestTime> map = HashMultimap.create();
-        for (TestTime testTime : testTimesByBuild) {
-            map.put(testTime.getProject().getName(), testTime);
-        }
+        // a write that commits while the query runs bumps the version, so this snapshot is never used
+        Map<String, Collection<TestTime>> testTimes = testTimeReader.getTestTimes(buildName);
+        snapshots.put(buildName, new BuildSnapshot(version, testTimes));
+        return testTimes;
+    }
 
-        return map.asMap();
+    private AtomicLong getVersion(String buildName) {
+        return versions.computeIfAbsent(buildName, b -> new AtomicLong());
     }
 
     @Override
     public void addTestTimes(String projectName, List<TestSuite> testTimes, String host, String buildName) {
-        Build build = getOrCreateBuild(buildName);
-        Project project = getOrCreateProject(projectName);
+        addTestTimes(Collections.singletonList(new TestTimeBatch(buildName, projectName, host, testTimes)));
+    }
 
-        for (TestSuite testSuite : testTimes) {
-            TestTime test = getOrCreateTestTime(testSuite.getClassName(), build, project);
-            test.setBuild(build);
-            test.setProject(project);
-            test.update(testSuite, host);
+    /**
+     * Writes every batch in one transaction
+     */
+    @Override
+    public void addTestTimes(Collection<TestTimeBatch> batches) {
+        List<JdbcTestTimeWriter.Write> writes = new ArrayList<>(batches.size());
+        for (TestTimeBatch batch : batches) {
+            Build build = getOrCreateBuild(batch.getBuild());
+            Project project = getOrCreateProject(batch.getProject());
+            writes.add(new JdbcTestTimeWriter.Write(build.getId(), project.getId(), batch.getTestSuites(), batch.getHost()));
+        }
 
-            testRepo.save(test);
+        try {
+            testTimeWriter.writeAll(writes);
+        } finally {
+            for (TestTimeBatch batch : batches) {
+                getVersion(batch.getBuild()).incrementAndGet();
+                buildsToPurge.add(batch.getBuild());
+            }
         }
     }
 
     @Override
     @Scheduled(fixedDelay = 3_600_000)
     public void purgeObsoleteTests() {
-        for (Build build : buildRepo.findAll()) {
-
-            List<TestTime> testTimesByBuild = testRepo.findTestTimesByBuild(build);
-            for (TestTime t : PersistenceUtil.findObsoleteTests(testTimesByBuild)) {
-                LOG.info("Deleting obsolete test " + t);
-                testRepo.delete(t);
-            }
+        // tests only become obsolete when newer test times arrive, so builds without new test times are skipped
+        final Collection<String> buildNames;
+        if (purgedOnce) {
+            buildNames = new ArrayList<>(buildsToPurge);
+            buildNames.forEach(buildsToPurge::remove);
+        } else {
+            buildNames = buildRepo.findAll().stream().map(Build::getName).collect(Collectors.toList());
+            purgedOnce = true;
         }
-    }
 
-    private TestTime getOrCreateTestTime(String testName, Build build, Project project) {
-        Supplier<TestTime> testTimeSupplier = () -> {
-            TestTime testTime = new TestTime();
-            testTime.setTestName(testName);
-            return testTime;
-        };
+        for (String buildName : buildNames) {
+            Build build = buildRepo.findByName(buildName);
+            if (build == null) {
+                continue;
+            }
 
-        return lookupOrSave(testName, () -> testRepo.findByTestNameAndBuildAndProject(testName, build, project), testTimeSupplier, testRepo::save);
+            int deleted = testTimeWriter.deleteObsoleteTests(build.getId());
+            if (deleted > 0) {
+                LOG.info("Deleted " + deleted + " obsolete tests on build " + buildName);
+                getVersion(buildName).incrementAndGet();
+            }
+        }
     }
 
     private Project getOrCreateProject(String projectName) {
@@ -169,7 +208,27 @@ public class SqlStore implements TestStore {
     }
 
     @Override
-    public void clearTestTimes(String build) {
-        throw new NotImplementedException("Clear is not implemented on SqlStore");
+    public void clearTestTimes(String buildName) {
+        Build build = buildRepo.findByName(buildName);
+        if (build == null) {
+            return;
+        }
+
+        try {
+            int deleted = testTimeWriter.deleteTestTimes(build.getId());
+            LOG.info("Cleared " + deleted + " tests on build " + buildName);
+        } finally {
+            getVersion(buildName).incrementAndGet();
+        }
+    }
+
+    private static class BuildSnapshot {
+        private final long version;
+        private final Map<String, Collection<TestTime>> testTimes;
+
+        BuildSnapshot(long version, Map<String, Collection<TestTime>> testTimes) {
+            this.version = version;
+            this.testTimes = testTimes;
+        }
     }
 }
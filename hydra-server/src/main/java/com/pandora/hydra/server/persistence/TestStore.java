@@ -33,6 +33,15 @@ public interface TestStore {
 
     void addTestTimes(String project, List<TestSuite> testTimes, String host, String build);
 
+    /**
+     * Adds the test times of several hosts, projects and builds at once. Stores that can commit them together override this
+     */
+    default void addTestTimes(Collection<TestTimeBatch> batches) {
+        for (TestTimeBatch batch : batches) {
+            addTestTimes(batch.getProject(), batch.getTestSuites(), batch.getHost(), batch.getBuild());
+        }
+    }
+
     void clearTestTimes(String build);
 
     void purgeObsoleteTests();
@@ -0,0 +1,69 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.pandora.hydra.common.TestSuite;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The test times a host reported for a project of a build
+ *
+ * @since 10/16/26
+ */
+public class TestTimeBatch {
+
+    private final String build;
+    private final String project;
+    private final String host;
+    private final List<TestSuite> testSuites;
+
+    public TestTimeBatch(String build, String project, String host, List<TestSuite> testSuites) {
+        this.build = Objects.requireNonNull(build);
+        this.project = Objects.requireNonNull(project);
+        this.host = Objects.requireNonNull(host);
+        this.testSuites = Objects.requireNonNull(testSuites);
+    }
+
+    public String getBuild() {
+        return build;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public List<TestSuite> getTestSuites() {
+        return testSuites;
+    }
+
+    @Override
+    public String toString() {
+        return "TestTimeBatch{" +
+                "build='" + build + '\'' +
+                ", project='" + project + '\'' +
+                ", host='" + host + '\'' +
+                ", testSuites=" + testSuites.size() +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Strings shared by the {@link CompactProjectTimes} of every build. Most builds run the same tests, so a test name is
+ * only kept once no matter how many builds and projects it appears in, and host names are replaced by small ids
+ *
+ * @since 10/16/26
+ */
+class TestTimeDictionary {
+
+    static final int NO_HOST = -1;
+
+    private final Interner<String> testNames = Interners.newWeakInterner();
+    private final ConcurrentMap<String, Integer> hostIds = new ConcurrentHashMap<>();
+    private volatile String[] hosts = new String[0];
+
+    String internTestName(String testName) {
+        return testNames.intern(testName);
+    }
+
+    int getHostId(String host) {
+        if (host == null) {
+            return NO_HOST;
+        }
+
+        Integer id = hostIds.get(host);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = hostIds.get(host);
+            if (id == null) {
+                id = hosts.length;
+                String[] grown = Arrays.copyOf(hosts, id + 1);
+                grown[id] = host;
+                hosts = grown;
+                hostIds.put(host, id);
+            }
+            return id;
+        }
+    }
+
+    String getHost(int id) {
+        return id == NO_HOST ? null : hosts[id];
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Append only log of the test times received for a build. Each call to {@link #append(String, List)} writes one json
+ * record per line, and the log is fsynced in batches by {@link #sync()}. {@link FileStore} periodically compacts the log
+ * into a snapshot: {@link #rotate()} moves everything appended so far aside, and once the snapshot is on disk the rotated
+ * log is deleted. On startup the snapshot, the rotated log and the log are replayed in that order
+ *
+ * @since 10/16/26
+ */
+class TestTimeLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestTimeLog.class);
+    private static final Gson GSON = new Gson();
+
+    static final String LOG_FILE_NAME = "test.log";
+    static final String ROTATED_LOG_FILE_NAME = "test.log.1";
+
+    private final Path logPath;
+    private final Path rotatedLogPath;
+
+    private FileChannel channel;
+    private boolean unsynced;
+
+    TestTimeLog(Path buildFolder) throws IOException {
+        this.logPath = buildFolder.resolve(LOG_FILE_NAME);
+        this.rotatedLogPath = buildFolder.resolve(ROTATED_LOG_FILE_NAME);
+        this.channel = open(logPath);
+        terminateTornRecord();
+    }
+
+    /**
+     * A crash can leave a partially written record at the end of the log. It's ended with a newline so that the next
+     * record starts on a line of its own, and the partial record is skipped on replay
+     */
+    private void terminateTornRecord() throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return;
+        }
+
+        ByteBuffer last = ByteBuffer.allocate(1);
+        try (FileChannel reader = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            reader.read(last, size - 1);
+        }
+
+        if (last.get(0) != '\n') {
+            channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+    }
+
+    synchronized void append(String project, List<TestTime> testTimes) throws IOException {
+        byte[] record = (GSON.toJson(new Record(project, testTimes)) + '\n').getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        unsynced = true;
+    }
+
+    /**
+     * Forces everything appended since the last sync to disk
+     */
+    synchronized void sync() throws IOException {
+        if (unsynced) {
+            channel.force(false);
+            unsynced = false;
+        }
+    }
+
+    /**
+     * Moves the records appended so far to the rotated log and starts a new, empty log. If an earlier compaction failed
+     * the rotated log is still around, so the records are added to it instead of replacing it
+     */
+    synchronized void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+
+        if (Files.exists(rotatedLogPath)) {
+            try (FileChannel rotated = FileChannel.open(rotatedLogPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 FileChannel current = FileChannel.open(logPath, StandardOpenOption.READ)) {
+                long position = 0;
+                long size = current.size();
+                while (position < size) {
+                    position += current.transferTo(position, size - position, rotated);
+                }
+                rotated.force(false);
+            }
+            Files.delete(logPath);
+        } else {
+            Files.move(logPath, rotatedLogPath);
+        }
+
+        channel = open(logPath);
+        unsynced = false;
+    }
+
+    /**
+     * Called once the records in the rotated log are part of a snapshot
+     */
+    synchronized void deleteRotated() throws IOException {
+        Files.deleteIfExists(rotatedLogPath);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+            unsynced = false;
+        }
+    }
+
+    /**
+     * Replays the rotated log and then the log of a build. A record that can't be parsed, usually the last one written
+     * before a crash, is skipped
+     */
+    static void replay(Path buildFolder, BiConsumer<String, List<TestTime>> consumer) throws IOException {
+        replayFile(buildFolder.resolve(ROTATED_LOG_FILE_NAME), consumer);
+        replayFile(buildFolder.resolve(LOG_FILE_NAME), consumer);
+    }
+
+    private static void replayFile(Path path, BiConsumer<String, List<TestTime>> consumer) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        int records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                final Record record;
+                try {
+                    record = GSON.fromJson(line, Record.class);
+                } catch (JsonParseException e) {
+                    LOG.warn("Skipping unreadable record in " + path.toAbsolutePath());
+                    continue;
+                }
+
+                if (record != null && record.project != null && record.tests != null) {
+                    consumer.accept(record.project, record.tests);
+                    records++;
+                }
+            }
+        }
+
+        LOG.info(String.format("Replayed %d records from %s", records, path.toAbsolutePath()));
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static class Record {
+        private String project;
+        private List<TestTime> tests;
+
+        Record(String project, List<TestTime> tests) {
+            this.project = project;
+            this.tests = tests;
+        }
+    }
+}
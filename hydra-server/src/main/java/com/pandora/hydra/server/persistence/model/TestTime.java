@@ -27,8 +27,10 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import java.sql.Timestamp;
 import java.time.Clock;
+import java.util.Arrays;
 import java.util.Objects;
 
 import static javax.persistence.GenerationType.SEQUENCE;
@@ -44,6 +46,14 @@ import static javax.persistence.GenerationType.SEQUENCE;
 @Table(name = "test")
 public class TestTime {
 
+    /**
+     * How many runtimes are kept in the history of a test
+     */
+    public static final int HISTORY_SIZE = 10;
+
+    private static final long[] NO_HISTORY = new long[0];
+    private static final String[] NO_HOSTS = new String[0];
+
     @Id
     @SequenceGenerator(name="test_id_seq", sequenceName="test_id_seq")
     @GeneratedValue(strategy=SEQUENCE, generator="test_id_seq")
@@ -84,6 +94,19 @@ public class TestTime {
     @Column(name = "last_updated")
     private Timestamp lastUpdated;
 
+    /**
+     * Runtimes of the most recent runs that passed, oldest first. Failed runs are left out, a failure usually cuts a run
+     * short. The SQL store keeps these in the test_runtime_sample table
+     */
+    @Transient
+    private long[] history;
+
+    /**
+     * The hosts the runs in {@link #history} ran on, in the same order
+     */
+    @Transient
+    private String[] historyHosts;
+
     public static TestTime of(TestSuite suite, String host) {
         return new TestTime(suite.getClassName(), suite.getRunTime(), suite.isFailed(), host, Timestamp.from(Clock.systemUTC().instant()));
     }
@@ -105,6 +128,31 @@ public class TestTime {
         this.time = suite.getRunTime();
         this.failed = suite.isFailed();
         this.lastUpdated = Timestamp.from(Clock.systemUTC().instant());
+        appendToHistory(this);
+    }
+
+    /**
+     * Sets the history to the history of the previous test time followed by this run, unless this run failed. Only the last
+     * {@link #HISTORY_SIZE} runs are kept
+     *
+     * @param previous the test time this one replaces, may be null
+     */
+    public void appendToHistory(TestTime previous) {
+        long[] times = previous != null ? previous.getHistory() : NO_HISTORY;
+        String[] hosts = previous != null ? previous.getHistoryHosts() : NO_HOSTS;
+        if (failed) {
+            this.history = times;
+            this.historyHosts = hosts;
+            return;
+        }
+
+        int kept = Math.min(times.length, HISTORY_SIZE - 1);
+        long[] appendedTimes = Arrays.copyOfRange(times, times.length - kept, times.length + 1);
+        String[] appendedHosts = Arrays.copyOfRange(hosts, hosts.length - kept, hosts.length + 1);
+        appendedTimes[kept] = time;
+        appendedHosts[kept] = hostName;
+        this.history = appendedTimes;
+        this.historyHosts = appendedHosts;
     }
 
     public long getId() {
@@ -171,6 +219,32 @@ public class TestTime {
         this.lastUpdated = lastUpdated;
     }
 
+    /**
+     * @return the runtimes of the most recent passing runs, oldest first. Empty if there are none. Must not be modified
+     */
+    public long[] getHistory() {
+        return history != null ? history : NO_HISTORY;
+    }
+
+    public void setHistory(long[] history) {
+        this.history = history;
+    }
+
+    /**
+     * @return the host of each run in the history, null where it isn't known. Must not be modified
+     */
+    public String[] getHistoryHosts() {
+        long[] times = getHistory();
+        if (historyHosts != null && historyHosts.length == times.length) {
+            return historyHosts;
+        }
+        return times.length == 0 ? NO_HOSTS : new String[times.length];
+    }
+
+    public void setHistoryHosts(String[] historyHosts) {
+        this.historyHosts = historyHosts;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
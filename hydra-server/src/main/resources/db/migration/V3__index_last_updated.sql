@@ -0,0 +1 @@
+CREATE INDEX test_build_id_last_updated_idx ON test (build_id, last_updated);
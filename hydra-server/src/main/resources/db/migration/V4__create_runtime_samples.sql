@@ -0,0 +1,7 @@
+CREATE TABLE test_runtime_sample (
+  id          BIGSERIAL PRIMARY KEY,
+  test_id     BIGINT NOT NULL REFERENCES test (id) ON DELETE CASCADE,
+  time        BIGINT,
+  recorded_at TIMESTAMP
+);
+CREATE INDEX test_runtime_sample_test_id_idx ON test_runtime_sample (test_id, id);
@@ -0,0 +1 @@
+ALTER TABLE test_runtime_sample ADD COLUMN hostname VARCHAR;
@@ -0,0 +1,86 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static com.pandora.hydra.server.partition.EncodedResponse.Encoding.DEFLATE;
+import static com.pandora.hydra.server.partition.EncodedResponse.Encoding.GZIP;
+import static com.pandora.hydra.server.partition.EncodedResponse.Encoding.IDENTITY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @since 10/16/26
+ */
+public class EncodedResponseTest {
+
+    private static final String JSON = "[\"com.example.FirstTest\",\"com.example.SecondTest\"]";
+
+    private final EncodedResponse<Set<String>> tests = new EncodedResponse<>(ImmutableSet.of("com.example.FirstTest", "com.example.SecondTest"),
+            new TypeToken<Set<String>>() {}.getType());
+
+    @Test
+    public void encodeIdentity() {
+        assertEquals(JSON, new String(tests.getBytes(IDENTITY), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void encodeGzip() throws IOException {
+        assertEquals(JSON, decode(new GZIPInputStream(new ByteArrayInputStream(tests.getBytes(GZIP)))));
+    }
+
+    @Test
+    public void encodeDeflate() throws IOException {
+        assertEquals(JSON, decode(new InflaterInputStream(new ByteArrayInputStream(tests.getBytes(DEFLATE)))));
+    }
+
+    @Test
+    public void encodingIsCached() {
+        assertSame(tests.getBytes(GZIP), tests.getBytes(GZIP));
+    }
+
+    @Test
+    public void negotiateEncoding() {
+        assertEquals(IDENTITY, EncodedResponse.Encoding.negotiate(null));
+        assertEquals(IDENTITY, EncodedResponse.Encoding.negotiate("br"));
+        assertEquals(GZIP, EncodedResponse.Encoding.negotiate("gzip"));
+        assertEquals(GZIP, EncodedResponse.Encoding.negotiate("deflate, gzip"));
+        assertEquals(GZIP, EncodedResponse.Encoding.negotiate("*"));
+        assertEquals(DEFLATE, EncodedResponse.Encoding.negotiate("deflate"));
+        assertEquals(DEFLATE, EncodedResponse.Encoding.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(IDENTITY, EncodedResponse.Encoding.negotiate("gzip;q=0"));
+    }
+
+    private String decode(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+        }
+    }
+}
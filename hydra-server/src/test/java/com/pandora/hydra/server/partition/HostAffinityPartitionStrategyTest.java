@@ -32,6 +32,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Justin Guerra
@@ -74,6 +75,53 @@ public class HostAffinityPartitionStrategyTest {
         containers.forEach(c -> assertEquals(5, c.getTestTimes().size()));
     }
 
+    @Test
+    public void churnBoundedNewHostOnlyTakesAFairShare() {
+        Collection<TestTime> testData = generateTests(30, "host1", "host2", "host3");
+        Set<String> hostSet = Sets.newHashSet("host1", "host2", "host3", "host4");
+        Set<TestContainer> containers = hostSet.stream().map(h -> new TestContainer(h, "whatever")).collect(Collectors.toSet());
+
+        new HostAffinityPartitionStrategy(0, "churn", 0)
+                .distributeTestTestTimes(new PartitionRequest("host1", "whatever", hostSet, "tag"), testData, containers);
+
+        for (TestContainer container : containers) {
+            if (container.getHostName().equals("host4")) {
+                assertTrue(container.size() == 7 || container.size() == 8);
+            } else {
+                assertTrue(container.getTestTimes().stream().allMatch(t -> t.getHostName().equals(container.getHostName())));
+            }
+        }
+        assertEquals(30, containers.stream().mapToLong(TestContainer::size).sum());
+    }
+
+    @Test
+    public void churnBoundedOnlyMovesTheTestsOfDepartedHosts() {
+        Collection<TestTime> testData = generateTests(30, "host1", "host2", "host3");
+        Set<String> hostSet = Sets.newHashSet("host1", "host2");
+        Set<TestContainer> containers = hostSet.stream().map(h -> new TestContainer(h, "whatever")).collect(Collectors.toSet());
+
+        new HostAffinityPartitionStrategy(0, "churn", 0)
+                .distributeTestTestTimes(new PartitionRequest("host1", "whatever", hostSet, "tag"), testData, containers);
+
+        for (TestContainer container : containers) {
+            assertEquals(15, container.size());
+            assertEquals(10, container.getTestTimes().stream().filter(t -> t.getHostName().equals(container.getHostName())).count());
+        }
+    }
+
+    @Test
+    public void churnBoundedSkipsMovesThatDoNotPayOff() {
+        Collection<TestTime> testData = generateTests(30, "host1", "host2", "host3");
+        Set<String> hostSet = Sets.newHashSet("host1", "host2", "host3", "host4");
+        Set<TestContainer> containers = hostSet.stream().map(h -> new TestContainer(h, "whatever")).collect(Collectors.toSet());
+
+        // every test runs for 1ms, so no move shortens the longest host by more than the move cost
+        new HostAffinityPartitionStrategy(0, "churn", 1)
+                .distributeTestTestTimes(new PartitionRequest("host1", "whatever", hostSet, "tag"), testData, containers);
+
+        containers.forEach(c -> assertEquals(c.getHostName().equals("host4") ? 0 : 10, c.size()));
+    }
+
 
     private Collection<TestTime> generateTests(int numTests, String... hostNames) {
 
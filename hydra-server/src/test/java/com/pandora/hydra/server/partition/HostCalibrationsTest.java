@@ -0,0 +1,117 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class HostCalibrationsTest {
+
+    @Test
+    public void factorsAreRelativeToTheMedianHost() {
+        HostCalibrations calibrations = new HostCalibrations();
+        calibrations.record("host1", 20);
+        calibrations.record("host2", 22);
+        calibrations.record("slow", 44);
+
+        Map<String, Double> speedFactors = calibrations.getSpeedFactors(Arrays.asList("host1", "host2", "slow"));
+
+        assertEquals(20.0 / 22, speedFactors.get("host1"), 1e-9);
+        assertEquals(1.0, speedFactors.get("host2"), 1e-9);
+        assertEquals(2.0, speedFactors.get("slow"), 1e-9);
+    }
+
+    @Test
+    public void scoresAreSmoothed() {
+        HostCalibrations calibrations = new HostCalibrations();
+        calibrations.record("host1", 20);
+        calibrations.record("host2", 20);
+        calibrations.record("host2", 30);
+        calibrations.record("host3", 20);
+
+        assertEquals(23.0 / 20, calibrations.getSpeedFactors(Arrays.asList("host1", "host2", "host3")).get("host2"), 1e-9);
+    }
+
+    @Test
+    public void invalidScoresAreIgnored() {
+        HostCalibrations calibrations = new HostCalibrations();
+        calibrations.record("host1", 0);
+        calibrations.record("host2", Double.NaN);
+        calibrations.record("host3", Double.POSITIVE_INFINITY);
+
+        assertTrue(calibrations.getSpeedFactors(Arrays.asList("host1", "host2", "host3")).isEmpty());
+    }
+
+    @Test
+    public void calibratedFactorsReplaceLearnedOnes() {
+        HostSpeedModel learned = new HostSpeedModel(ImmutableMap.of("host1", 1.5, "host2", 2.0));
+        HostCalibrations calibrations = new HostCalibrations();
+        calibrations.record("host1", 10);
+        calibrations.record("host2", 10.2);
+        calibrations.record("host3", 15);
+
+        HostSpeedModel speeds = learned.withSpeedFactors(calibrations.getSpeedFactors(Arrays.asList("host1", "host2", "host3")));
+
+        assertEquals(10 / 10.2, speeds.getSpeedFactor("host1") / speeds.getSpeedFactor("host2"), 1e-9);
+        assertEquals(15 / 10.2, speeds.getSpeedFactor("host3") / speeds.getSpeedFactor("host2"), 1e-9);
+    }
+
+    @Test
+    public void calibratedFactorsAreRescaledToTheLearnedReference() {
+        // fast is the learned model's reference host, but most calibrated hosts are twice as slow as it
+        HostSpeedModel learned = new HostSpeedModel(ImmutableMap.of("slow", 2.0), ImmutableSet.of("fast", "slow"));
+        HostCalibrations calibrations = new HostCalibrations();
+        calibrations.record("fast", 10);
+        calibrations.record("other1", 20);
+        calibrations.record("other2", 20);
+        calibrations.record("new", 40);
+
+        HostSpeedModel speeds = learned.withSpeedFactors(calibrations.getSpeedFactors(
+                Arrays.asList("fast", "slow", "other1", "other2", "new")));
+
+        assertEquals(1.0, speeds.getSpeedFactor("fast"), 0);
+        assertEquals(2.0, speeds.getSpeedFactor("slow"), 0);
+        assertEquals(4.0, speeds.getSpeedFactor("new"), 1e-9);
+    }
+
+    @Test
+    public void factorsOfARunAreRelativeToItsMedianHost() {
+        HostCalibrations calibrations = new HostCalibrations();
+        calibrations.record("host1", 10);
+        calibrations.record("host2", 20);
+        calibrations.record("host3", 40);
+        calibrations.record("host4", 40);
+
+        Map<String, Double> speedFactors = calibrations.getSpeedFactors(Arrays.asList("host1", "host2", "host3", "uncalibrated"));
+
+        assertEquals(ImmutableSet.of("host1", "host2", "host3"), speedFactors.keySet());
+        assertEquals(0.5, speedFactors.get("host1"), 1e-9);
+        assertEquals(1.0, speedFactors.get("host2"), 1e-9);
+        assertEquals(2.0, speedFactors.get("host3"), 1e-9);
+    }
+}
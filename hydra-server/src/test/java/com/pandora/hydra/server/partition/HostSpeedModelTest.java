@@ -0,0 +1,85 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableMap;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class HostSpeedModelTest {
+
+    @Test
+    public void slowHostIsDetected() {
+        List<TestTime> tests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            long work = 100 * (i + 1);
+            tests.add(newTest("test" + i, new long[]{work, work, work * 2, work + 3},
+                    new String[]{"host1", "host2", "slow", "host1"}));
+        }
+        // one noisy run shouldn't move the factors
+        tests.add(newTest("noisy", new long[]{100, 900, 200}, new String[]{"host1", "host2", "slow"}));
+
+        HostSpeedModel speeds = HostSpeedModel.learn(ImmutableMap.of("project", tests));
+
+        assertEquals(2.0, speeds.getSpeedFactor("slow"), 0.05);
+        assertEquals(1.0, speeds.getSpeedFactor("host1"), 0);
+        assertEquals(1.0, speeds.getSpeedFactor("host2"), 0);
+        assertEquals(1.0, speeds.getSpeedFactor("unknown"), 0);
+    }
+
+    @Test
+    public void uniformFleetStaysUniform() {
+        List<TestTime> tests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            long work = 100 * (i + 1);
+            tests.add(newTest("test" + i, new long[]{work, work + i, work - i}, new String[]{"host1", "host2", "host3"}));
+        }
+
+        assertTrue(HostSpeedModel.learn(ImmutableMap.of("project", tests)).isUniform());
+    }
+
+    @Test
+    public void hostsWithFewSharedTestsAreAverage() {
+        List<TestTime> tests = new ArrayList<>();
+        for (int i = 0; i < HostSpeedModel.MIN_SHARED_TESTS - 1; i++) {
+            tests.add(newTest("test" + i, new long[]{100, 300}, new String[]{"host1", "host2"}));
+        }
+        tests.add(newTest("single", new long[]{100, 100}, new String[]{"host1", "host1"}));
+        Map<String, Collection<TestTime>> testTimes = ImmutableMap.of("project", tests);
+
+        assertTrue(HostSpeedModel.learn(testTimes).isUniform());
+    }
+
+    private static TestTime newTest(String name, long[] history, String[] hosts) {
+        TestTime testTime = new TestTime(name, history[history.length - 1], false, hosts[hosts.length - 1], null);
+        testTime.setHistory(history);
+        testTime.setHistoryHosts(hosts);
+        return testTime;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableSet;
+import com.pandora.hydra.common.TestSuite;
+import com.pandora.hydra.server.persistence.TestStore;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class PartitionServiceTest {
+
+    private static final Set<String> HOSTS = ImmutableSet.of("host1", "host2");
+
+    private BlockingTestStore testStore;
+    private PartitionService partitionService;
+
+    @Before
+    public void setup() {
+        testStore = new BlockingTestStore();
+        partitionService = new PartitionService(testStore, new TestRunCache(1, TimeUnit.MINUTES),
+                (request, testTimes, containers) -> PartitionUtil.greedyPartition(testTimes, containers));
+    }
+
+    @After
+    public void tearDown() {
+        partitionService.shutdown();
+    }
+
+    @Test
+    public void concurrentRequestsShareOneComputation() throws Exception {
+        CompletableFuture<TestRun> first = partitionService.getTestRun(new PartitionRequest("host1", "build", HOSTS, "tag"));
+        CompletableFuture<TestRun> second = partitionService.getTestRun(new PartitionRequest("host2", "build", HOSTS, "tag"));
+
+        assertSame(first, second);
+        assertFalse(first.isDone());
+
+        testStore.release.countDown();
+        TestRun testRun = first.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, testStore.loads.get());
+        assertSame(testRun, partitionService.getTestRun(new PartitionRequest("host1", "build", HOSTS, "tag")).get());
+        assertEquals(1, testStore.loads.get());
+    }
+
+    @Test
+    public void differentBuildTagsAreComputedSeparately() throws Exception {
+        testStore.release.countDown();
+
+        TestRun first = partitionService.getTestRun(new PartitionRequest("host1", "build", HOSTS, "tag1")).get(10, TimeUnit.SECONDS);
+        TestRun second = partitionService.getTestRun(new PartitionRequest("host1", "build", HOSTS, "tag2")).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, testStore.loads.get());
+        assertEquals(ImmutableSet.of(first.getIncludes("host1"), first.getIncludes("host2")),
+                ImmutableSet.of(second.getIncludes("host1"), second.getIncludes("host2")));
+    }
+
+    @Test
+    public void projectsArePartitionedInParallel() throws Exception {
+        partitionService.shutdown();
+        CountDownLatch bothProjectsStarted = new CountDownLatch(2);
+        partitionService = new PartitionService(testStore, new TestRunCache(1, TimeUnit.MINUTES), (request, testTimes, containers) -> {
+            bothProjectsStarted.countDown();
+            try {
+                bothProjectsStarted.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            PartitionUtil.greedyPartition(testTimes, containers);
+        }, 2);
+
+        testStore.projects = ImmutableSet.of("project1", "project2");
+        testStore.release.countDown();
+        TestRun testRun = partitionService.getTestRun(new PartitionRequest("host1", "build", HOSTS, "tag")).get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, bothProjectsStarted.getCount());
+        assertEquals(3, testRun.getIncludes("host1", "project1").size() + testRun.getIncludes("host2", "project1").size());
+        assertEquals(3, testRun.getIncludes("host1", "project2").size() + testRun.getIncludes("host2", "project2").size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failuresArePropagated() {
+        testStore.failure = new IllegalStateException("store is down");
+        testStore.release.countDown();
+
+        partitionService.getTestBlacklist(new PartitionRequest("host1", "build", HOSTS, "tag"));
+    }
+
+    @Test
+    public void deadHostOfARunThatIsNotCachedIsNotRecovered() throws Exception {
+        testStore.release.countDown();
+        partitionService.getTestRun(new PartitionRequest("host1", "build", HOSTS, "tag")).get(10, TimeUnit.SECONDS);
+
+        assertFalse(partitionService.reportDeadHost(new PartitionRequest("host1", "build", HOSTS, "other"),
+                Collections.emptyList()).isPresent());
+        assertTrue(partitionService.reportDeadHost(new PartitionRequest("host1", "build", HOSTS, "tag"),
+                Collections.emptyList()).isPresent());
+        assertFalse(partitionService.reportDeadHost(new PartitionRequest("host1", "build", ImmutableSet.of("host1", "host3"), "tag"),
+                Collections.emptyList()).isPresent());
+    }
+
+    @Test
+    public void resultsOfTestsAnotherHostFinishedFirstAreDropped() throws Exception {
+        testStore.release.countDown();
+        PartitionRequest host1 = new PartitionRequest("host1", "build", HOSTS, "tag");
+        PartitionRequest host2 = new PartitionRequest("host2", "build", HOSTS, "tag");
+        List<TestSuite> results = Arrays.asList(new TestSuite("project", "project.test1", 3, false),
+                new TestSuite("project", "project.test2", 2, false));
+
+        assertSame(results, partitionService.dropDuplicateResults(host1, "project", results));
+
+        partitionService.getTestRun(host1).get(10, TimeUnit.SECONDS);
+        partitionService.reportCompleted(host2, "project", Collections.singletonList("project.test1"));
+
+        List<TestSuite> kept = partitionService.dropDuplicateResults(host1, "project", results);
+        assertEquals(1, kept.size());
+        assertEquals("project.test2", kept.get(0).getClassName());
+    }
+
+    private static class BlockingTestStore implements TestStore {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger loads = new AtomicInteger();
+        private volatile RuntimeException failure;
+        private volatile Set<String> projects = ImmutableSet.of("project");
+
+        @Override
+        public Map<String, Collection<TestTime>> getTestTimes(String buildName) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            loads.incrementAndGet();
+            if (failure != null) {
+                throw failure;
+            }
+            Map<String, Collection<TestTime>> testTimes = new HashMap<>();
+            for (String project : projects) {
+                testTimes.put(project, Arrays.asList(newTest(project + ".test1", 3), newTest(project + ".test2", 2), newTest(project + ".test3", 1)));
+            }
+            return testTimes;
+        }
+
+        @Override
+        public void addTestTimes(String project, List<TestSuite> testTimes, String host, String build) {
+        }
+
+        @Override
+        public void clearTestTimes(String build) {
+        }
+
+        @Override
+        public void purgeObsoleteTests() {
+        }
+
+        private static TestTime newTest(String name, long time) {
+            return new TestTime(name, time, false, null, null);
+        }
+    }
+}
@@ -24,16 +24,19 @@ import org.junit.Test;
 
 import java.sql.Timestamp;
 import java.time.Clock;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Justin Guerra
@@ -100,6 +103,138 @@ public class PartitionUtilTest {
         assertEquals(8, shorterTime);
     }
 
+    @Test
+    public void greedyPartitionGivesSlowerHostsLessWork() {
+        Set<TestContainer> containers = createTestContainers(2);
+        TestContainer host2 = containers.stream().filter(c -> c.getHostName().equals("host2")).findFirst().get();
+        host2.setSpeedFactor(2);
+
+        PartitionUtil.greedyPartition(generateTestsWithTimes(10, 10, 10, 10, 10, 10, 10, 10, 10), containers);
+
+        assertEquals(3, host2.size());
+        assertEquals(60, host2.getTime());
+        assertEquals(60, PartitionUtil.makespan(containers));
+    }
+
+    @Test
+    public void largestDifferencingAndBranchAndBoundFallBackToGreedyForMixedSpeeds() {
+        Set<TestContainer> differencingContainers = createTestContainers(2);
+        slowDown(differencingContainers, "host2", 2);
+        PartitionUtil.largestDifferencingPartition(generateTestsWithTimes(10, 10, 10, 10, 10, 10, 10, 10, 10), differencingContainers);
+
+        Set<TestContainer> searchContainers = createTestContainers(2);
+        slowDown(searchContainers, "host2", 2);
+        PartitionUtil.branchAndBoundPartition(generateTestsWithTimes(10, 10, 10, 10, 10, 10, 10, 10, 10), searchContainers, Duration.ofSeconds(5));
+
+        assertEquals(60, PartitionUtil.makespan(differencingContainers));
+        assertEquals(60, PartitionUtil.makespan(searchContainers));
+    }
+
+    @Test
+    public void existingTestsAndNewTestsAreComparedAtTheSameSpeed() {
+        Timestamp now = Timestamp.from(Clock.systemUTC().instant());
+
+        Set<TestContainer> differencingContainers = createTestContainers(2);
+        slowDown(differencingContainers, "host1", 2);
+        slowDown(differencingContainers, "host2", 2);
+        findHost(differencingContainers, "host1").addTestTime(new TestTime("pinned", 10, true, "host1", now));
+        PartitionUtil.largestDifferencingPartition(generateTestsWithTimes(10, 5, 5), differencingContainers);
+
+        Set<TestContainer> searchContainers = createTestContainers(2);
+        slowDown(searchContainers, "host1", 2);
+        slowDown(searchContainers, "host2", 2);
+        findHost(searchContainers, "host1").addTestTime(new TestTime("pinned", 10, true, "host1", now));
+        PartitionUtil.branchAndBoundPartition(generateTestsWithTimes(10, 5, 5), searchContainers, Duration.ofSeconds(5));
+
+        assertEquals(30, PartitionUtil.makespan(differencingContainers));
+        assertEquals(30, PartitionUtil.makespan(searchContainers));
+    }
+
+    @Test
+    public void largestDifferencingBeatsGreedy() {
+        Collection<TestTime> testTimes = generateTestsWithTimes(8, 7, 6, 5, 4);
+
+        Set<TestContainer> greedyContainers = createTestContainers(2);
+        PartitionUtil.greedyPartition(testTimes, greedyContainers);
+
+        Set<TestContainer> differencingContainers = createTestContainers(2);
+        PartitionUtil.largestDifferencingPartition(testTimes, differencingContainers);
+
+        assertEquals(17, PartitionUtil.makespan(greedyContainers));
+        assertEquals(16, PartitionUtil.makespan(differencingContainers));
+        assertEquals(5, differencingContainers.stream().mapToLong(TestContainer::size).sum());
+    }
+
+    @Test
+    public void largestDifferencingKeepsExistingTests() {
+        Timestamp now = Timestamp.from(Clock.systemUTC().instant());
+        TestTime pinned = new TestTime("pinned", 10, true, "host1", now);
+
+        Set<TestContainer> containers = createTestContainers(3);
+        TestContainer host1 = containers.stream().filter(c -> c.getHostName().equals("host1")).findFirst().get();
+        host1.addTestTime(pinned);
+
+        PartitionUtil.largestDifferencingPartition(generateTestsWithTimes(10, 5, 5, 4, 3, 3), containers);
+
+        assertTrue(host1.getTestTimes().contains(pinned));
+        assertEquals(40, containers.stream().mapToLong(TestContainer::getTime).sum());
+        assertEquals(7, containers.stream().mapToLong(TestContainer::size).sum());
+        assertEquals(14, PartitionUtil.makespan(containers));
+    }
+
+    @Test
+    public void largestDifferencingManyTests() {
+        Random random = new Random(42);
+        long[] times = new long[10_000];
+        for (int i = 0; i < times.length; ++i) {
+            times[i] = 1 + random.nextInt(100_000);
+        }
+
+        Set<TestContainer> containers = createTestContainers(16);
+        PartitionUtil.largestDifferencingPartition(generateTestsWithTimes(times), containers);
+
+        assertEquals(times.length, containers.stream().mapToLong(TestContainer::size).sum());
+        assertTrue(PartitionUtil.makespan(containers) - PartitionUtil.makespanLowerBound(containers) <= 100_000);
+    }
+
+    @Test
+    public void branchAndBoundFindsOptimalPartition() {
+        Set<TestContainer> containers = createTestContainers(2);
+        PartitionUtil.branchAndBoundPartition(generateTestsWithTimes(8, 7, 6, 5, 4), containers, Duration.ofSeconds(5));
+
+        assertEquals(15, PartitionUtil.makespan(containers));
+        assertEquals(5, containers.stream().mapToLong(TestContainer::size).sum());
+    }
+
+    @Test
+    public void branchAndBoundThreeWay() {
+        Set<TestContainer> containers = createTestContainers(3);
+        PartitionUtil.branchAndBoundPartition(generateTestsWithTimes(10, 9, 8, 7, 6, 5, 4, 3, 2, 2, 1, 1, 1), containers, Duration.ofSeconds(5));
+
+        assertEquals(20, PartitionUtil.makespan(containers));
+        assertEquals(13, containers.stream().mapToLong(TestContainer::size).sum());
+    }
+
+    @Test
+    public void branchAndBoundStopsAtDeadline() {
+        Random random = new Random(42);
+        long[] times = new long[5_000];
+        for (int i = 0; i < times.length; ++i) {
+            times[i] = 1 + random.nextInt(1_000_000);
+        }
+
+        Set<TestContainer> greedyContainers = createTestContainers(7);
+        PartitionUtil.greedyPartition(generateTestsWithTimes(times), greedyContainers);
+
+        Set<TestContainer> containers = createTestContainers(7);
+        long start = System.nanoTime();
+        PartitionUtil.branchAndBoundPartition(generateTestsWithTimes(times), containers, Duration.ofMillis(50));
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 5_000);
+        assertEquals(times.length, containers.stream().mapToLong(TestContainer::size).sum());
+        assertTrue(PartitionUtil.makespan(containers) <= PartitionUtil.makespan(greedyContainers));
+    }
+
     private Set<TestContainer> createTestContainers(int num) {
         return IntStream.rangeClosed(1, num)
                 .mapToObj(i -> new TestContainer("host" + i, "whatever"))
@@ -118,4 +253,21 @@ public class PartitionUtilTest {
         return fakeTests;
     }
 
-}
\ No newline at end of file
+    private Collection<TestTime> generateTestsWithTimes(long... times) {
+        List<TestTime> tests = new ArrayList<>();
+        Timestamp now = Timestamp.from(Clock.systemUTC().instant());
+        for (int i = 0; i < times.length; ++i) {
+            tests.add(new TestTime("test" + i, times[i], false, null, now));
+        }
+        return tests;
+    }
+
+
+    private TestContainer findHost(Set<TestContainer> containers, String hostName) {
+        return containers.stream().filter(c -> c.getHostName().equals(hostName)).findFirst().get();
+    }
+
+    private void slowDown(Set<TestContainer> containers, String hostName, double speedFactor) {
+        findHost(containers, hostName).setSpeedFactor(speedFactor);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.Sets;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class RebalancerTest {
+
+    @Test
+    public void swapRebalancerSwapsWhenNoMoveHelps() {
+        TestContainer first = newContainer("host1", 10, 10);
+        TestContainer second = newContainer("host2", 9, 9);
+        Set<TestContainer> containers = Sets.newHashSet(first, second);
+
+        Rebalancer.newSwapRebalancer(0, Duration.ofSeconds(1)).balanceTestContainers(containers);
+
+        assertEquals(19, first.getTime());
+        assertEquals(19, second.getTime());
+        assertEquals(2, first.size());
+        assertEquals(2, second.size());
+    }
+
+    @Test
+    public void timeRebalancerCannotSwap() {
+        TestContainer first = newContainer("host1", 10, 10);
+        TestContainer second = newContainer("host2", 9, 9);
+
+        Rebalancer.newTimeRebalancer(0).balanceTestContainers(Sets.newHashSet(first, second));
+
+        assertEquals(20, Math.max(first.getTime(), second.getTime()));
+    }
+
+    @Test
+    public void swapRebalancerMovesFromLongestContainer() {
+        TestContainer first = newContainer("host1", 5, 5, 5, 5);
+        TestContainer second = newContainer("host2");
+        TestContainer third = newContainer("host3", 1);
+
+        Rebalancer.newSwapRebalancer(0, Duration.ofSeconds(1)).balanceTestContainers(Sets.newHashSet(first, second, third));
+
+        assertEquals(10, Math.max(first.getTime(), Math.max(second.getTime(), third.getTime())));
+        assertEquals(21, first.getTime() + second.getTime() + third.getTime());
+    }
+
+    @Test
+    public void swapRebalancerKeepsFailedTests() {
+        TestContainer first = new TestContainer("host1", "project");
+        first.addTestTime(newTest("failed", 20, true));
+        TestContainer second = newContainer("host2");
+
+        Rebalancer.newSwapRebalancer(0, Duration.ofSeconds(1)).balanceTestContainers(Sets.newHashSet(first, second));
+
+        assertEquals(20, first.getTime());
+        assertTrue(second.getTestTimes().isEmpty());
+    }
+
+    @Test
+    public void swapRebalancerStopsAtThreshold() {
+        TestContainer first = newContainer("host1", 10, 10);
+        TestContainer second = newContainer("host2", 9, 9);
+
+        Rebalancer.newSwapRebalancer(2, Duration.ofSeconds(1)).balanceTestContainers(Sets.newHashSet(first, second));
+
+        assertEquals(20, first.getTime());
+    }
+
+    private TestContainer newContainer(String host, long... times) {
+        TestContainer container = new TestContainer(host, "project");
+        for (int i = 0; i < times.length; ++i) {
+            container.addTestTime(newTest(host + "-test" + i, times[i], false));
+        }
+        return container;
+    }
+
+    private TestTime newTest(String name, long time, boolean failed) {
+        return new TestTime(name, time, failed, null, Timestamp.from(Clock.systemUTC().instant()));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableMap;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @since 10/16/26
+ */
+public class RuntimeEstimatorTest {
+
+    @Test
+    public void slowOutlierIsIgnored() {
+        TestTime testTime = newTest(500, 100, 110, 90, 105, 500);
+
+        assertEquals(500, RuntimeEstimator.lastRuntime().estimate(testTime));
+        assertEquals(102, new RuntimeEstimator(RuntimeEstimator.Method.MEDIAN, 3).estimate(testTime));
+        assertEquals(110, new RuntimeEstimator(RuntimeEstimator.Method.P90, 3).estimate(testTime));
+        assertEquals(500, new RuntimeEstimator(RuntimeEstimator.Method.P90, 0).estimate(testTime));
+    }
+
+    @Test
+    public void ewmaFavorsRecentRuns() {
+        TestTime testTime = newTest(200, 100, 100, 200);
+
+        assertEquals(130, new RuntimeEstimator(RuntimeEstimator.Method.EWMA, 0).estimate(testTime));
+    }
+
+    @Test
+    public void testsWithoutHistoryKeepTheirLastRuntime() {
+        TestTime testTime = new TestTime("a.class", 42, true, "host1", null);
+
+        assertEquals(42, new RuntimeEstimator(RuntimeEstimator.Method.MEDIAN, 3).estimate(testTime));
+    }
+
+    @Test
+    public void outliersAreDroppedInOrder() {
+        assertArrayEquals(new long[]{10, 12, 11}, RuntimeEstimator.dropOutliers(new long[]{10, 1000, 12, 11}, 3));
+        assertArrayEquals(new long[]{10, 10, 10}, RuntimeEstimator.dropOutliers(new long[]{10, 10, 3, 10}, 3));
+        assertArrayEquals(new long[]{10, 1000}, RuntimeEstimator.dropOutliers(new long[]{10, 1000}, 3));
+    }
+
+    @Test
+    public void onlyChangedTestTimesAreCopied() {
+        TestTime unchanged = newTest(100, 100);
+        TestTime changed = newTest(300, 100, 100, 300);
+        Map<String, Collection<TestTime>> testTimes = ImmutableMap.of("project", Arrays.asList(unchanged, changed),
+                "empty", Collections.emptyList());
+
+        Map<String, Collection<TestTime>> estimated = new RuntimeEstimator(RuntimeEstimator.Method.MEDIAN, 3).estimate(testTimes);
+
+        TestTime[] project = estimated.get("project").toArray(new TestTime[0]);
+        assertSame(unchanged, project[0]);
+        assertEquals(100, project[1].getTime());
+        assertEquals(300, changed.getTime());
+        assertEquals("host1", project[1].getHostName());
+        assertEquals(0, estimated.get("empty").size());
+    }
+
+    @Test
+    public void runsAreNormalizedToAnAverageHost() {
+        TestTime testTime = newTest(200, 100, 200, 100);
+        testTime.setHistoryHosts(new String[]{"host1", "slow", "host1"});
+        TestTime lastRunOnSlowHost = new TestTime("b.class", 300, false, "slow", null);
+        HostSpeedModel speeds = new HostSpeedModel(ImmutableMap.of("slow", 2.0));
+
+        assertEquals(100, new RuntimeEstimator(RuntimeEstimator.Method.P90, 0).estimate(testTime, speeds));
+        assertEquals(150, RuntimeEstimator.lastRuntime().estimate(lastRunOnSlowHost, speeds));
+    }
+
+    private static TestTime newTest(long time, long... history) {
+        TestTime testTime = new TestTime("a.class", time, false, "host1", null);
+        testTime.setHistory(history);
+        return testTime;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @since 10/16/26
+ */
+public class TestContainerTest {
+
+    @Test
+    public void removeLongestTest() {
+        TestContainer container = newContainer(3, 7, 5);
+
+        int longest = container.removeFromEnd();
+
+        assertEquals(7, container.getIndex().getTime(longest));
+        assertEquals(8, container.getTime());
+        assertEquals(ImmutableSet.of("test0", "test2"), container.getClasses());
+    }
+
+    @Test
+    public void removeShortestTestThatDidNotFail() {
+        TestContainer container = newContainer(3, 7, 5);
+        container.addTestTime(new TestTime("failed", 1, true, null, null));
+
+        int shortest = container.removeTestWithMaxRunTimeOf(4);
+
+        assertEquals("test0", container.getIndex().getName(shortest));
+        assertEquals(-1, container.removeTestWithMaxRunTimeOf(4));
+        assertEquals(13, container.getTime());
+    }
+
+    @Test
+    public void addKeepsSortedOrder() {
+        TestContainer container = newContainer(3, 7, 5);
+        container.removeFromEnd();
+
+        TestTime added = new TestTime("added", 4, false, null, null);
+        container.addTestTime(added);
+        container.removeFromEnd();
+
+        assertEquals(ImmutableSet.of("test0", "added"), container.getClasses());
+        assertEquals(7, container.getTime());
+    }
+
+    @Test
+    public void containersShareAnIndex() {
+        TestContainer first = newContainer(3, 7);
+        TestContainer second = newContainer(5);
+        assertNotSame(first.getIndex(), second.getIndex());
+
+        Set<TestContainer> containers = Sets.newHashSet(first, second);
+        TestIndex index = TestIndex.shared(containers);
+
+        assertSame(index, first.getIndex());
+        assertSame(index, second.getIndex());
+        assertSame(index, TestIndex.shared(containers));
+        assertEquals(3, index.size());
+        assertEquals(ImmutableSet.of("test0", "test1"), first.getClasses());
+        assertEquals(5, second.getTime());
+    }
+
+    @Test
+    public void sortByTimeDescendingIsStable() {
+        TestIndex index = new TestIndex();
+        int[] ids = index.addAll(Arrays.asList(newTest("a", 1), newTest("b", 3), newTest("c", 1), newTest("d", 3), newTest("e", 2)));
+
+        index.sortByTimeDescending(ids, ids.length);
+
+        String[] names = Arrays.stream(ids).mapToObj(index::getName).toArray(String[]::new);
+        assertEquals(Arrays.asList("b", "d", "e", "a", "c"), Arrays.asList(names));
+    }
+
+    private TestContainer newContainer(long... times) {
+        TestContainer container = new TestContainer("host", "project");
+        for (int i = 0; i < times.length; ++i) {
+            container.addTestTime(newTest("test" + i, times[i]));
+        }
+        return container;
+    }
+
+    private TestTime newTest(String name, long time) {
+        return new TestTime(name, time, false, null, null);
+    }
+}
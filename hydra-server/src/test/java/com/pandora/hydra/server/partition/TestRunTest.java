@@ -0,0 +1,214 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.pandora.hydra.common.TestIncludes;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class TestRunTest {
+
+    private TestRun testRun;
+
+    @Before
+    public void setup() {
+        Partition host1 = new Partition("host1");
+        host1.getTestContainerForProject("a").addTestTime(newTest("a1"));
+        host1.getTestContainerForProject("b").addTestTime(newTest("b1"));
+
+        Partition host2 = new Partition("host2");
+        host2.getTestContainerForProject("a").addTestTime(newTest("a2"));
+        host2.getTestContainerForProject("a").addTestTime(newTest("a3"));
+
+        testRun = new TestRun(Arrays.asList(host1, host2));
+    }
+
+    @Test
+    public void excludesForHost() {
+        assertEquals(ImmutableSet.of("a2", "a3"), testRun.getExcludes("host1"));
+        assertEquals(ImmutableSet.of("a1", "b1"), testRun.getExcludes("host2"));
+        assertEquals(ImmutableSet.of("a1", "b1", "a2", "a3"), testRun.getExcludes("unknown"));
+    }
+
+    @Test
+    public void excludesForHostAndProject() {
+        assertEquals(ImmutableSet.of("a2", "a3"), testRun.getExcludes("host1", "a"));
+        assertEquals(ImmutableSet.of(), testRun.getExcludes("host1", "b"));
+        assertEquals(ImmutableSet.of("b1"), testRun.getExcludes("host2", "b"));
+        assertEquals(ImmutableSet.of(), testRun.getExcludes("host2", "unknown"));
+    }
+
+    @Test
+    public void includes() {
+        assertEquals(ImmutableSet.of("a1", "b1"), testRun.getIncludes("host1"));
+        assertEquals(ImmutableSet.of("a2", "a3"), testRun.getIncludes("host2", "a"));
+        assertEquals(ImmutableSet.of(), testRun.getIncludes("host2", "b"));
+        assertEquals(ImmutableSet.of("host1", "host2"), testRun.getPartitionNames());
+    }
+
+    @Test
+    public void everyTestRunsOnExactlyOneHost() {
+        TestIncludes host1 = testRun.getEncodedIncludes("host1", "a").getValue();
+        TestIncludes host2 = testRun.getEncodedIncludes("host2", "a").getValue();
+
+        assertEquals(ImmutableSet.of("a1"), host1.getIncludes());
+        for (String test : Arrays.asList("a1", "a2", "a3", "neverSeen1", "neverSeen2", "neverSeen3")) {
+            assertNotEquals(test, host1.shouldRun(test), host2.shouldRun(test));
+        }
+        assertTrue(host1.shouldRun("a1"));
+        assertTrue(host2.shouldRun("a3"));
+    }
+
+    @Test
+    public void threadGroupingIsComputedOnce() {
+        AtomicInteger computed = new AtomicInteger();
+        Set<Set<String>> grouping = ImmutableSet.of(ImmutableSet.of("a1"), ImmutableSet.of("b1"));
+
+        Set<Set<String>> first = testRun.getThreadGrouping("host1", 2, () -> {
+            computed.incrementAndGet();
+            return grouping;
+        });
+        Set<Set<String>> second = testRun.getThreadGrouping("host1", 2, () -> {
+            computed.incrementAndGet();
+            return grouping;
+        });
+
+        assertSame(first, second);
+        assertEquals(1, computed.get());
+    }
+
+    @Test
+    public void testsOfDeadHostGoToSurvivors() {
+        Map<String, Set<String>> recovered = testRun.recoverDeadHost("host1", Collections.emptyList());
+
+        assertEquals(ImmutableMap.of("host2", ImmutableSet.of("a1", "b1")), recovered);
+        assertEquals(ImmutableSet.of("a1", "b1"), testRun.getRecoveredTests("host2"));
+        assertEquals(ImmutableSet.of("b1"), testRun.getRecoveredTests("host2", "b"));
+        assertEquals(ImmutableSet.of("a2", "a3"), testRun.getIncludes("host2", "a"));
+        assertEquals(ImmutableMap.of(), testRun.recoverDeadHost("host1", Collections.emptyList()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void lastHostCannotDie() {
+        testRun.recoverDeadHost("host1", Collections.emptyList());
+        testRun.recoverDeadHost("host2", Collections.emptyList());
+    }
+
+    @Test
+    public void completedTestsAreNotRecovered() {
+        testRun.recoverDeadHost("host2", Collections.singletonList("a2"));
+
+        assertEquals(ImmutableSet.of("a3"), testRun.getRecoveredTests("host1", "a"));
+        assertEquals(ImmutableSet.of(), testRun.getRecoveredTests("host1", "b"));
+    }
+
+    @Test
+    public void testsReportedCompletedAreNotRecovered() {
+        testRun.reportCompleted("host2", "a", Collections.singletonList("a2"));
+        testRun.reportCompleted("host1", "a", Collections.singletonList("a3"));
+
+        testRun.recoverDeadHost("host2", Collections.emptyList());
+
+        assertEquals(ImmutableSet.of(), testRun.getRecoveredTests("host1", "a"));
+    }
+
+    @Test
+    public void recoveredTestsMoveOnWhenTheirHostDies() {
+        Partition host3 = new Partition("host3");
+        host3.getTestContainerForProject("a").addTestTime(newTest("a4"));
+        Partition host1 = new Partition("host1");
+        host1.getTestContainerForProject("a").addTestTime(newTest("a1"));
+        host1.getTestContainerForProject("a").addTestTime(newTest("a2"));
+        Partition host2 = new Partition("host2");
+        host2.getTestContainerForProject("a").addTestTime(newTest("a3"));
+        TestRun run = new TestRun(Arrays.asList(host1, host2, host3));
+
+        run.recoverDeadHost("host1", Collections.emptyList());
+        run.recoverDeadHost("host2", Collections.emptyList());
+
+        assertEquals(ImmutableSet.of("a1", "a2", "a3"), run.getRecoveredTests("host3", "a"));
+    }
+
+    @Test
+    public void idleHostGetsLongestUnfinishedTestsOfSlowestHost() {
+        TestRun run = newTailRun();
+        run.reportCompleted("host1", "a", Collections.singletonList("a3"));
+
+        // a2 would only finish on host2 when host1 is done with everything
+        assertEquals(Collections.singletonList("a1"), run.speculate("host2", "a", 2));
+        assertEquals(Collections.singletonList("a2"), run.speculate("host2", "a", 2));
+        assertEquals(Collections.emptyList(), run.speculate("host2", "a", 2));
+    }
+
+    @Test
+    public void testsThatWouldFinishLateOnIdleHostAreNotCopied() {
+        TestRun run = newTailRun();
+        run.getPartitionByName("host2").getTestContainerForProject("a").setSpeedFactor(4);
+
+        assertEquals(Collections.singletonList("a3"), run.speculate("host2", "a", 2));
+
+        run.reportCompleted("host1", "a", Arrays.asList("a1", "a2", "a3"));
+        run.getPartitionByName("host2").getTestContainerForProject("a").setSpeedFactor(1);
+        assertEquals(Collections.emptyList(), run.speculate("host2", "a", 2));
+    }
+
+    @Test
+    public void firstHostToFinishTestWins() {
+        TestRun run = newTailRun();
+
+        assertEquals(ImmutableSet.of("a1"), run.reportCompleted("host2", "a", Collections.singletonList("a1")));
+        assertEquals(ImmutableSet.of("a2"), run.reportCompleted("host1", "a", Arrays.asList("a1", "a2")));
+        assertEquals(ImmutableSet.of("a2"), run.reportCompleted("host1", "a", Collections.singletonList("a2")));
+        assertEquals(2, run.getCompletedCount("a"));
+    }
+
+    private TestRun newTailRun() {
+        Partition host1 = new Partition("host1");
+        host1.getTestContainerForProject("a").addTestTime(newTest("a1", 100));
+        host1.getTestContainerForProject("a").addTestTime(newTest("a2", 50));
+        host1.getTestContainerForProject("a").addTestTime(newTest("a3", 10));
+        Partition host2 = new Partition("host2");
+        host2.getTestContainerForProject("a").addTestTime(newTest("a4", 5));
+        return new TestRun(Arrays.asList(host1, host2));
+    }
+
+    private TestTime newTest(String name) {
+        return newTest(name, 1);
+    }
+
+    private TestTime newTest(String name, long time) {
+        return new TestTime(name, time, false, null, null);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.partition;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.pandora.hydra.common.TestLease;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class WorkQueueTest {
+
+    @Test
+    public void leasesLongestTestsFirst() {
+        WorkQueue queue = new WorkQueue(Sets.newHashSet("host1", "host2"), ImmutableMap.of("project", generateTests(5, 10, 1, 7)));
+
+        assertEquals(Collections.singletonList("test1"), queue.lease("project", "host1", 1, Collections.emptyList()).getTests());
+        assertEquals(Collections.singletonList("test3"), queue.lease("project", "host2", 1, Collections.emptyList()).getTests());
+        assertEquals(Collections.singletonList("test0"), queue.lease("project", "host2", 1, Collections.emptyList()).getTests());
+        assertEquals(Collections.singletonList("test2"), queue.lease("project", "host1", 1, Collections.emptyList()).getTests());
+        assertTrue(queue.lease("project", "host1", 1, Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void batchesShrinkAsQueueDrains() {
+        WorkQueue queue = new WorkQueue(Sets.newHashSet("host1", "host2"), ImmutableMap.of("project", generateTests(1, 1, 1, 1, 1, 1, 1, 1)));
+
+        assertEquals(4, queue.lease("project", "host1", 10, Collections.emptyList()).getTests().size());
+        assertEquals(2, queue.lease("project", "host2", 10, Collections.emptyList()).getTests().size());
+        assertEquals(1, queue.lease("project", "host1", 10, Collections.emptyList()).getTests().size());
+        assertEquals(1, queue.lease("project", "host2", 10, Collections.emptyList()).getTests().size());
+        assertEquals(0, queue.remaining("project"));
+    }
+
+    @Test
+    public void everyTestIsLeasedExactlyOnce() {
+        Set<String> hosts = Sets.newHashSet("host1", "host2", "host3");
+        WorkQueue queue = new WorkQueue(hosts, ImmutableMap.of("project", generateTests(3, 1, 4, 1, 5, 9, 2, 6, 5, 3, 5)));
+
+        List<String> leased = new ArrayList<>();
+        TestLease lease;
+        int i = 0;
+        do {
+            String host = "host" + (i++ % hosts.size() + 1);
+            lease = queue.lease("project", host, 2, Collections.emptyList());
+            leased.addAll(lease.getTests());
+        } while (!lease.isEmpty());
+
+        assertEquals(11, leased.size());
+        assertEquals(11, new HashSet<>(leased).size());
+    }
+
+    @Test
+    public void newTestsAreAssignedToExactlyOneHost() {
+        Set<String> hosts = Sets.newHashSet("host1", "host2", "host3");
+        WorkQueue queue = new WorkQueue(hosts, ImmutableMap.of("project", generateTests(1, 1)));
+
+        List<String> candidates = Lists.newArrayList("test0", "test1", "newTest0", "newTest1", "newTest2", "newTest3");
+
+        List<String> newTests = new ArrayList<>();
+        for (String host : hosts) {
+            newTests.addAll(queue.lease("project", host, 1, candidates).getNewTests());
+        }
+
+        assertEquals(Sets.newHashSet("newTest0", "newTest1", "newTest2", "newTest3"), new HashSet<>(newTests));
+        assertEquals(4, newTests.size());
+    }
+
+    @Test
+    public void expiredLeasesAreLeasedAgain() {
+        MutableClock clock = new MutableClock();
+        WorkQueue queue = new WorkQueue(Sets.newHashSet("host1", "host2"), ImmutableMap.of("project", generateTests(5, 10, 1, 7)),
+                Duration.ofMillis(100), clock);
+
+        assertEquals(Collections.singletonList("test1"), queue.lease("project", "host1", 1, Collections.emptyList()).getTests());
+        assertEquals(Collections.singletonList("test3"), queue.lease("project", "host2", 1, Collections.emptyList()).getTests());
+
+        // test1 is predicted to take 10ms, so its lease lasts 110ms
+        clock.millis += 109;
+        assertEquals(Collections.singletonList("test0"), queue.lease("project", "host2", 1, Collections.emptyList(),
+                Collections.singletonList("test3")).getTests());
+
+        clock.millis += 2;
+        assertEquals(Collections.singletonList("test1"), queue.lease("project", "host2", 1, Collections.emptyList(),
+                Collections.singletonList("test0")).getTests());
+    }
+
+    @Test
+    public void queueIsOnlyDrainedWhenEveryLeaseIsFinished() {
+        MutableClock clock = new MutableClock();
+        WorkQueue queue = new WorkQueue(Sets.newHashSet("host1", "host2"), ImmutableMap.of("project", generateTests(5, 10)),
+                Duration.ofMillis(100), clock);
+
+        queue.lease("project", "host1", 1, Collections.emptyList());
+        queue.lease("project", "host2", 1, Collections.emptyList());
+
+        TestLease lease = queue.lease("project", "host2", 1, Collections.emptyList(), Collections.singletonList("test0"));
+        assertTrue(lease.isEmpty());
+        assertEquals(1, lease.getOutstanding());
+
+        lease = queue.lease("project", "host1", 1, Collections.emptyList(), Collections.singletonList("test1"));
+        assertTrue(lease.isEmpty());
+        assertEquals(0, lease.getOutstanding());
+    }
+
+    @Test
+    public void testsFinishedAfterTheirLeaseExpiredAreNotLeasedAgain() {
+        MutableClock clock = new MutableClock();
+        WorkQueue queue = new WorkQueue(Sets.newHashSet("host1", "host2"), ImmutableMap.of("project", generateTests(4, 3, 2, 1)),
+                Duration.ofMillis(100), clock);
+
+        assertEquals(Arrays.asList("test0", "test1"), queue.lease("project", "host1", 10, Collections.emptyList()).getTests());
+        clock.millis += 200;
+        assertEquals(Collections.singletonList("test0"), queue.lease("project", "host2", 1, Collections.emptyList()).getTests());
+
+        // host1 was slow, not dead
+        List<String> leased = new ArrayList<>(queue.lease("project", "host1", 10, Collections.emptyList(),
+                Arrays.asList("test0", "test1")).getTests());
+        leased.addAll(queue.lease("project", "host1", 10, Collections.emptyList()).getTests());
+
+        assertEquals(Arrays.asList("test2", "test3"), leased);
+        assertEquals(2, queue.outstanding("project"));
+    }
+
+    @Test
+    public void newTestsAreLeasedAgainWhenTheirHostDies() {
+        MutableClock clock = new MutableClock();
+        Set<String> hosts = Sets.newHashSet("host1", "host2");
+        WorkQueue queue = new WorkQueue(hosts, Collections.emptyMap(), Duration.ofMillis(100), clock);
+
+        List<String> candidates = Lists.newArrayList("newTest0", "newTest1", "newTest2", "newTest3");
+        List<String> host1Tests = queue.lease("project", "host1", 1, candidates).getNewTests();
+        assertEquals(candidates.size(), queue.lease("project", "host2", 1, candidates).getNewTests().size() + host1Tests.size());
+        assertEquals(4, queue.outstanding("project"));
+
+        clock.millis += 200;
+        List<String> leased = new ArrayList<>();
+        TestLease lease;
+        do {
+            lease = queue.lease("project", "host2", 1, Collections.emptyList(), leased);
+            leased.addAll(lease.getTests());
+        } while (!lease.isEmpty());
+
+        assertEquals(new HashSet<>(candidates), new HashSet<>(leased));
+    }
+
+    @Test
+    public void newTestsOfAHostThatNeverAsksForWorkStillRun() {
+        MutableClock clock = new MutableClock();
+        WorkQueue queue = new WorkQueue(Sets.newHashSet("host1", "dead"), Collections.emptyMap(), Duration.ofMillis(100), clock);
+
+        List<String> candidates = Lists.newArrayList("newTest0", "newTest1", "newTest2", "newTest3", "newTest4", "newTest5");
+        TestLease lease = queue.lease("project", "host1", 10, candidates);
+        List<String> leased = new ArrayList<>(lease.getNewTests());
+        assertTrue(lease.getTests().isEmpty());
+        assertEquals(candidates.size(), lease.getOutstanding());
+
+        clock.millis += 200;
+        while (!lease.isEmpty()) {
+            lease = queue.lease("project", "host1", 10, Collections.emptyList(), leased);
+            leased.addAll(lease.getTests());
+        }
+
+        assertEquals(new HashSet<>(candidates), new HashSet<>(leased));
+        assertEquals(candidates.size(), leased.size());
+        assertEquals(0, queue.outstanding("project"));
+    }
+
+    private Collection<TestTime> generateTests(long... times) {
+        List<TestTime> tests = new ArrayList<>();
+        Timestamp now = Timestamp.from(Clock.systemUTC().instant());
+        for (int i = 0; i < times.length; ++i) {
+            tests.add(new TestTime("test" + i, times[i], false, null, now));
+        }
+        return tests;
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.Test;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class CompactProjectTimesTest {
+
+    private final TestTimeDictionary dictionary = new TestTimeDictionary();
+
+    @Test
+    public void testTimesAreRebuiltFromColumns() {
+        CompactProjectTimes projectTimes = new CompactProjectTimes(dictionary);
+        projectTimes.put(new TestTime("a.class", 10, true, "host1", new Timestamp(1000)));
+        projectTimes.put(new TestTime("b.class", 20, false, null, null));
+
+        Map<String, TestTime> testTimes = byName(projectTimes.snapshot());
+
+        TestTime a = testTimes.get("a.class");
+        assertEquals(10, a.getTime());
+        assertTrue(a.isFailed());
+        assertEquals("host1", a.getHostName());
+        assertEquals(1000, a.getLastUpdated().getTime());
+
+        TestTime b = testTimes.get("b.class");
+        assertFalse(b.isFailed());
+        assertNull(b.getHostName());
+        assertNull(b.getLastUpdated());
+    }
+
+    @Test
+    public void sameTestWithAndWithoutSuffixIsReplaced() {
+        CompactProjectTimes projectTimes = new CompactProjectTimes(dictionary);
+        projectTimes.put(new TestTime("com.a.Test", 10, false, "host1", null));
+        projectTimes.put(new TestTime("com.a.Test.class", 20, false, "host2", null));
+
+        Collection<TestTime> snapshot = projectTimes.snapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals(20, snapshot.iterator().next().getTime());
+        assertEquals("host2", snapshot.iterator().next().getHostName());
+    }
+
+    @Test
+    public void snapshotsDontChange() {
+        CompactProjectTimes projectTimes = new CompactProjectTimes(dictionary);
+        projectTimes.put(new TestTime("a.class", 10, false, "host1", null));
+        Collection<TestTime> before = projectTimes.snapshot();
+
+        projectTimes.put(new TestTime("a.class", 30, true, "host2", null));
+        projectTimes.put(new TestTime("b.class", 20, false, "host1", null));
+        projectTimes.removeAll(Arrays.asList(new TestTime("b.class", 0, false, null, null)));
+
+        assertEquals(1, before.size());
+        assertEquals(10, before.iterator().next().getTime());
+        assertEquals(30, projectTimes.snapshot().iterator().next().getTime());
+    }
+
+    @Test
+    public void manyTestsCanBeAddedAndRemoved() {
+        CompactProjectTimes projectTimes = new CompactProjectTimes(dictionary);
+        for (int i = 0; i < 1000; i++) {
+            projectTimes.put(new TestTime("com.pandora.Test" + i, i, i % 2 == 0, "host" + i % 3, null));
+        }
+
+        Collection<TestTime> toRemove = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 3) {
+            toRemove.add(new TestTime("com.pandora.Test" + i + ".class", 0, false, null, null));
+        }
+        projectTimes.removeAll(toRemove);
+
+        Map<String, TestTime> testTimes = byName(projectTimes.snapshot());
+        assertEquals(666, testTimes.size());
+        for (int i = 0; i < 1000; i++) {
+            TestTime testTime = testTimes.get("com.pandora.Test" + i);
+            if (i % 3 == 0) {
+                assertNull(testTime);
+            } else {
+                assertEquals(i, testTime.getTime());
+                assertEquals(i % 2 == 0, testTime.isFailed());
+                assertEquals("host" + i % 3, testTime.getHostName());
+            }
+        }
+
+        projectTimes.put(new TestTime("com.pandora.Test1", 5, false, null, null));
+        assertEquals(666, projectTimes.size());
+    }
+
+    @Test
+    public void testNamesAreSharedAcrossProjects() {
+        CompactProjectTimes first = new CompactProjectTimes(dictionary);
+        CompactProjectTimes second = new CompactProjectTimes(dictionary);
+        first.put(new TestTime(new String("a.class"), 10, false, null, null));
+        second.put(new TestTime(new String("a.class"), 20, false, null, null));
+
+        assertSame(first.snapshot().iterator().next().getTestName(), second.snapshot().iterator().next().getTestName());
+    }
+
+    private static Map<String, TestTime> byName(Collection<TestTime> testTimes) {
+        return testTimes.stream().collect(Collectors.toMap(TestTime::getTestName, t -> t));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.pandora.hydra.common.TestSuite;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class EmbeddedStoreTest {
+
+    private Path repo;
+
+    @Before
+    public void setup() throws IOException {
+        repo = Files.createTempDirectory("hydra-repo");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(repo)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testTimesSurviveARestart() throws IOException {
+        EmbeddedStore store = newStore();
+        store.addTestTimes("radio", Arrays.asList(new TestSuite("radio", "a.class", 10, false), new TestSuite("radio", "b.class", 20, true)), "host1", "build");
+        store.addTestTimes("web", Collections.singletonList(new TestSuite("web", "c.class", 5, false)), "host2", "build");
+        store.close();
+
+        Map<String, Collection<TestTime>> testTimes = newStore().getTestTimes("build");
+
+        assertEquals(2, testTimes.size());
+        Map<String, TestTime> radio = byName(testTimes.get("radio"));
+        assertEquals(10, radio.get("a.class").getTime());
+        assertTrue(radio.get("b.class").isFailed());
+        assertEquals("host1", radio.get("b.class").getHostName());
+        assertEquals(5, byName(testTimes.get("web")).get("c.class").getTime());
+    }
+
+    @Test
+    public void testsAreUpdatedInPlace() throws IOException {
+        EmbeddedStore store = newStore();
+        store.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a", 10, false)), "host1", "build");
+        store.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 30, false)), "host2", "build");
+
+        Collection<TestTime> radio = store.getTestTimes("build").get("radio");
+
+        assertEquals(1, radio.size());
+        TestTime testTime = radio.iterator().next();
+        assertEquals("a.class", testTime.getTestName());
+        assertEquals(30, testTime.getTime());
+        assertEquals("host2", testTime.getHostName());
+        store.close();
+    }
+
+    @Test
+    public void historyLeavesOutFailedRuns() throws IOException {
+        EmbeddedStore store = newStore();
+        store.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 10, false)), "host1", "build");
+        store.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 2, true)), "host1", "build");
+        store.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 20, false)), "host2", "build");
+        store.close();
+
+        TestTime a = newStore().getTestTimes("build").get("radio").iterator().next();
+
+        assertEquals(20, a.getTime());
+        assertArrayEquals(new long[]{10, 20}, a.getHistory());
+        assertArrayEquals(new String[]{"host1", "host2"}, a.getHistoryHosts());
+    }
+
+    @Test
+    public void clearedBuildsAreRemoved() throws IOException {
+        EmbeddedStore store = newStore();
+        store.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 10, false)), "host1", "build");
+        store.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 10, false)), "host1", "other");
+        store.clearTestTimes("build");
+        store.clearTestTimes("unknown");
+
+        assertTrue(store.getTestTimes("build").isEmpty());
+        assertEquals(1, store.getTestTimes("other").get("radio").size());
+        store.close();
+    }
+
+    @Test
+    public void valuesRoundTrip() {
+        TestTime testTime = new TestTime("com.pandora.RadioTest", 42, true, "host1", new Timestamp(1000));
+        TestTime decoded = EmbeddedStore.decode("com.pandora.RadioTest.class", EmbeddedStore.encode(testTime));
+
+        assertEquals("com.pandora.RadioTest", decoded.getTestName());
+        assertEquals(42, decoded.getTime());
+        assertTrue(decoded.isFailed());
+        assertEquals("host1", decoded.getHostName());
+        assertEquals(1000, decoded.getLastUpdated().getTime());
+
+        TestTime withoutHost = EmbeddedStore.decode("a.class", EmbeddedStore.encode(new TestTime("a.class", 1, false, null, null)));
+        assertNull(withoutHost.getHostName());
+        assertNull(withoutHost.getLastUpdated());
+    }
+
+    private EmbeddedStore newStore() throws IOException {
+        EmbeddedStore store = new EmbeddedStore(repo.resolve("hydra.mv.db").toString(), 1, 1000);
+        store.init();
+        return store;
+    }
+
+    private static Map<String, TestTime> byName(Collection<TestTime> testTimes) {
+        return testTimes.stream().collect(Collectors.toMap(TestTime::getTestName, t -> t));
+    }
+}
@@ -20,18 +20,43 @@ package com.pandora.hydra.server.persistence;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.pandora.hydra.common.TestSuite;
 import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.sql.Timestamp;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Justin Guerra
@@ -39,6 +64,212 @@ import static org.junit.Assert.assertTrue;
  */
 public class FileStoreTest {
 
+    private Path repo;
+
+    @Before
+    public void setup() throws IOException {
+        repo = Files.createTempDirectory("hydra-repo");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(repo)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testTimesAreReplayedFromTheLog() throws IOException {
+        FileStore fileStore = newFileStore();
+        fileStore.addTestTimes("radio", Arrays.asList(new TestSuite("radio", "a.class", 10, false), new TestSuite("radio", "b.class", 20, true)), "host1", "build");
+        fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 30, false)), "host2", "build");
+        fileStore.close();
+
+        Map<String, Long> times = getTimes(newFileStore(), "build", "radio");
+
+        assertEquals(2, times.size());
+        assertEquals(30L, (long) times.get("a.class"));
+        assertEquals(20L, (long) times.get("b.class"));
+    }
+
+    @Test
+    public void compactionWritesASnapshotAndTruncatesTheLog() throws IOException {
+        FileStore fileStore = newFileStore();
+        fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 10, false)), "host1", "build");
+        fileStore.compactLogs();
+        fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "b.class", 20, false)), "host1", "build");
+        fileStore.close();
+
+        Path buildFolder = repo.resolve("build");
+        assertTrue(Files.exists(buildFolder.resolve("test.current")));
+        assertFalse(Files.exists(buildFolder.resolve(TestTimeLog.ROTATED_LOG_FILE_NAME)));
+        assertEquals(1, Files.readAllLines(buildFolder.resolve(TestTimeLog.LOG_FILE_NAME)).size());
+
+        Map<String, Long> times = getTimes(newFileStore(), "build", "radio");
+        assertEquals(10L, (long) times.get("a.class"));
+        assertEquals(20L, (long) times.get("b.class"));
+    }
+
+    @Test
+    public void compactStoreSnapshotCanBeReloaded() throws IOException {
+        FileStore fileStore = new FileStore(repo.toString(), true);
+        fileStore.init();
+        fileStore.addTestTimes("radio", Arrays.asList(new TestSuite("radio", "a.class", 10, true), new TestSuite("radio", "b.class", 20, false)), "host1", "build");
+        fileStore.compactLogs();
+        fileStore.close();
+
+        Map<String, Long> times = getTimes(newFileStore(), "build", "radio");
+        assertEquals(10L, (long) times.get("a.class"));
+        assertEquals(20L, (long) times.get("b.class"));
+    }
+
+    @Test
+    public void tornRecordIsSkipped() throws IOException {
+        FileStore fileStore = newFileStore();
+        fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 10, false)), "host1", "build");
+        fileStore.close();
+
+        Files.write(repo.resolve("build").resolve(TestTimeLog.LOG_FILE_NAME), "{\"project\":\"radio\",\"tes".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        fileStore = newFileStore();
+        fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "b.class", 20, false)), "host1", "build");
+        fileStore.close();
+
+        Map<String, Long> times = getTimes(newFileStore(), "build", "radio");
+        assertEquals(2, times.size());
+    }
+
+    @Test
+    public void clearedBuildsStayCleared() throws IOException {
+        FileStore fileStore = newFileStore();
+        fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 10, false)), "host1", "build");
+        fileStore.compactLogs();
+        fileStore.clearTestTimes("build");
+        fileStore.close();
+
+        assertTrue(newFileStore().getTestTimes("build").isEmpty());
+    }
+
+    @Test
+    public void readersKeepTheirSnapshot() throws IOException {
+        FileStore fileStore = newFileStore();
+        fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 10, false)), "host1", "build");
+
+        Map<String, Collection<TestTime>> before = fileStore.getTestTimes("build");
+        assertSame(before, fileStore.getTestTimes("build"));
+
+        fileStore.addTestTimes("radio", Arrays.asList(new TestSuite("radio", "a", 30, false), new TestSuite("radio", "b.class", 20, false)), "host1", "build");
+        fileStore.close();
+
+        assertEquals(10L, before.get("radio").iterator().next().getTime());
+        Map<String, Long> after = getTimes(fileStore, "build", "radio");
+        assertEquals(2, after.size());
+        assertEquals(20L, (long) after.get("b.class"));
+    }
+
+    @Test
+    public void concurrentWritersDontLoseTestTimes() throws Exception {
+        concurrentWritersDontLoseTestTimes(newFileStore());
+    }
+
+    @Test
+    public void concurrentWritersDontLoseTestTimesInCompactStore() throws Exception {
+        FileStore fileStore = new FileStore(repo.toString(), true);
+        fileStore.init();
+        concurrentWritersDontLoseTestTimes(fileStore);
+    }
+
+    private void concurrentWritersDontLoseTestTimes(FileStore fileStore) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (int host = 0; host < 4; host++) {
+                String hostName = "host" + host;
+                writes.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", hostName + ".Test" + i + ".class", i, false)), hostName, "build");
+                        fileStore.getTestTimes("build");
+                    }
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+            fileStore.close();
+        }
+
+        assertEquals(200, fileStore.getTestTimes("build").get("radio").size());
+        assertEquals(200, newFileStore().getTestTimes("build").get("radio").size());
+    }
+
+    @Test
+    public void buildsAreLoadedFromSnapshots() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            Path buildFolder = Files.createDirectory(repo.resolve("build" + i));
+            Files.write(buildFolder.resolve("test.current"),
+                    ("{\"radio\":[{\"testName\":\"a.class\",\"time\":" + i + "},{\"testName\":\"b.class\",\"time\":1}]}")
+                            .getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(Files.createDirectory(repo.resolve("broken")).resolve("test.current"), "{\"radio\":[".getBytes(StandardCharsets.UTF_8));
+
+        FileStore fileStore = newFileStore();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, (long) getTimes(fileStore, "build" + i, "radio").get("a.class"));
+        }
+
+        try {
+            fileStore.getAllLoaded().get(10, TimeUnit.SECONDS);
+            fail("broken build should fail the load");
+        } catch (ExecutionException expected) {
+        }
+
+        try {
+            fileStore.getTestTimes("broken");
+            fail("broken build shouldn't be served");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void historySurvivesCompactionAndReplay() throws IOException {
+        for (boolean compact : new boolean[]{false, true}) {
+            String build = "build" + compact;
+            FileStore fileStore = new FileStore(repo.toString(), compact);
+            fileStore.init();
+            fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 10, false)), "host1", build);
+            fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 20, false)), "host1", build);
+            fileStore.compactLogs();
+            fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a.class", 5, true)), "host1", build);
+            fileStore.addTestTimes("radio", Collections.singletonList(new TestSuite("radio", "a", 30, false)), "host2", build);
+            fileStore.close();
+
+            fileStore = new FileStore(repo.toString(), compact);
+            fileStore.init();
+            TestTime a = fileStore.getTestTimes(build).get("radio").iterator().next();
+            assertEquals(30, a.getTime());
+            assertTrue(Arrays.equals(new long[]{10, 20, 30}, a.getHistory()));
+            assertTrue(Arrays.equals(new String[]{"host1", "host1", "host2"}, a.getHistoryHosts()));
+            fileStore.close();
+        }
+    }
+
+    private FileStore newFileStore() throws IOException {
+        FileStore fileStore = new FileStore(repo.toString());
+        fileStore.init();
+        return fileStore;
+    }
+
+    private static Map<String, Long> getTimes(FileStore fileStore, String build, String project) {
+        return fileStore.getTestTimes(build).get(project).stream()
+                .collect(Collectors.toMap(TestTime::getTestName, TestTime::getTime));
+    }
+
     @Test
     public void purgeAllOldTests() {
 
@@ -54,7 +285,7 @@ public class FileStoreTest {
         FileStore fileStore = new FileStore(cache);
         fileStore.purgeObsoleteTests();
 
-        Set<TestTime> times = new HashSet<>(cache.get("fakeBuild").asMap().get("radio"));
+        Set<TestTime> times = new HashSet<>(fileStore.getTestTimes("fakeBuild").get("radio"));
 
         assertTrue(!times.contains(oldTest));
     }
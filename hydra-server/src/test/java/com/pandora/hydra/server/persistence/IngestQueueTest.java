@@ -0,0 +1,193 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.pandora.hydra.common.TestSuite;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 10/16/26
+ */
+public class IngestQueueTest {
+
+    private final CapturingTestStore testStore = new CapturingTestStore();
+    private IngestQueue ingestQueue;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        testStore.release.countDown();
+        if (ingestQueue != null) {
+            ingestQueue.stop();
+        }
+    }
+
+    @Test
+    public void batchesOfTheSameHostProjectAndBuildAreMerged() {
+        List<TestTimeBatch> merged = IngestQueue.merge(Arrays.asList(
+                batch("build", "radio", "host1", "a.class"),
+                batch("build", "radio", "host2", "b.class"),
+                batch("build", "radio", "host1", "c.class"),
+                batch("other", "radio", "host1", "d.class")));
+
+        assertEquals(3, merged.size());
+        assertEquals("host1", merged.get(0).getHost());
+        assertEquals(Arrays.asList("a.class", "c.class"), classNames(merged.get(0)));
+        assertEquals(Collections.singletonList("b.class"), classNames(merged.get(1)));
+        assertEquals("other", merged.get(2).getBuild());
+    }
+
+    @Test
+    public void queuedBatchesAreWritten() throws Exception {
+        testStore.release.countDown();
+        ingestQueue = new IngestQueue(testStore, 10, 10, 5);
+        ingestQueue.start();
+
+        assertTrue(ingestQueue.offer(batch("build", "radio", "host1", "a.class")));
+        assertTrue(ingestQueue.offer(batch("build", "radio", "host2", "b.class")));
+        ingestQueue.stop();
+
+        assertEquals(2, testStore.written.stream().mapToInt(List::size).sum());
+        assertEquals(0, ingestQueue.getQueueDepth());
+    }
+
+    @Test
+    public void batchesAreRejectedWhenTheQueueIsFull() throws Exception {
+        ingestQueue = new IngestQueue(testStore, 1, 10, 7);
+        ingestQueue.start();
+
+        assertTrue(ingestQueue.offer(batch("build", "radio", "host1", "a.class")));
+        assertTrue(testStore.writing.await(10, TimeUnit.SECONDS));
+
+        assertTrue(ingestQueue.offer(batch("build", "radio", "host2", "b.class")));
+        assertFalse(ingestQueue.offer(batch("build", "radio", "host3", "c.class")));
+        assertEquals(1, ingestQueue.getQueueDepth());
+        assertEquals(7, ingestQueue.getRetryAfterSeconds());
+    }
+
+    @Test
+    public void failedWritesDoNotStopTheWriter() throws Exception {
+        testStore.release.countDown();
+        testStore.failures.add("broken");
+        ingestQueue = new IngestQueue(testStore, 10, 1, 5);
+        ingestQueue.start();
+
+        assertTrue(ingestQueue.offer(batch("broken", "radio", "host1", "a.class")));
+        assertTrue(ingestQueue.offer(batch("build", "radio", "host1", "b.class")));
+        ingestQueue.stop();
+
+        assertEquals(1, testStore.written.size());
+        assertEquals("build", testStore.written.get(0).get(0).getBuild());
+    }
+
+    @Test
+    public void oneBadBatchDoesNotDiscardTheOthers() throws Exception {
+        testStore.release.countDown();
+        testStore.failures.add("broken");
+        ingestQueue = new IngestQueue(testStore, 10, 10, 5);
+
+        // offered before the writer starts, so they're written together
+        assertTrue(ingestQueue.offer(batch("build", "radio", "host1", "a.class")));
+        assertTrue(ingestQueue.offer(batch("broken", "radio", "host1", "b.class")));
+        assertTrue(ingestQueue.offer(batch("build", "radio", "host2", "c.class")));
+        ingestQueue.start();
+        ingestQueue.stop();
+
+        assertEquals(2, testStore.written.size());
+        assertEquals("host1", testStore.written.get(0).get(0).getHost());
+        assertEquals("host2", testStore.written.get(1).get(0).getHost());
+    }
+
+    @Test
+    public void transientFailuresAreRetried() throws Exception {
+        testStore.release.countDown();
+        testStore.transientFailures.set(2);
+        ingestQueue = new IngestQueue(testStore, 10, 10, 5, 3);
+        ingestQueue.start();
+
+        assertTrue(ingestQueue.offer(batch("build", "radio", "host1", "a.class")));
+        ingestQueue.stop();
+
+        assertEquals(1, testStore.written.size());
+        assertEquals(0, testStore.transientFailures.get());
+    }
+
+    private static TestTimeBatch batch(String build, String project, String host, String className) {
+        return new TestTimeBatch(build, project, host, Collections.singletonList(new TestSuite(project, className, 10, false)));
+    }
+
+    private static List<String> classNames(TestTimeBatch batch) {
+        return Arrays.asList(batch.getTestSuites().stream().map(TestSuite::getClassName).toArray(String[]::new));
+    }
+
+    private static class CapturingTestStore implements TestStore {
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<String> failures = new CopyOnWriteArrayList<>();
+        private final AtomicInteger transientFailures = new AtomicInteger();
+        private final List<List<TestTimeBatch>> written = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void addTestTimes(Collection<TestTimeBatch> batches) {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (transientFailures.getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                    || batches.stream().anyMatch(b -> failures.contains(b.getBuild()))) {
+                throw new IllegalStateException("store is down");
+            }
+            written.add(new CopyOnWriteArrayList<>(batches));
+        }
+
+        @Override
+        public Map<String, Collection<TestTime>> getTestTimes(String buildName) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void addTestTimes(String project, List<TestSuite> testTimes, String host, String build) {
+        }
+
+        @Override
+        public void clearTestTimes(String build) {
+        }
+
+        @Override
+        public void purgeObsoleteTests() {
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.google.common.collect.ImmutableSet;
+import com.pandora.hydra.common.TestSuite;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import org.flywaydb.core.Flyway;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs against an in memory H2 database migrated with the same scripts as production
+ *
+ * @since 10/16/26
+ */
+public class JdbcTestTimeWriterTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private JdbcTestTimeWriter writer;
+    private long buildId;
+    private long projectId;
+
+    @Before
+    public void setup() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.migrate();
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        writer = new JdbcTestTimeWriter(jdbcTemplate, new DataSourceTransactionManager(dataSource), 7);
+
+        jdbcTemplate.update("INSERT INTO build (name) VALUES ('build')");
+        jdbcTemplate.update("INSERT INTO project (name) VALUES ('project')");
+        buildId = jdbcTemplate.queryForObject("SELECT id FROM build WHERE name = 'build'", Long.class);
+        projectId = jdbcTemplate.queryForObject("SELECT id FROM project WHERE name = 'project'", Long.class);
+    }
+
+    @Test
+    public void newTestsAreInsertedAndExistingTestsUpdated() {
+        writer.write(buildId, projectId, Arrays.asList(new TestSuite("project", "a.class", 10, false),
+                new TestSuite("project", "b.class", 20, false)), "host1");
+        writer.write(buildId, projectId, Arrays.asList(new TestSuite("project", "b.class", 30, true),
+                new TestSuite("project", "c.class", 40, false)), "host2");
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT name, time, failed, hostname FROM test ORDER BY name");
+        assertEquals(3, rows.size());
+        assertRow(rows.get(0), "a.class", 10, false, "host1");
+        assertRow(rows.get(1), "b.class", 30, true, "host2");
+        assertRow(rows.get(2), "c.class", 40, false, "host2");
+    }
+
+    @Test
+    public void suitesReportedTwiceInOneRequestAreWrittenOnce() {
+        writer.write(buildId, projectId, Arrays.asList(new TestSuite("project", "a.class", 10, false),
+                new TestSuite("project", "a.class", 20, false)), "host1");
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT name, time, failed, hostname FROM test");
+        assertEquals(1, rows.size());
+        assertRow(rows.get(0), "a.class", 20, false, "host1");
+    }
+
+    @Test
+    public void largeBatchesAreWrittenQuickly() {
+        List<TestSuite> suites = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            suites.add(new TestSuite("project", "com.pandora.Test" + i + ".class", i, false));
+        }
+
+        long start = System.nanoTime();
+        writer.write(buildId, projectId, suites, "host1");
+        writer.write(buildId, projectId, suites, "host2");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(20_000, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM test WHERE hostname = 'host2'", Integer.class));
+        assertTrue("Writing took " + elapsedMillis + "ms", elapsedMillis < 10_000);
+    }
+
+    @Test
+    public void emptyRequestsDoNothing() {
+        writer.write(buildId, projectId, Collections.emptyList(), "host1");
+
+        assertEquals(0, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM test", Integer.class));
+    }
+
+    @Test
+    public void testTimesAreReadByProject() {
+        jdbcTemplate.update("INSERT INTO project (name) VALUES ('other')");
+        long otherProjectId = jdbcTemplate.queryForObject("SELECT id FROM project WHERE name = 'other'", Long.class);
+        writer.write(buildId, projectId, Arrays.asList(new TestSuite("project", "a.class", 10, true),
+                new TestSuite("project", "b.class", 20, false)), "host1");
+        writer.write(buildId, otherProjectId, Collections.singletonList(new TestSuite("other", "c.class", 30, false)), "host2");
+
+        Map<String, Collection<TestTime>> testTimes = new JdbcTestTimeReader(jdbcTemplate).getTestTimes("build");
+
+        assertEquals(ImmutableSet.of("project", "other"), testTimes.keySet());
+        assertEquals(2, testTimes.get("project").size());
+        TestTime c = testTimes.get("other").iterator().next();
+        assertEquals("c.class", c.getTestName());
+        assertEquals(30, c.getTime());
+        assertEquals("host2", c.getHostName());
+        assertNotNull(c.getLastUpdated());
+        assertTrue(new JdbcTestTimeReader(jdbcTemplate).getTestTimes("unknown").isEmpty());
+    }
+
+    @Test
+    public void historyKeepsTheLatestPassingRuns() {
+        for (int i = 1; i <= TestTime.HISTORY_SIZE + 2; i++) {
+            writer.write(buildId, projectId, Collections.singletonList(new TestSuite("project", "a.class", i, false)), "host1");
+        }
+        writer.write(buildId, projectId, Collections.singletonList(new TestSuite("project", "a.class", 1000, true)), "host1");
+
+        TestTime a = new JdbcTestTimeReader(jdbcTemplate).getTestTimes("build").get("project").iterator().next();
+
+        assertEquals(1000, a.getTime());
+        assertEquals(TestTime.HISTORY_SIZE, a.getHistory().length);
+        assertEquals(3, a.getHistory()[0]);
+        assertEquals(TestTime.HISTORY_SIZE + 2, a.getHistory()[TestTime.HISTORY_SIZE - 1]);
+        assertEquals("host1", a.getHistoryHosts()[0]);
+
+        writer.deleteTestTimes(buildId);
+        assertEquals(0, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM test_runtime_sample", Integer.class));
+    }
+
+    @Test
+    public void obsoleteTestsAreDeletedInChunks() {
+        List<TestSuite> suites = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            suites.add(new TestSuite("project", "Test" + i + ".class", i, false));
+        }
+        writer.write(buildId, projectId, suites, "host1");
+
+        jdbcTemplate.update("UPDATE test SET last_updated = ? WHERE name LIKE 'Test1%'",
+                Timestamp.from(Instant.now().minus(10, ChronoUnit.DAYS)));
+        jdbcTemplate.update("UPDATE test SET last_updated = NULL WHERE name = 'Test2.class'");
+
+        // Test1 and Test10 - Test19
+        assertEquals(12, writer.deleteObsoleteTests(buildId));
+        assertEquals(88, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM test", Integer.class));
+        assertEquals(0, writer.deleteObsoleteTests(buildId));
+    }
+
+    @Test
+    public void buildsWithoutTimestampsAreNotPurged() {
+        writer.write(buildId, projectId, Collections.singletonList(new TestSuite("project", "a.class", 10, false)), "host1");
+        jdbcTemplate.update("UPDATE test SET last_updated = NULL");
+
+        assertEquals(0, writer.deleteObsoleteTests(buildId));
+    }
+
+    @Test
+    public void clearingABuildOnlyDeletesItsTests() {
+        jdbcTemplate.update("INSERT INTO build (name) VALUES ('other')");
+        long otherBuildId = jdbcTemplate.queryForObject("SELECT id FROM build WHERE name = 'other'", Long.class);
+
+        List<TestSuite> suites = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            suites.add(new TestSuite("project", "Test" + i + ".class", i, false));
+        }
+        writer.write(buildId, projectId, suites, "host1");
+        writer.write(otherBuildId, projectId, suites, "host1");
+
+        assertEquals(50, writer.deleteTestTimes(buildId));
+        assertEquals(50, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM test WHERE build_id = ?", Integer.class, otherBuildId));
+    }
+
+    private static void assertRow(Map<String, Object> row, String name, long time, boolean failed, String host) {
+        assertEquals(name, row.get("name"));
+        assertEquals(time, ((Number) row.get("time")).longValue());
+        assertEquals(failed, row.get("failed"));
+        assertEquals(host, row.get("hostname"));
+    }
+}
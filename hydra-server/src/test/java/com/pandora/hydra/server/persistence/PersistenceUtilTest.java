@@ -108,6 +108,18 @@ public class PersistenceUtilTest {
         assertEquals(0, obsoleteTests.size());
     }
 
+    @Test
+    public void obsoleteBeforeMatchesIsTestOlderThanAverage() {
+        Instant average = clock.instant();
+        Instant cutoff = PersistenceUtil.obsoleteBefore(average);
+
+        for (long millis : new long[]{-86_401_000, -86_400_000, -86_399_500, -86_399_000, -86_398_999, 0}) {
+            Instant lastUpdated = average.plusMillis(millis);
+            testTimeLastUpdatedAt(lastUpdated);
+            assertEquals("offset " + millis, PersistenceUtil.isTestOlderThanAverage(average, testTime), lastUpdated.isBefore(cutoff));
+        }
+    }
+
     private void testTimeLastUpdatedAt(Instant lastUpdated) {
         Timestamp timestamp = Timestamp.from(lastUpdated);
         doReturn(timestamp).when(testTime).getLastUpdated();
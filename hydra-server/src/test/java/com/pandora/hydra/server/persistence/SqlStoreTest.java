@@ -0,0 +1,144 @@
+/*
+ * Copyright Pandora Media Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.pandora.hydra.server.persistence;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.pandora.hydra.common.TestSuite;
+import com.pandora.hydra.server.persistence.model.Build;
+import com.pandora.hydra.server.persistence.model.Project;
+import com.pandora.hydra.server.persistence.model.TestTime;
+import com.pandora.hydra.server.persistence.repo.BuildRepo;
+import com.pandora.hydra.server.persistence.repo.ProjectRepo;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @since 10/16/26
+ */
+public class SqlStoreTest {
+
+    private BuildRepo buildRepo;
+    private JdbcTestTimeReader reader;
+    private JdbcTestTimeWriter writer;
+    private SqlStore sqlStore;
+
+    @Before
+    public void setup() {
+        buildRepo = mock(BuildRepo.class);
+        ProjectRepo projectRepo = mock(ProjectRepo.class);
+        when(buildRepo.findByName(anyString())).thenReturn(new Build());
+        when(projectRepo.findByName(anyString())).thenReturn(new Project());
+
+        reader = mock(JdbcTestTimeReader.class);
+        writer = mock(JdbcTestTimeWriter.class);
+        Map<String, Collection<TestTime>> testTimes = ImmutableMap.of("project", ImmutableList.of(new TestTime("a.class", 10, false, "host1", null)));
+        when(reader.getTestTimes(anyString())).thenReturn(testTimes);
+
+        sqlStore = new SqlStore(buildRepo, projectRepo, writer, reader, 10);
+    }
+
+    @Test
+    public void repeatedReadsUseTheSnapshot() {
+        Map<String, Collection<TestTime>> first = sqlStore.getTestTimes("build");
+        assertSame(first, sqlStore.getTestTimes("build"));
+
+        verify(reader, times(1)).getTestTimes("build");
+    }
+
+    @Test
+    public void writesInvalidateTheSnapshotOfTheirBuild() {
+        sqlStore.getTestTimes("build");
+        sqlStore.getTestTimes("other");
+
+        sqlStore.addTestTimes("project", Collections.singletonList(new TestSuite("project", "a.class", 20, false)), "host1", "build");
+        sqlStore.getTestTimes("build");
+        sqlStore.getTestTimes("other");
+
+        verify(reader, times(2)).getTestTimes("build");
+        verify(reader, times(1)).getTestTimes("other");
+    }
+
+    @Test
+    public void failedWritesInvalidateTheSnapshot() {
+        sqlStore.getTestTimes("build");
+        doThrow(new IllegalStateException()).when(writer).writeAll(anyListOf(JdbcTestTimeWriter.Write.class));
+
+        try {
+            sqlStore.addTestTimes("project", Collections.singletonList(new TestSuite("project", "a.class", 20, false)), "host1", "build");
+        } catch (IllegalStateException expected) {
+        }
+        sqlStore.getTestTimes("build");
+
+        verify(reader, times(2)).getTestTimes("build");
+    }
+
+    @Test
+    public void onlyBuildsWithNewTestTimesArePurgedAfterTheFirstPass() {
+        Build build = new Build();
+        build.setName("build");
+        Build other = new Build();
+        other.setName("other");
+        when(buildRepo.findAll()).thenReturn(Arrays.asList(build, other));
+
+        sqlStore.purgeObsoleteTests();
+        verify(writer, times(2)).deleteObsoleteTests(anyLong());
+
+        sqlStore.addTestTimes("project", Collections.singletonList(new TestSuite("project", "a.class", 20, false)), "host1", "build");
+        sqlStore.purgeObsoleteTests();
+        verify(writer, times(3)).deleteObsoleteTests(anyLong());
+
+        sqlStore.purgeObsoleteTests();
+        verify(writer, times(3)).deleteObsoleteTests(anyLong());
+    }
+
+    @Test
+    public void clearingABuildInvalidatesTheSnapshot() {
+        sqlStore.getTestTimes("build");
+        sqlStore.clearTestTimes("build");
+        sqlStore.getTestTimes("build");
+
+        verify(writer).deleteTestTimes(anyLong());
+        verify(reader, times(2)).getTestTimes("build");
+    }
+
+    @Test
+    public void snapshotsAreKeptPerBuild() {
+        assertEquals(1, sqlStore.getTestTimes("build").size());
+        assertEquals(1, sqlStore.getTestTimes("other").size());
+
+        verify(reader, times(1)).getTestTimes("build");
+        verify(reader, times(1)).getTestTimes("other");
+    }
+}